@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Small dependency free micro benchmark harness. Each case runs timed warmup iterations followed by timed measurement
+ * iterations, and results can be compared against a saved baseline to catch regressions.
+ */
+class Bench
+{
+
+    // One benchmarked operation
+    public static abstract class Case
+    {
+
+        final String name;
+
+        Case(String name)
+        {
+            this.name = name;
+        }
+
+        void setup() throws Exception
+        {
+        }
+
+        // Return something derived from the work so the JIT cannot drop it
+        abstract Object run() throws Exception;
+
+        void teardown() throws Exception
+        {
+        }
+    } // Case
+
+    public static class Result
+    {
+
+        String name;
+        double nsPerOp;
+        double stddev;
+        long ops;
+
+        double opsPerSec()
+        {
+            return 1e9 / nsPerOp;
+        }
+    } // Result
+
+    private final List<Case> cases = new ArrayList<>();
+    private final int warmupIterations = Integer.getInteger("bench.warmup", 3);
+    private final int measureIterations = Integer.getInteger("bench.iterations", 5);
+    private final long iterationMs = Long.getLong("bench.time", 1000);
+    private volatile int sink;
+
+    public void add(Case benchCase)
+    {
+        cases.add(benchCase);
+    }
+
+    public List<Result> run(String filter) throws Exception
+    {
+        Pattern pattern = Pattern.compile(filter);
+        List<Result> results = new ArrayList<>();
+        System.out.println(String.format("%-44s %14s %12s %14s", "Benchmark", "ns/op", "+/-", "ops/s"));
+        for (Case benchCase : cases)
+        {
+            if (!pattern.matcher(benchCase.name).find())
+            {
+                continue;
+            }
+            benchCase.setup();
+            try
+            {
+                for (int i = 0; i < warmupIterations; i++)
+                {
+                    iteration(benchCase);
+                }
+                double[] samples = new double[measureIterations];
+                long ops = 0;
+                for (int i = 0; i < measureIterations; i++)
+                {
+                    long[] measured = iteration(benchCase);
+                    samples[i] = (double) measured[0] / measured[1];
+                    ops += measured[1];
+                }
+
+                Result result = new Result();
+                result.name = benchCase.name;
+                result.ops = ops;
+                result.nsPerOp = mean(samples);
+                result.stddev = stddev(samples, result.nsPerOp);
+                results.add(result);
+                System.out.println(String.format("%-44s %14.1f %12.1f %14.1f",
+                        result.name, result.nsPerOp, result.stddev, result.opsPerSec()));
+            }
+            finally
+            {
+                benchCase.teardown();
+            }
+        }
+        return results;
+    } // run
+
+    // Run the case back to back for one iteration period, returns {elapsed ns, ops}
+    private long[] iteration(Case benchCase) throws Exception
+    {
+        long deadline = System.nanoTime() + iterationMs * 1000000;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        do
+        {
+            Object value = benchCase.run();
+            sink ^= (value == null) ? 0 : value.hashCode();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[]
+        {
+            now - start, ops
+        };
+    } // iteration
+
+    public static void writeResults(List<Result> results, File file) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        try ( Writer out = new FileWriter(file))
+        {
+            out.write("benchmark,ns_per_op,stddev,ops\n");
+            for (Result result : results)
+            {
+                out.write(result.name + "," + result.nsPerOp + "," + result.stddev + "," + result.ops + "\n");
+            }
+        }
+    } // writeResults
+
+    /**
+     * Compare against a previously written results file. Returns the number of benchmarks that got slower than the allowed
+     * tolerance (0.20 = 20%).
+     */
+    public static int compare(List<Result> results, File baseline, double tolerance) throws IOException
+    {
+        Map<String, Double> previous = new HashMap<>();
+        try ( BufferedReader in = new BufferedReader(new FileReader(baseline)))
+        {
+            String line = in.readLine(); // header
+            while ((line = in.readLine()) != null)
+            {
+                String[] fields = line.split(",");
+                previous.put(fields[0], Double.valueOf(fields[1]));
+            }
+        }
+
+        int regressions = 0;
+        for (Result result : results)
+        {
+            Double before = previous.get(result.name);
+            if (before == null)
+            {
+                continue;
+            }
+            double change = (result.nsPerOp - before) / before;
+            boolean regressed = change > tolerance;
+            System.out.println(String.format("%-44s %+7.1f%% %s", result.name, change * 100, regressed ? "REGRESSION" : ""));
+            if (regressed)
+            {
+                regressions++;
+            }
+        }
+        return regressions;
+    } // compare
+
+    private static double mean(double[] samples)
+    {
+        double total = 0;
+        for (double sample : samples)
+        {
+            total += sample;
+        }
+        return total / samples.length;
+    }
+
+    private static double stddev(double[] samples, double mean)
+    {
+        double total = 0;
+        for (double sample : samples)
+        {
+            total += (sample - mean) * (sample - mean);
+        }
+        return Math.sqrt(total / samples.length);
+    }
+} // class Bench
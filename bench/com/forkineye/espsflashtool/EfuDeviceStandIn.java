@@ -0,0 +1,219 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for an ESPixelStick's /updatefw endpoint. Accepts the multipart EFU upload, checks the EFU structure and
+ * keeps the last sketch and filesystem images it received. Can throttle to a device's flash write speed and fail the
+ * first uploads to exercise retries.
+ */
+class EfuDeviceStandIn
+{
+
+    private final HttpServer server;
+    private final int kbps;
+    private final AtomicInteger failuresLeft;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private volatile byte[] sketch = null;
+    private volatile byte[] spiffs = null;
+
+    public EfuDeviceStandIn(int kbps, int failFirst) throws IOException
+    {
+        this.kbps = kbps;
+        this.failuresLeft = new AtomicInteger(failFirst);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/updatefw", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                int status;
+                String reply;
+                byte[] body = readBody(exchange.getRequestBody());
+                if (!"POST".equals(exchange.getRequestMethod()))
+                {
+                    status = 405;
+                    reply = "POST only";
+                }
+                else if (failuresLeft.getAndDecrement() > 0)
+                {
+                    status = 500;
+                    reply = "Simulated update failure";
+                }
+                else
+                {
+                    reply = accept(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+                    status = reply.isEmpty() ? 200 : 400;
+                }
+
+                byte[] bytes = (reply.isEmpty() ? "Update complete" : reply).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, bytes.length);
+                try ( OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(bytes);
+                }
+            }
+        });
+        server.start();
+    } // EfuDeviceStandIn
+
+    public String getTarget()
+    {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int getAccepted()
+    {
+        return accepted.get();
+    }
+
+    public byte[] getSketch()
+    {
+        return sketch;
+    }
+
+    public byte[] getSpiffs()
+    {
+        return spiffs;
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+    }
+
+    // Reads the request as the device would, at its flash write speed if one is set
+    private byte[] readBody(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1)
+        {
+            body.write(buffer, 0, count);
+            if (kbps > 0)
+            {
+                try
+                {
+                    Thread.sleep(count / kbps);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return body.toByteArray();
+    } // readBody
+
+    // Empty string when the upload is a well formed EFU, otherwise why not
+    private String accept(String contentType, byte[] body)
+    {
+        if (contentType == null || !contentType.startsWith("multipart/form-data; boundary="))
+        {
+            return "Not a multipart upload";
+        }
+        byte[] boundary = ("\r\n--" + contentType.substring(contentType.indexOf('=') + 1))
+                .getBytes(StandardCharsets.US_ASCII);
+        int start = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), 0);
+        if (start < 0)
+        {
+            return "No part headers";
+        }
+        start += 4;
+        int end = indexOf(body, boundary, start);
+        if (end < 0)
+        {
+            return "No closing boundary";
+        }
+
+        ByteBuffer efu = ByteBuffer.wrap(body, start, end - start);
+        byte[] signature = new byte[4];
+        efu.get(signature);
+        if (!Arrays.equals(signature, new byte[]
+        {
+            'E', 'F', 'U', 0
+        }) || efu.getShort() != 1)
+        {
+            return "Bad EFU signature";
+        }
+
+        byte[] newSketch = null;
+        byte[] newSpiffs = null;
+        while (efu.remaining() > 0)
+        {
+            if (efu.remaining() < 6)
+            {
+                return "Truncated record header";
+            }
+            int type = efu.getShort();
+            int size = efu.getInt();
+            if (size < 0 || size > efu.remaining())
+            {
+                return "Truncated record";
+            }
+            byte[] data = new byte[size];
+            efu.get(data);
+            if (type == 1)
+            {
+                newSketch = data;
+            }
+            else if (type == 2)
+            {
+                newSpiffs = data;
+            }
+        }
+        if (newSketch == null)
+        {
+            return "No sketch record";
+        }
+        sketch = newSketch;
+        spiffs = newSpiffs;
+        accepted.incrementAndGet();
+        return "";
+    } // accept
+
+    private static int indexOf(byte[] data, byte[] pattern, int from)
+    {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++)
+        {
+            for (int j = 0; j < pattern.length; j++)
+            {
+                if (data[i + j] != pattern[j])
+                {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    } // indexOf
+} // class EfuDeviceStandIn
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pushes an EFU to a fleet of local stand-in devices (EfuDeviceStandIn) and reports devices/minute, then checks every
+ * device ended up with the exact images sent.
+ *
+ * Run with "ant bench-ota". Optional properties: bench.ota.devices (default 16), bench.ota.parallel (default 4),
+ * bench.ota.kbps (simulated device write speed in KB/s, default 0 = unthrottled), bench.ota.fail (uploads each device
+ * rejects before accepting one, default 0), bench.ota.chunked (default false).
+ */
+public class EfuPushBenchmark
+{
+
+    public static void main(String[] args) throws Exception
+    {
+        int devices = Integer.getInteger("bench.ota.devices", 16);
+        int parallel = Integer.getInteger("bench.ota.parallel", 4);
+        int kbps = Integer.getInteger("bench.ota.kbps", 0);
+        int failFirst = Integer.getInteger("bench.ota.fail", 0);
+
+        byte[] sketch = random(1536 * 1024, 1);
+        byte[] spiffs = random(192 * 1024, 2);
+
+        List<EfuDeviceStandIn> fleet = new ArrayList<>();
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < devices; i++)
+        {
+            EfuDeviceStandIn device = new EfuDeviceStandIn(kbps, failFirst);
+            fleet.add(device);
+            targets.add(device.getTarget());
+        }
+
+        EfuUploader uploader = new EfuUploader(ByteBuffer.wrap(sketch), ByteBuffer.wrap(spiffs), "benchmark.efu");
+        uploader.setParallel(parallel);
+        uploader.setRetries(failFirst);
+        uploader.setChunked(Boolean.getBoolean("bench.ota.chunked"));
+
+        long start = System.nanoTime();
+        List<EfuUploader.Result> results = uploader.uploadAll(targets, new EfuUploader.Listener()
+        {
+            @Override
+            public void uploadDone(EfuUploader.Result result)
+            {
+                System.out.println(result);
+            }
+        });
+        double elapsedSec = (System.nanoTime() - start) / 1e9;
+
+        int failed = 0;
+        for (int i = 0; i < devices; i++)
+        {
+            EfuDeviceStandIn device = fleet.get(i);
+            if (!results.get(i).isSuccess() || device.getAccepted() != 1
+                    || !Arrays.equals(sketch, device.getSketch()) || !Arrays.equals(spiffs, device.getSpiffs()))
+            {
+                System.err.println("Device " + device.getTarget() + " does not hold the pushed images");
+                failed++;
+            }
+            device.stop();
+        }
+
+        long bytes = UpdateBuilder.size(sketch.length, spiffs.length) * devices;
+        System.out.println();
+        System.out.println(String.format("%d device(s), %d in parallel: %.2fs, %.1f devices/min, %.1f MB/s, %d failed",
+                devices, parallel, elapsedSec, devices / elapsedSec * 60, bytes / elapsedSec / (1024 * 1024), failed));
+        System.exit(failed == 0 ? 0 : 1);
+    } // main
+
+    private static byte[] random(int size, long seed)
+    {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+} // class EfuPushBenchmark
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.forkineye.espsflashtool.ImageTask.ImageTaskActionToPerform;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End to end station throughput: runs full ImageTask actions against simulated ESP bootloaders (bench/esp_sim.py) on
+ * pseudo-terminals and reports units/hour plus per phase latency distributions. Linux / macOS only.
+ *
+ * Run with "ant bench-e2e". Optional properties: bench.e2e.units (runs per action and port, default 5), bench.e2e.ports
+ * (simulated devices flashed side by side, default 1), bench.e2e.kbps (simulated flash speed in KB/s, default 0 = as fast
+ * as the link allows), bench.e2e.transport (pty, or socket / rfc2217 to reach the devices as remote slots over TCP),
+ * bench.e2e.check (true lets uploads check the device first, so repeat runs measure re-provisioning units that are
+ * already current; default false, every run erases and writes everything).
+ */
+public class FlashThroughputBenchmark
+{
+
+    private static final String BOARD_JSON = "{ \"release\": \"Benchmark\", \"baudrate\": \"115200\", \"boards\": [ {"
+            + " \"name\": \"Simulated ESP32\", \"description\": \"esp_sim.py\", \"chip\": \"esp32\", \"appbin\": \"esp32/app.bin\","
+            + " \"esptool\": { \"baudrate\": \"460800\", \"options\": \"--before no_reset --after no_reset\", \"flashcmd\": \"write_flash -z\" },"
+            + " \"binfiles\": [ { \"name\": \"esp32/bootloader.bin\", \"offset\": \"0x1000\" },"
+            + " { \"name\": \"esp32/partitions.bin\", \"offset\": \"0x8000\" },"
+            + " { \"name\": \"esp32/boot_app0.bin\", \"offset\": \"0xe000\" },"
+            + " { \"name\": \"esp32/app.bin\", \"offset\": \"0x10000\" } ],"
+            + " \"filesystem\": { \"page\": \"256\", \"block\": \"4096\", \"size\": \"0x30000\", \"offset\": \"0x3D0000\" } } ] }";
+
+    private static final ImageTaskActionToPerform[] ACTIONS =
+    {
+        ImageTaskActionToPerform.CREATE_AND_UPLOAD_ALL,
+        ImageTaskActionToPerform.DOWNLOAD_FILESYSTEM,
+        ImageTaskActionToPerform.MAKEEFU
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        final int units = Integer.getInteger("bench.e2e.units", 5);
+        final int ports = Integer.getInteger("bench.e2e.ports", 1);
+        String kbps = System.getProperty("bench.e2e.kbps", "0");
+        String simScript = System.getProperty("bench.sim", "../bench/esp_sim.py");
+        System.setProperty("espsflashtool.flash.check", System.getProperty("bench.e2e.check", "false"));
+        String transport = System.getProperty("bench.e2e.transport", "pty");
+
+        ESPSFlashTool.paths.init();
+        ESPSFlashTool.deviceConfig.init();
+        final Board board = new FTConfig().parse(new StringReader(BOARD_JSON)).boards.get(0);
+        ESPSFlashTool.board = board;
+        ESPSFlashTool.paths.updatePlatformName();
+        writeFirmware();
+
+        List<Process> simulators = new ArrayList<>();
+        final List<ESPSSerialPort> devices = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < ports; i++)
+            {
+                List<String> command = new ArrayList<>(Arrays.asList("python3", simScript, "--chip", board.chip,
+                        "--flash-kbps", kbps));
+                if (!transport.equals("pty"))
+                {
+                    command.addAll(Arrays.asList("--listen", "0"));
+                    if (transport.equals("rfc2217"))
+                    {
+                        command.add("--rfc2217");
+                    }
+                }
+                Process sim = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                simulators.add(sim);
+                String path = new BufferedReader(new InputStreamReader(sim.getInputStream())).readLine();
+                System.out.println("Simulated " + board.chip + " on " + path);
+                devices.add(transport.equals("pty") ? new ESPSSerialPort(SerialPort.getCommPort(path))
+                        : new ESPSSerialPort(path));
+            }
+
+            Map<String, List<Long>> phaseLatency = new TreeMap<>();
+            List<String[]> summary = new ArrayList<>();
+            for (ImageTaskActionToPerform action : ACTIONS)
+            {
+                final List<Long> jobLatency = Collections.synchronizedList(new ArrayList<Long>());
+                final AtomicInteger failures = new AtomicInteger();
+                final ImageTaskActionToPerform current = action;
+                int firstRecord = ESPSFlashTool.metrics.getRecords().size();
+
+                // One station thread per simulated device, each flashing its units back to back
+                long start = System.nanoTime();
+                List<Thread> stations = new ArrayList<>();
+                for (final ESPSSerialPort device : devices)
+                {
+                    Thread station = new Thread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            for (int unit = 0; unit < units; unit++)
+                            {
+                                long t0 = System.nanoTime();
+                                int status = runTask(current, device, board);
+                                jobLatency.add((System.nanoTime() - t0) / 1000000);
+                                if (status != 0)
+                                {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    });
+                    station.start();
+                    stations.add(station);
+                }
+                for (Thread station : stations)
+                {
+                    station.join();
+                }
+                double elapsedSec = (System.nanoTime() - start) / 1e9;
+
+                List<FlashMetrics.Record> records = ESPSFlashTool.metrics.getRecords();
+                for (FlashMetrics.Record record : records.subList(firstRecord, records.size()))
+                {
+                    String key = action + "/" + record.phase;
+                    if (!phaseLatency.containsKey(key))
+                    {
+                        phaseLatency.put(key, new ArrayList<Long>());
+                    }
+                    phaseLatency.get(key).add(record.wallMs);
+                }
+
+                double unitsPerHour = (units * devices.size()) / elapsedSec * 3600;
+                summary.add(new String[]
+                {
+                    action.toString(), String.format("%.0f", unitsPerHour), Integer.toString(failures.get()),
+                    percentiles(jobLatency)
+                });
+            }
+
+            System.out.println();
+            System.out.println(String.format("%-24s %12s %8s   %s", "Action", "units/hour", "failed", "job ms p50/p90/p99/max"));
+            for (String[] row : summary)
+            {
+                System.out.println(String.format("%-24s %12s %8s   %s", row[0], row[1], row[2], row[3]));
+            }
+            System.out.println();
+            System.out.println(String.format("%-40s   %s", "Phase", "ms p50/p90/p99/max"));
+            for (Map.Entry<String, List<Long>> entry : phaseLatency.entrySet())
+            {
+                System.out.println(String.format("%-40s   %s", entry.getKey(), percentiles(entry.getValue())));
+            }
+
+            File output = new File(System.getProperty("bench.output", "../build/bench/e2e.csv"));
+            output.getParentFile().mkdirs();
+            try ( Writer out = new FileWriter(output))
+            {
+                ESPSFlashTool.metrics.exportCsv(out);
+            }
+            System.out.println("Phase records written to " + output.getCanonicalPath());
+        }
+        finally
+        {
+            for (Process sim : simulators)
+            {
+                sim.destroy();
+            }
+        }
+        System.exit(0);
+    } // main
+
+    private static int runTask(ImageTaskActionToPerform action, ESPSSerialPort device, Board board)
+    {
+        ImageTask task = new ImageTask(action, device, board);
+        String portName = device.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+        task.setFsImage(ESPSFlashTool.paths.getFwPath() + "filesystem_" + portName + ".bin");
+        task.setEfuTarget(new File(System.getProperty("java.io.tmpdir"), "bench_" + portName + ".efu").getPath());
+        task.setListener(new ImageTask.Listener()
+        {
+            @Override
+            public void taskOutput(ImageTask task, String text)
+            {
+            }
+
+            @Override
+            public void taskError(ImageTask task, String message, String title)
+            {
+                System.err.println(title + ": " + message);
+            }
+
+            @Override
+            public void taskDone(ImageTask task)
+            {
+            }
+        });
+        task.run();
+        return task.getExitStatus();
+    } // runTask
+
+    // Random images at typical ESP32 sizes
+    private static void writeFirmware() throws IOException
+    {
+        String dir = ESPSFlashTool.paths.getFwPath() + "esp32/";
+        new File(dir).mkdirs();
+        randomFile(dir + "bootloader.bin", 24 * 1024, 1);
+        randomFile(dir + "partitions.bin", 3 * 1024, 2);
+        randomFile(dir + "boot_app0.bin", 8 * 1024, 3);
+        randomFile(dir + "app.bin", 1200 * 1024, 4);
+    } // writeFirmware
+
+    private static void randomFile(String path, int size, long seed) throws IOException
+    {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        try ( OutputStream out = new FileOutputStream(path))
+        {
+            out.write(data);
+        }
+    } // randomFile
+
+    private static String percentiles(List<Long> samples)
+    {
+        if (samples.isEmpty())
+        {
+            return "-";
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        return percentile(sorted, 0.50) + "/" + percentile(sorted, 0.90) + "/" + percentile(sorted, 0.99)
+                + "/" + sorted.get(sorted.size() - 1);
+    } // percentiles
+
+    private static long percentile(List<Long> sorted, double fraction)
+    {
+        int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+} // class FlashThroughputBenchmark
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for the tool's Java hot paths: EFU building, device config access and serialization, firmware.json parsing,
+ * serial monitor timestamping, event matching and ring buffering, serial capture and replay, and crash decoding.
+ *
+ * Run with "ant bench". Optional properties: bench.filter (regex of benchmark names), bench.baseline (results file to
+ * compare against), bench.tolerance (allowed slowdown, default 0.20), bench.warmup, bench.iterations, bench.time (ms).
+ */
+public class HotPathBenchmarks
+{
+
+    // Realistic sizes - an ESP32 app image and the ESP8266 filesystem region from firmware.json
+    private static final int APP_SIZE = 1536 * 1024;
+    private static final int FS_SIZE = 2072576;
+
+    public static void main(String[] args) throws Exception
+    {
+        Bench bench = new Bench();
+        final File workDir = new File(System.getProperty("java.io.tmpdir"), "espsflashtool-bench");
+        workDir.mkdirs();
+
+        bench.add(new Bench.Case("UpdateBuilder.build")
+        {
+            File sketch;
+            File fs;
+            File target;
+
+            @Override
+            void setup() throws IOException
+            {
+                sketch = randomFile(new File(workDir, "app.bin"), APP_SIZE, 1);
+                fs = randomFile(new File(workDir, "filesystem.bin"), FS_SIZE, 2);
+                target = new File(workDir, "out.efu");
+            }
+
+            @Override
+            Object run() throws IOException
+            {
+                UpdateBuilder.build(sketch.getPath(), fs.getPath(), target.getPath());
+                return target.length();
+            }
+
+            @Override
+            void teardown()
+            {
+                sketch.delete();
+                fs.delete();
+                target.delete();
+            }
+        });
+
+        final String largeConfig = largeDeviceConfig(200, 20);
+        final DeviceConfig deviceConfig = new DeviceConfig();
+        deviceConfig.loadConfig(new StringReader(largeConfig));
+
+        bench.add(new Bench.Case("DeviceConfig.get")
+        {
+            @Override
+            Object run()
+            {
+                return deviceConfig.getSSID().length() + deviceConfig.getHostname().length()
+                        + deviceConfig.getGatewayIp().length() + (deviceConfig.getDHCP() ? 1 : 0);
+            }
+        });
+
+        bench.add(new Bench.Case("DeviceConfig.set")
+        {
+            int counter = 0;
+
+            @Override
+            Object run()
+            {
+                deviceConfig.setSSID("ssid" + (counter++ & 0xff));
+                deviceConfig.setGatewayIp("192.168.1.1");
+                return counter;
+            }
+        });
+
+        bench.add(new Bench.Case("DeviceConfig.load")
+        {
+            @Override
+            Object run()
+            {
+                DeviceConfig config = new DeviceConfig();
+                config.loadConfig(new StringReader(largeConfig));
+                return config;
+            }
+        });
+
+        bench.add(new Bench.Case("DeviceConfig.serialize")
+        {
+            @Override
+            Object run()
+            {
+                StringWriter out = new StringWriter(largeConfig.length());
+                deviceConfig.writeConfig(out);
+                return out.getBuffer().length();
+            }
+        });
+
+        final String manifest = firmwareManifest(64);
+        final FTConfig ftconfig = new FTConfig();
+        bench.add(new Bench.Case("FTConfig.parse")
+        {
+            @Override
+            Object run()
+            {
+                return ftconfig.parse(new StringReader(manifest)).boards.size();
+            }
+        });
+
+        final byte[] serialChunk = serialBootLog();
+        final LocalDateTime now = LocalDateTime.now();
+        bench.add(new Bench.Case("ESPSFlashToolUI.timestampSerialData")
+        {
+            @Override
+            Object run()
+            {
+                return ESPSFlashToolUI.timestampSerialData(serialChunk, serialChunk.length, now).length();
+            }
+        });
+
+        final int[] events = new int[1];
+        final SerialEventMatcher matcher = new SerialEventMatcher("bench", new SerialEventMatcher.Listener()
+        {
+            @Override
+            public void serialEvent(SerialEventMatcher.Event event)
+            {
+                events[0]++;
+            }
+        });
+        bench.add(new Bench.Case("SerialEventMatcher.feed")
+        {
+            @Override
+            Object run()
+            {
+                matcher.feed(serialChunk, 0, serialChunk.length);
+                return events[0];
+            }
+        });
+
+        // The monitor's hand-off from reader thread to display
+        final SerialMonitor.Ring ring = new SerialMonitor.Ring(256 * 1024);
+        final byte[] drained = new byte[64 * 1024];
+        bench.add(new Bench.Case("SerialMonitor.Ring")
+        {
+            @Override
+            Object run()
+            {
+                ring.write(serialChunk, 0, serialChunk.length);
+                return ring.read(drained);
+            }
+        });
+
+        // Recording a read on the reader thread, the capture's writer thread empties the buffer behind it
+        bench.add(new Bench.Case("SerialCapture.record")
+        {
+            SerialCapture capture;
+
+            @Override
+            void setup() throws IOException
+            {
+                capture = new SerialCapture(new File(workDir, "record.espscap"), "bench", 115200);
+            }
+
+            @Override
+            Object run()
+            {
+                return capture.record(System.nanoTime(), serialChunk, 0, serialChunk.length);
+            }
+
+            @Override
+            void teardown()
+            {
+                capture.close();
+                capture.getFile().delete();
+            }
+        });
+
+        // A captured boot log played back through the event matcher as fast as it goes
+        bench.add(new Bench.Case("SerialReplay.replay")
+        {
+            SerialReplay replay;
+            final SerialReplay.Sink sink = new SerialReplay.Sink()
+            {
+                @Override
+                public void data(long nanos, byte[] data, int length)
+                {
+                    matcher.feed(data, 0, length);
+                }
+            };
+
+            @Override
+            void setup() throws IOException
+            {
+                File file = new File(workDir, "boot.espscap");
+                SerialCapture capture = new SerialCapture(file, "bench", 115200);
+                for (int i = 0; i < 16; i++)
+                {
+                    capture.record(System.nanoTime(), serialChunk, 0, serialChunk.length);
+                }
+                capture.close();
+                replay = new SerialReplay(file, 0);
+            }
+
+            @Override
+            Object run() throws Exception
+            {
+                replay.replay(sink);
+                return events[0];
+            }
+        });
+
+        // Serial data with no crash in it passes straight through
+        final CrashDecoder decoder = new CrashDecoder();
+        bench.add(new Bench.Case("CrashDecoder.annotate")
+        {
+            @Override
+            Object run()
+            {
+                return decoder.annotate(serialChunk, serialChunk.length, null).length;
+            }
+        });
+
+        // A backtrace decoded against the ESP32 ELF from esptool's tests
+        final File elf = new File(System.getProperty("bench.elf",
+                "../data/bin/esptool/test/elf2image/esp32-app-template.elf"));
+        bench.add(new Bench.Case("ElfSymbols.load")
+        {
+            @Override
+            Object run() throws IOException
+            {
+                return ElfSymbols.load(ImageCache.map(elf.getPath())).getLineCount();
+            }
+        });
+        bench.add(new Bench.Case("CrashDecoder.decode")
+        {
+            ElfSymbols symbols;
+            final String backtrace = "Backtrace: 0x400d74d4:0x3ffb5f30 0x400e2efc:0x3ffb5f50 0x400d7bc0:0x3ffb5f70"
+                    + " 0x401331c4:0x3ffb5f90 0x400d7e30:0x3ffb5fb0 0x40081234:0x3ffb5fd0";
+
+            @Override
+            void setup() throws IOException
+            {
+                symbols = ElfSymbols.load(ImageCache.map(elf.getPath()));
+            }
+
+            @Override
+            Object run()
+            {
+                return CrashDecoder.decode(backtrace, symbols).length();
+            }
+        });
+
+        List<Bench.Result> results = bench.run(System.getProperty("bench.filter", ".*"));
+
+        File output = new File(System.getProperty("bench.output", "../build/bench/results.csv"));
+        Bench.writeResults(results, output);
+        System.out.println("Results written to " + output.getCanonicalPath());
+
+        String baseline = System.getProperty("bench.baseline", "");
+        if (!baseline.isEmpty())
+        {
+            double tolerance = Double.parseDouble(System.getProperty("bench.tolerance", "0.20"));
+            int regressions = Bench.compare(results, new File(baseline), tolerance);
+            if (regressions > 0)
+            {
+                System.err.println(regressions + " benchmark(s) regressed more than " + (int) (tolerance * 100) + "%");
+                System.exit(1);
+            }
+        }
+    } // main
+
+    private static File randomFile(File file, int size, long seed) throws IOException
+    {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        try ( OutputStream out = new FileOutputStream(file))
+        {
+            out.write(data);
+        }
+        return file;
+    } // randomFile
+
+    // config.json with the real keys buried after lots of output / input style sections
+    private static String largeDeviceConfig(int sections, int keysPerSection)
+    {
+        StringBuilder json = new StringBuilder("{\n");
+        for (int section = 0; section < sections; section++)
+        {
+            json.append("  \"section").append(section).append("\": {\n");
+            for (int key = 0; key < keysPerSection; key++)
+            {
+                json.append("    \"key").append(key).append("\": \"value").append(key).append("\",\n");
+            }
+            json.append("    \"nested\": { \"enabled\": true, \"count\": ").append(section).append(" }\n  },\n");
+        }
+        json.append("  \"network\": {\n"
+                + "    \"ssid\": \"show-network\",\n"
+                + "    \"passphrase\": \"secret\",\n"
+                + "    \"hostname\": \"espixelstick\",\n"
+                + "    \"ip\": \"192.168.1.10\",\n"
+                + "    \"netmask\": \"255.255.255.0\",\n"
+                + "    \"gateway\": \"192.168.1.1\",\n"
+                + "    \"dhcp\": true,\n"
+                + "    \"ap_fallback\": true\n"
+                + "  },\n"
+                + "  \"device\": { \"id\": \"ESPixelStick\" }\n}\n");
+        return json.toString();
+    } // largeDeviceConfig
+
+    private static String firmwareManifest(int boards)
+    {
+        StringBuilder json = new StringBuilder("{ \"release\": \"Benchmark\", \"baudrate\": \"115200\", \"boards\": [\n");
+        for (int board = 0; board < boards; board++)
+        {
+            json.append(board == 0 ? "" : ",\n")
+                    .append("{ \"name\": \"Board ").append(board).append("\", \"description\": \"Benchmark board\",")
+                    .append(" \"chip\": \"esp32\", \"appbin\": \"esp32/app.bin\",")
+                    .append(" \"esptool\": { \"baudrate\": \"460800\", \"options\": \"--before default_reset --after hard_reset\", \"flashcmd\": \"write_flash -z\" },")
+                    .append(" \"binfiles\": [ { \"name\": \"esp32/bootloader.bin\", \"offset\": \"0x1000\" },")
+                    .append(" { \"name\": \"esp32/partitions.bin\", \"offset\": \"0x8000\" },")
+                    .append(" { \"name\": \"esp32/boot_app0.bin\", \"offset\": \"0xe000\" },")
+                    .append(" { \"name\": \"esp32/app.bin\", \"offset\": \"0x10000\" } ],")
+                    .append(" \"filesystem\": { \"page\": \"256\", \"block\": \"4096\", \"size\": \"0x30000\", \"offset\": \"0x3B0000\" } }");
+        }
+        json.append("\n] }\n");
+        return json.toString();
+    } // firmwareManifest
+
+    // A typical serial read: a chunk of an ESP32 boot log
+    private static byte[] serialBootLog()
+    {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 16; i++)
+        {
+            log.append("rst:0x1 (POWERON_RESET),boot:0x13 (SPI_FAST_FLASH_BOOT)\n")
+                    .append("configsip: 0, SPIWP:0xee\n")
+                    .append("[   1234][I][main.cpp:123] setup(): ESPixelStick v4.0 booting\n");
+        }
+        return log.toString().getBytes(StandardCharsets.US_ASCII);
+    } // serialBootLog
+} // class HotPathBenchmarks
@@ -0,0 +1,341 @@
+#!/usr/bin/env python3
+#
+# Copyright 2022 Shelby Merrick
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Simulated ESP bootloader on a pseudo-terminal.
+#
+# Speaks enough of the ROM loader and flasher stub protocol for esptool to sync, upload its stub, erase, write
+# (plain and compressed), verify and read back flash. Flash contents live in memory for the life of the process,
+# so a write followed by a read returns what was written.
+#
+# The slave device path is printed on the first line of stdout. Use --before no_reset --after no_reset, a pty
+# cannot toggle DTR / RTS.
+#
+# With --listen PORT the device is served on 127.0.0.1:PORT instead, standing in for a remote flashing slot: raw
+# bytes for socket://127.0.0.1:PORT, or RFC 2217 (through the pyserial bundled with esptool) with --rfc2217 for
+# rfc2217://127.0.0.1:PORT. The URL is printed on the first line. One client at a time, each esptool run reconnects.
+
+import argparse
+import hashlib
+import os
+import socket
+import struct
+import sys
+import time
+import tty
+import zlib
+
+SLIP_END = 0xC0
+SLIP_ESC = 0xDB
+SLIP_ESC_END = 0xDC
+SLIP_ESC_ESC = 0xDD
+
+FLASH_BEGIN = 0x02
+FLASH_DATA = 0x03
+FLASH_END = 0x04
+MEM_BEGIN = 0x05
+MEM_END = 0x06
+MEM_DATA = 0x07
+SYNC = 0x08
+WRITE_REG = 0x09
+READ_REG = 0x0A
+FLASH_DEFL_BEGIN = 0x10
+FLASH_DEFL_DATA = 0x11
+FLASH_DEFL_END = 0x12
+SPI_FLASH_MD5 = 0x13
+# registers esptool reads to identify the chip
+UART_DATA_REG = 0x60000078
+DATE_REG_VALUE = {'esp8266': 0x00062000, 'esp32': 0x15122500}
+SPI_W0_REG = {'esp8266': 0x60000240, 'esp32': 0x60002080}
+FLASH_MANUFACTURER = 0xEF
+FLASH_DEVICE = 0x40
+
+ERASE_FLASH = 0xD0
+ERASE_REGION = 0xD1
+READ_FLASH = 0xD2
+
+
+class PtyLink(object):
+
+    def __init__(self, fd):
+        self.fd = fd
+
+    def read(self, size):
+        while True:
+            try:
+                return os.read(self.fd, size)
+            except OSError:
+                time.sleep(0.01)
+
+    def write(self, data):
+        view = memoryview(data)
+        while len(view):
+            written = os.write(self.fd, view)
+            view = view[written:]
+
+
+class SimulatedLine(object):
+    """Line settings an RFC 2217 client may change, none of which matter to the simulator"""
+
+    def __init__(self):
+        self.baudrate = 115200
+        self.bytesize = 8
+        self.parity = 'N'
+        self.stopbits = 1
+        self.xonxoff = False
+        self.rtscts = False
+        self.dtr = False
+        self.rts = False
+        self.break_condition = False
+        self.cts = self.dsr = self.ri = self.cd = False
+
+    def reset_input_buffer(self):
+        pass
+
+    def reset_output_buffer(self):
+        pass
+
+
+class TcpLink(object):
+
+    def __init__(self, port, rfc2217):
+        self.server = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
+        self.server.setsockopt(socket.SOL_SOCKET, socket.SO_REUSEADDR, 1)
+        self.server.bind(('127.0.0.1', port))
+        self.server.listen(1)
+        self.port = self.server.getsockname()[1]
+        self.rfc2217 = rfc2217
+        self.conn = None
+        self.manager = None
+
+    def url(self):
+        return '%s://127.0.0.1:%d' % ('rfc2217' if self.rfc2217 else 'socket', self.port)
+
+    def accept(self):
+        self.conn, _ = self.server.accept()
+        self.conn.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+        if self.rfc2217:
+            sys.path.insert(0, os.path.join(os.path.dirname(os.path.abspath(__file__)), '..', 'data', 'bin', 'esptool'))
+            from serial import rfc2217
+            conn = self.conn
+
+            class Raw(object):
+                def write(self, data):
+                    conn.sendall(data)
+            self.manager = rfc2217.PortManager(SimulatedLine(), Raw())
+            self.normal = rfc2217.M_NORMAL
+
+    def read(self, size):
+        while True:
+            if self.conn is None:
+                self.accept()
+            try:
+                data = self.conn.recv(size)
+            except OSError:
+                data = b''
+            if not data:
+                # the client went away, wait for the next one
+                self.conn.close()
+                self.conn = None
+                continue
+            if self.manager is not None and (self.manager.mode != self.normal or b'\xff' in data):
+                # telnet commands in there, pyserial filters them a byte at a time
+                data = b''.join(self.manager.filter(data))
+            if data:
+                return data
+
+    def write(self, data):
+        if self.manager is not None:
+            data = data.replace(b'\xff', b'\xff\xff')
+        try:
+            self.conn.sendall(data)
+        except (OSError, AttributeError):
+            pass
+
+
+class Device(object):
+
+    def __init__(self, link, chip, flash_size, flash_kbps):
+        self.link = link
+        self.chip = chip
+        self.flash = bytearray(b'\xff' * flash_size)
+        self.flash_kbps = flash_kbps
+        self.stub = False
+        self.write_offset = 0
+        self.inflate = None
+        self.sessions = 0
+
+    # --- transport -------------------------------------------------------
+
+    def frames(self):
+        frame = None
+        escaped = False
+        while True:
+            chunk = self.link.read(4096)
+            for b in chunk:
+                if frame is None:
+                    if b == SLIP_END:
+                        frame = bytearray()
+                    continue
+                if escaped:
+                    frame.append(SLIP_END if b == SLIP_ESC_END else SLIP_ESC)
+                    escaped = False
+                elif b == SLIP_ESC:
+                    escaped = True
+                elif b == SLIP_END:
+                    if len(frame) > 0:
+                        yield bytes(frame)
+                        frame = None
+                    # an empty frame is the start of the next one
+                else:
+                    frame.append(b)
+
+    def send(self, payload):
+        out = bytearray([SLIP_END])
+        for b in payload:
+            if b == SLIP_END:
+                out += bytes([SLIP_ESC, SLIP_ESC_END])
+            elif b == SLIP_ESC:
+                out += bytes([SLIP_ESC, SLIP_ESC_ESC])
+            else:
+                out.append(b)
+        out.append(SLIP_END)
+        self.link.write(bytes(out))
+
+    def respond(self, op, value=0, data=b'', status=0):
+        status_len = 2 if (self.stub or self.chip == 'esp8266') else 4
+        body = data + bytes([status]) + b'\x00' * (status_len - 1)
+        self.send(struct.pack('<BBHI', 1, op, len(body), value) + body)
+
+    # --- flash -----------------------------------------------------------
+
+    def program(self, data):
+        end = self.write_offset + len(data)
+        if end > len(self.flash):
+            raise ValueError('write past end of flash')
+        self.flash[self.write_offset:end] = data
+        self.write_offset = end
+        if self.flash_kbps:
+            time.sleep(len(data) / (self.flash_kbps * 1024.0))
+
+    # --- protocol --------------------------------------------------------
+
+    def run(self, frames):
+        for frame in frames:
+            if len(frame) < 8:
+                continue
+            direction, op, size, checksum = struct.unpack('<BBHI', frame[:8])
+            if direction != 0:
+                # read_flash acks arrive here when not consumed by read_flash()
+                continue
+            self.handle(op, frame[8:8 + size], frames)
+
+    def handle(self, op, data, frames):
+        if op == SYNC:
+            # a new esptool session always starts in the ROM loader
+            self.stub = False
+            self.sessions += 1
+            for _ in range(8):
+                self.respond(SYNC)
+        elif op == READ_REG:
+            self.respond(op, self.read_reg(struct.unpack('<I', data[:4])[0]))
+        elif op == MEM_END:
+            self.respond(op)
+            self.stub = True
+            self.send(b'OHAI')
+        elif op in (FLASH_BEGIN, FLASH_DEFL_BEGIN):
+            size, blocks, block_size, offset = struct.unpack('<IIII', data[:16])
+            self.write_offset = offset
+            self.inflate = zlib.decompressobj() if op == FLASH_DEFL_BEGIN else None
+            self.respond(op)
+        elif op == FLASH_DATA:
+            self.program(data[16:])
+            self.respond(op)
+        elif op == FLASH_DEFL_DATA:
+            self.program(self.inflate.decompress(data[16:]))
+            self.respond(op)
+        elif op == SPI_FLASH_MD5:
+            offset, size = struct.unpack('<II', data[:8])
+            digest = hashlib.md5(self.flash[offset:offset + size])
+            self.respond(op, data=digest.digest() if self.stub else digest.hexdigest().encode())
+        elif op == ERASE_FLASH:
+            self.flash[:] = b'\xff' * len(self.flash)
+            self.respond(op)
+        elif op == ERASE_REGION:
+            offset, size = struct.unpack('<II', data[:8])
+            self.flash[offset:offset + size] = b'\xff' * size
+            self.respond(op)
+        elif op == READ_FLASH:
+            offset, length, block_size, max_inflight = struct.unpack('<IIII', data[:16])
+            self.respond(op)
+            self.read_flash(offset, length, block_size, max_inflight, frames)
+        else:
+            # WRITE_REG, MEM_BEGIN / MEM_DATA, SPI_ATTACH, SPI_SET_PARAMS, CHANGE_BAUDRATE, *_END, ...
+            self.respond(op)
+
+    def read_reg(self, address):
+        if address == UART_DATA_REG:
+            return DATE_REG_VALUE[self.chip]
+        if address == SPI_W0_REG[self.chip]:
+            # JEDEC ID as the RDID command leaves it: manufacturer, memory type, log2 of the size
+            size_id = len(self.flash).bit_length() - 1
+            return FLASH_MANUFACTURER | (FLASH_DEVICE << 8) | (size_id << 16)
+        return 0
+
+    def read_flash(self, offset, length, block_size, max_inflight, frames):
+        sent = 0
+        acked = 0
+        while acked < length:
+            while sent < length and (sent - acked) < max_inflight * block_size:
+                block = self.flash[offset + sent:offset + min(sent + block_size, length)]
+                self.send(bytes(block))
+                sent += len(block)
+            ack = next(frames)
+            if len(ack) == 4:
+                acked = struct.unpack('<I', ack)[0]
+        self.send(hashlib.md5(self.flash[offset:offset + length]).digest())
+
+
+def main():
+    parser = argparse.ArgumentParser(description='Simulated ESP bootloader on a pseudo-terminal')
+    parser.add_argument('--chip', choices=['esp8266', 'esp32'], default='esp32')
+    parser.add_argument('--flash-size', type=lambda x: int(x, 0), default=4 * 1024 * 1024)
+    parser.add_argument('--flash-kbps', type=float, default=0,
+                        help='simulated flash programming speed in KB/s, 0 for as fast as possible')
+    parser.add_argument('--listen', type=int, default=None,
+                        help='serve on this TCP port instead of a pty, 0 picks a free one')
+    parser.add_argument('--rfc2217', action='store_true', help='speak RFC 2217 on the TCP port')
+    args = parser.parse_args()
+
+    if args.listen is not None:
+        link = TcpLink(args.listen, args.rfc2217)
+        print(link.url())
+    else:
+        master, slave = os.openpty()
+        tty.setraw(slave)
+        # keep the slave open ourselves so the master never sees EIO between esptool runs
+        print(os.ttyname(slave))
+        link = PtyLink(master)
+    sys.stdout.flush()
+
+    device = Device(link, args.chip, args.flash_size, args.flash_kbps)
+    try:
+        device.run(device.frames())
+    except KeyboardInterrupt:
+        pass
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,115 @@
+#!/usr/bin/env python3
+
+# Long lived esptool runner for the flash tool. Imports esptool / pyserial once and then runs one esptool command
+# line after another, so repeated erase / write / read calls skip the interpreter start and module imports.
+#
+# Requests arrive on stdin, one JSON object per line: {"args": ["--chip", "esp32", ..., "write_flash", ...]}
+# Everything goes back on stdout as frames:
+#   R\n                 ready, sent once after the imports
+#   O <length>\n<data>  <length> bytes of UTF-8 esptool output
+#   X <status>\n        the command finished with exit status <status>
+
+import json
+import os
+import sys
+import traceback
+
+toolspath = os.path.dirname(os.path.realpath(__file__)).replace('\\', '/') # CWD in UNIX format
+try:
+    sys.path.insert(0, toolspath + "/pyserial") # Add pyserial dir to search path
+    sys.path.insert(0, toolspath + "/esptool") # Add esptool dir to search path
+    import esptool # If this fails, we can't continue and will bomb below
+    import serial
+except:
+    sys.stderr.write("pyserial or esptool directories not found next to this esptool_worker.py tool.\n")
+    sys.exit(1)
+
+channel = getattr(sys.stdout, 'buffer', sys.stdout)
+requests = sys.stdin
+
+
+class FramedOutput(object):
+    """Stands in for stdout / stderr while a command runs"""
+
+    def write(self, text):
+        if not text:
+            return
+        data = text if isinstance(text, bytes) else text.encode('utf-8', 'replace')
+        channel.write(('O %d\n' % len(data)).encode('ascii'))
+        channel.write(data)
+        channel.flush()
+
+    def flush(self):
+        channel.flush()
+
+    def isatty(self):
+        return False
+
+
+# esptool leaves the port open when a command fails part way, track every port it opens and close them afterwards
+opened = []
+open_port = serial.serial_for_url
+
+
+def tracked_serial_for_url(*args, **kwargs):
+    port = open_port(*args, **kwargs)
+    opened.append(port)
+    return port
+
+
+serial.serial_for_url = tracked_serial_for_url
+
+
+def run(args):
+    status = 0
+    try:
+        esptool.main(args)
+    except esptool.FatalError as e:
+        print('\nA fatal error occurred: %s' % e)
+        status = 2
+    except SystemExit as e:
+        if e.code is None:
+            status = 0
+        elif isinstance(e.code, int):
+            status = e.code
+        else:
+            print(e.code)
+            status = 1
+    except Exception:
+        traceback.print_exc(file=sys.stdout)
+        status = 1
+    finally:
+        while opened:
+            try:
+                opened.pop().close()
+            except Exception:
+                pass
+    return status
+
+
+def main():
+    output = FramedOutput()
+    channel.write(b'R\n')
+    channel.flush()
+    while True:
+        line = requests.readline()
+        if not line:
+            break
+        if not line.strip():
+            continue
+        sys.stdout = output
+        sys.stderr = output
+        try:
+            status = run(json.loads(line)['args'])
+        except Exception:
+            traceback.print_exc(file=output)
+            status = 1
+        finally:
+            sys.stdout = sys.__stdout__
+            sys.stderr = sys.__stderr__
+        channel.write(('X %d\n' % status).encode('ascii'))
+        channel.flush()
+
+
+if __name__ == '__main__':
+    main()
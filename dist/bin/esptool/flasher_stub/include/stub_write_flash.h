@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2016-2019 Espressif Systems (Shanghai) PTE LTD
+ * All rights reserved
+ *
+ * This file is part of the esptool.py binary flasher stub.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+/* Flasher commands related to writing flash */
+#pragma once
+#include "stub_flasher.h"
+#include <stdbool.h>
+
+bool is_in_flash_mode(void);
+
+esp_command_error get_flash_error(void);
+
+esp_command_error handle_flash_begin(uint32_t total_size, uint32_t offset);
+
+esp_command_error handle_flash_deflated_begin(uint32_t uncompressed_size, uint32_t compressed_size, uint32_t offset);
+
+void handle_flash_data(void *data_buf, uint32_t length);
+
+#ifdef ESP32
+void handle_flash_encrypt_data(void *data_buf, uint32_t length);
+#endif
+
+void handle_flash_deflated_data(void *data_buf, uint32_t length);
+
+/* same command used for deflated or non-deflated mode */
+esp_command_error handle_flash_end(void);
+
@@ -16,7 +16,9 @@
 package com.forkineye.espsflashtool;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Map;
 import javax.swing.*;
 
 public class Board
@@ -26,10 +28,17 @@ public class Board
     String description = "";
     String chip = "";
     String appbin = "";
+    String elf = "";        // optional, defaults to the app bin's name with .elf
     Esptool esptool;
     ArrayList<Binfile> binfiles = new ArrayList<Binfile>();
     Filesystem filesystem;
 
+    // Set when the board is loaded, not part of firmware.json
+    transient String release = "";
+    transient String version = "";
+    transient Map<String, String> files = null;    // bin file name -> catalog object, null for boards in firmware/
+    transient ReleaseBundle bundle = null;          // set for boards of a release bundle
+
     class Esptool
     {
 
@@ -54,16 +63,111 @@ public class Board
         String offset;
     }
 
-    // check if bin files exist
-    public boolean verify(String path)
+    /**
+     * Where a bin file named in firmware.json is on disk: the firmware directory, or the catalog for a board of a
+     * catalog release.
+     */
+    public String getPath(String name)
+    {
+        if (bundle != null && bundle.contains(name))
+        {
+            try
+            {
+                return bundle.extract(name, ESPSFlashTool.ftconfig.getCatalog());
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Unable to extract " + name + " from " + bundle.getPath() + ": " + ex.getMessage());
+            }
+        }
+        String path = (files == null) ? null : files.get(name);
+        return (path != null) ? path : ESPSFlashTool.paths.getFwPath() + name;
+    }
+
+    // A read-only view of a bin file, out of the bundle's mapping for a bundle board
+    public ByteBuffer map(String name) throws IOException
+    {
+        return (bundle != null && bundle.contains(name)) ? bundle.map(name) : ImageCache.map(getPath(name));
+    }
+
+    // The firmware's ELF, for decoding crashes. Empty when there's no app bin to guess it from.
+    public String getElfName()
+    {
+        if (elf != null && !elf.isEmpty())
+        {
+            return elf;
+        }
+        return (appbin == null || appbin.isEmpty()) ? "" : appbin.replaceFirst("\\.bin$", "") + ".elf";
+    }
+
+    // A read-only view of the ELF, null when the release doesn't ship one
+    public ByteBuffer mapElf() throws IOException
+    {
+        String name = getElfName();
+        if (name.isEmpty())
+        {
+            return null;
+        }
+        if (bundle != null)
+        {
+            return bundle.contains(name) ? bundle.map(name) : null;
+        }
+        if (files != null)
+        {
+            // Never fall back to firmware/ for a catalog release, its ELF would be for other code
+            return files.containsKey(name) ? ImageCache.map(files.get(name)) : null;
+        }
+        File file = new File(ESPSFlashTool.paths.getFwPath() + name);
+        return file.isFile() ? ImageCache.map(file.getPath()) : null;
+    } // mapElf
+
+    // check if bin files exist and can be read, mapping them into the image cache on the way
+    public boolean verify()
     {
         boolean valid = true;
         for (Binfile _binfile : binfiles)
         {
-            if (!new File(path + _binfile.name).isFile())
+            String problem = null;
+            if (bundle != null)
+            {
+                // Only the index is checked here, entries are hashed when first used
+                if (!bundle.contains(_binfile.name))
+                {
+                    problem = "Firmware file " + _binfile.name + " missing from " + bundle.getPath();
+                }
+            }
+            else if (!new File(getPath(_binfile.name)).isFile())
+            {
+                problem = "Firmware file " + _binfile.name + " missing";
+            }
+            else
+            {
+                try
+                {
+                    if (!ImageCache.map(getPath(_binfile.name)).hasRemaining())
+                    {
+                        problem = "Firmware file " + _binfile.name + " is empty";
+                    }
+                }
+                catch (IOException ex)
+                {
+                    problem = "Firmware file " + _binfile.name + " unreadable\n" + ex.getMessage();
+                }
+            }
+
+            if (problem != null)
             {
-                JOptionPane.showMessageDialog(null, "Firmware file " + _binfile.name + " missing",
-                        "Bad Firmware Configuration", JOptionPane.ERROR_MESSAGE);
+                // Boards are verified in the background during startup
+                final String message = problem;
+                TaskExecutor.runOnEdt(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        JOptionPane.showMessageDialog(null, message,
+                                "Bad Firmware Configuration", JOptionPane.ERROR_MESSAGE);
+                    }
+                });
                 valid = false;
             }
         }
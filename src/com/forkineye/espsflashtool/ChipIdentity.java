@@ -0,0 +1,208 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What is connected to a port: chip family, MAC and flash, as esptool reports it when it connects. Identities are cached
+ * per device (path plus USB identity) until the device is detached, every esptool run on the port refreshes them.
+ */
+class ChipIdentity
+{
+
+    // -Despsflashtool.probe=false turns off probing ports as they are selected or attached
+    static final boolean PROBE = !"false".equals(System.getProperty("espsflashtool.probe"));
+
+    private static final Pattern DETECTED = Pattern.compile("^Detecting chip type\\.+\\s*(\\S+)");
+    private static final Pattern CHIP = Pattern.compile("^Chip is (.+)$");
+    private static final Pattern FAMILY = Pattern.compile("^(ESP\\d+(?:-?[SCH]\\d)?)");
+    private static final Pattern MAC = Pattern.compile("^MAC:\\s*([0-9A-Fa-f]{2}(?::[0-9A-Fa-f]{2}){5})");
+    private static final Pattern CHIP_ID = Pattern.compile("^Chip ID:\\s*(0x[0-9A-Fa-f]+)");
+    private static final Pattern MANUFACTURER = Pattern.compile("^Manufacturer:\\s*([0-9A-Fa-f]+)");
+    private static final Pattern DEVICE = Pattern.compile("^Device:\\s*([0-9A-Fa-f]+)");
+    private static final Pattern FLASH_SIZE = Pattern.compile("^(?:Auto-)?[Dd]etected [Ff]lash size:\\s*(\\d+)([KM]B)");
+
+    private static final Map<String, ChipIdentity> cache = new HashMap<>();
+
+    String chip = "";           // family as firmware.json names it, e.g. esp32
+    String description = "";    // e.g. ESP32D0WDQ6 (revision 1)
+    String mac = "";
+    String chipId = "";         // ESP8266 only
+    String flashId = "";        // manufacturer and device, e.g. ef4016
+    long flashSize = 0;         // bytes, 0 when unknown
+
+    // Feed esptool output a line at a time
+    public void parse(String line)
+    {
+        Matcher matcher;
+        if ((matcher = DETECTED.matcher(line)).find())
+        {
+            chip = family(matcher.group(1));
+        }
+        else if ((matcher = CHIP.matcher(line)).find())
+        {
+            description = matcher.group(1).trim();
+            Matcher family = FAMILY.matcher(description);
+            if (family.find())
+            {
+                chip = family(family.group(1));
+            }
+        }
+        else if ((matcher = MAC.matcher(line)).find())
+        {
+            mac = UnitInventory.normalizeMac(matcher.group(1));
+        }
+        else if ((matcher = CHIP_ID.matcher(line)).find())
+        {
+            chipId = matcher.group(1);
+        }
+        else if ((matcher = MANUFACTURER.matcher(line)).find())
+        {
+            flashId = matcher.group(1).toLowerCase();
+        }
+        else if ((matcher = DEVICE.matcher(line)).find())
+        {
+            flashId += matcher.group(1).toLowerCase();
+        }
+        else if ((matcher = FLASH_SIZE.matcher(line)).find())
+        {
+            flashSize = Long.parseLong(matcher.group(1)) * (matcher.group(2).equals("MB") ? 1024 * 1024 : 1024);
+        }
+    } // parse
+
+    public boolean isKnown()
+    {
+        return !chip.isEmpty();
+    }
+
+    /**
+     * Why the board's firmware can't go on this chip, null when it can. Unknown details never count as a mismatch.
+     */
+    public String mismatch(Board board)
+    {
+        if (!chip.isEmpty() && !chip.equals(family(board.chip)))
+        {
+            return board.name + " is built for " + board.chip + " but the device is an " + description();
+        }
+        long needed = (board.filesystem == null) ? 0
+                : parseSize(board.filesystem.offset) + parseSize(board.filesystem.size);
+        if (flashSize > 0 && needed > flashSize)
+        {
+            return board.name + " needs " + (needed / 1024) + "KB of flash but the device has " + (flashSize / 1024)
+                    + "KB";
+        }
+        return null;
+    } // mismatch
+
+    // The board to select for this chip: the current one if it fits, else the first one that does
+    public Board pick(Board current, List<Board> boards)
+    {
+        if (current != null && mismatch(current) == null)
+        {
+            return current;
+        }
+        for (Board board : boards)
+        {
+            if (mismatch(board) == null)
+            {
+                return board;
+            }
+        }
+        return null;
+    } // pick
+
+    public String description()
+    {
+        return description.isEmpty() ? chip.toUpperCase() : description;
+    }
+
+    @Override
+    public String toString()
+    {
+        return description() + (mac.isEmpty() ? "" : ", MAC " + mac)
+                + ((flashSize > 0) ? ", " + (flashSize / 1024) + "KB flash" : "")
+                + (flashId.isEmpty() ? "" : " (id " + flashId + ")");
+    }
+
+    public static ChipIdentity get(ESPSSerialPort port)
+    {
+        synchronized (cache)
+        {
+            return (port == null || port.getTransport() == null) ? null : cache.get(port.getKey());
+        }
+    }
+
+    // Merge what a run found into the cached identity, a run that didn't get far doesn't wipe what is known
+    public static ChipIdentity update(ESPSSerialPort port, ChipIdentity found)
+    {
+        if (port == null || port.getTransport() == null || !found.isKnown())
+        {
+            return get(port);
+        }
+        synchronized (cache)
+        {
+            ChipIdentity known = cache.get(port.getKey());
+            if (known == null || !known.chip.equals(found.chip)
+                    || (!found.mac.isEmpty() && !found.mac.equals(known.mac)))
+            {
+                // A different device
+                known = new ChipIdentity();
+            }
+            known.chip = found.chip;
+            known.description = found.description.isEmpty() ? known.description : found.description;
+            known.mac = found.mac.isEmpty() ? known.mac : found.mac;
+            known.chipId = found.chipId.isEmpty() ? known.chipId : found.chipId;
+            known.flashId = found.flashId.isEmpty() ? known.flashId : found.flashId;
+            known.flashSize = (found.flashSize == 0) ? known.flashSize : found.flashSize;
+            cache.put(port.getKey(), known);
+            return known;
+        }
+    } // update
+
+    public static void forget(ESPSSerialPort port)
+    {
+        synchronized (cache)
+        {
+            if (port != null && port.getTransport() != null)
+            {
+                cache.remove(port.getKey());
+            }
+        }
+    }
+
+    // esp32, ESP32-S2 and ESP32S2 all name the same family
+    private static String family(String name)
+    {
+        return (name == null) ? "" : name.trim().toLowerCase().replace("-", "");
+    }
+
+    private static long parseSize(String value)
+    {
+        try
+        {
+            return Long.decode(value.trim());
+        }
+        catch (NumberFormatException | NullPointerException ex)
+        {
+            return 0;
+        }
+    } // parseSize
+} // class ChipIdentity
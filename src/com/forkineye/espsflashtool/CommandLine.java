@@ -0,0 +1,456 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.JsonParseException;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The options that run without a window: fleet updates, inventory and catalog queries and capture replay. Each one
+ * does its work, prints the result and gives the exit status.
+ */
+class CommandLine
+{
+
+    static final int USAGE_ERROR = 2;
+
+    private static final String USAGE = "Usage: ESPSFlashTool [option]\n"
+            + "Without an option the flash tool window opens.\n"
+            + "  --fleet <inventory.json>           update the devices in a fleet inventory over the air\n"
+            + "  --unit <mac>                       flash history of one unit\n"
+            + "  --outdated                         units not on the release in firmware.json\n"
+            + "  --import-release <fw dir>          copy a firmware directory into the catalog\n"
+            + "  --bundle <fw dir> <file>           pack a firmware directory into a release bundle\n"
+            + "  --releases                         releases in the catalog\n"
+            + "  --compare-releases <from> <to>     what changed between two catalog releases\n"
+            + "  --remove-release <id>              drop a release from the catalog\n"
+            + "  --replay <capture> [speed]         play a serial capture to stdout, events to stderr;\n"
+            + "                                     speed 1 is real time, 0 as fast as possible\n"
+            + "  --help                             this text";
+
+    /**
+     * Run the option in args[0] and return the exit status: 0 on success, 1 when it failed and USAGE_ERROR for an
+     * unknown option or the wrong number of arguments.
+     */
+    static int run(String[] args)
+    {
+        String option = args[0];
+        int count = args.length - 1;
+        boolean success;
+        switch (option)
+        {
+            case "--replay":
+            {
+                if (count != 1 && count != 2)
+                {
+                    return usage(option);
+                }
+                // Ahead of the path setup so stdout is only the capture
+                success = replayCapture(args[1], (count == 2) ? args[2] : "1");
+                break;
+            }
+            case "--fleet":
+            {
+                if (count != 1)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = runFleet(args[1]);
+                break;
+            }
+            case "--unit":
+            {
+                if (count != 1)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = showUnit(args[1]);
+                break;
+            }
+            case "--outdated":
+            {
+                if (count != 0)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = showOutdated();
+                break;
+            }
+            case "--import-release":
+            {
+                if (count != 1)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = importRelease(args[1]);
+                break;
+            }
+            case "--bundle":
+            {
+                if (count != 2)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = createBundle(args[1], args[2]);
+                break;
+            }
+            case "--releases":
+            {
+                if (count != 0)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = showReleases();
+                break;
+            }
+            case "--compare-releases":
+            {
+                if (count != 2)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = compareReleases(args[1], args[2]);
+                break;
+            }
+            case "--remove-release":
+            {
+                if (count != 1)
+                {
+                    return usage(option);
+                }
+                ESPSFlashTool.paths.init();
+                success = removeRelease(args[1]);
+                break;
+            }
+            case "--help":
+            {
+                System.out.println(USAGE);
+                success = true;
+                break;
+            }
+            default:
+            {
+                System.err.println("Unknown option " + option);
+                return usage(null);
+            }
+        }
+        return success ? 0 : 1;
+    } // run
+
+    // Wrong arguments for option (null for an unknown one), the usage goes to stderr
+    private static int usage(String option)
+    {
+        if (option != null)
+        {
+            System.err.println("Wrong number of arguments for " + option);
+        }
+        System.err.println(USAGE);
+        return USAGE_ERROR;
+    } // usage
+
+    private static boolean runFleet(String inventoryPath)
+    {
+        if (!ESPSFlashTool.ftconfig.init())
+        {
+            return false;
+        }
+        FleetUpdater updater;
+        try ( Reader reader = new FileReader(inventoryPath))
+        {
+            updater = new FleetUpdater(FleetUpdater.load(reader));
+        }
+        catch (IOException | JsonParseException ex)
+        {
+            System.err.println("Unable to read fleet inventory " + inventoryPath + ": " + ex.getMessage());
+            return false;
+        }
+
+        boolean success;
+        try
+        {
+            success = updater.run(new FleetUpdater.Listener()
+            {
+                @Override
+                public void deviceDone(FleetUpdater.Device device)
+                {
+                    System.out.println("Fleet: " + device);
+                }
+
+                @Override
+                public void waveDone(int wave, int updated, int failed, boolean halted)
+                {
+                    System.out.println("Fleet: wave " + wave + " done, " + updated + " updated, " + failed + " failed"
+                            + (halted ? " - error rate exceeded, rollout halted" : ""));
+                }
+            });
+        }
+        catch (InterruptedException ex)
+        {
+            success = false;
+        }
+
+        // Per device report next to the task logs
+        String report = ESPSFlashTool.paths.getLogPath() + "fleet_"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv";
+        new File(ESPSFlashTool.paths.getLogPath()).mkdirs();
+        try ( Writer out = new FileWriter(report))
+        {
+            updater.exportCsv(out);
+            System.out.println("Fleet: report written to " + report);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to write fleet report: " + ex.getMessage());
+        }
+        for (FleetUpdater.Device device : updater.getDevices())
+        {
+            System.out.println("  " + device);
+        }
+        return success;
+    } // runFleet
+
+    // Everything the inventory knows about one unit, newest last
+    private static boolean showUnit(String mac)
+    {
+        ESPSFlashTool.inventory.open(ESPSFlashTool.paths.getInventoryPath());
+        try
+        {
+            List<UnitInventory.Unit> history = ESPSFlashTool.inventory.history(mac);
+            if (history.isEmpty())
+            {
+                System.out.println(mac + ": not in the inventory");
+                return false;
+            }
+            for (UnitInventory.Unit unit : history)
+            {
+                System.out.println(unit);
+            }
+            UnitInventory.Unit current = history.get(history.size() - 1);
+            for (Map.Entry<String, String> hash : current.hashes.entrySet())
+            {
+                System.out.println("  " + hash.getKey() + " sha256 " + hash.getValue());
+            }
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to read the inventory: " + ex.getMessage());
+            return false;
+        }
+    } // showUnit
+
+    // Units not running the release in firmware.json
+    private static boolean showOutdated()
+    {
+        if (!ESPSFlashTool.ftconfig.init())
+        {
+            return false;
+        }
+        ESPSFlashTool.inventory.open(ESPSFlashTool.paths.getInventoryPath());
+        String release = ESPSFlashTool.ftconfig.getRelease();
+        Set<String> outdated = ESPSFlashTool.inventory.needingUpgrade(release);
+        for (String mac : outdated)
+        {
+            try
+            {
+                System.out.println(ESPSFlashTool.inventory.get(mac));
+            }
+            catch (IOException ex)
+            {
+                System.out.println(mac);
+            }
+        }
+        System.out.println(outdated.size() + " unit(s) need upgrading to " + release + ", "
+                + ESPSFlashTool.inventory.unitsOn(release).size() + " already on it. By release: "
+                + ESPSFlashTool.inventory.releaseCounts());
+        return true;
+    } // showOutdated
+
+    // Copy a firmware directory into the catalog
+    private static boolean importRelease(String fwDir)
+    {
+        try
+        {
+            System.out.println(ESPSFlashTool.ftconfig.getCatalog().importRelease(fwDir));
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to import " + fwDir + ": " + ex.getMessage());
+            return false;
+        }
+    } // importRelease
+
+    // Pack a firmware directory into a single release bundle file
+    private static boolean createBundle(String fwDir, String target)
+    {
+        try
+        {
+            ReleaseBundle.create(fwDir, target);
+            System.out.println("Bundled " + ReleaseBundle.open(target).toRelease() + " into " + target + ", "
+                    + new File(target).length() / 1024 + "KB");
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to bundle " + fwDir + ": " + ex.getMessage());
+            return false;
+        }
+    } // createBundle
+
+    private static boolean showReleases()
+    {
+        FirmwareCatalog catalog = ESPSFlashTool.ftconfig.getCatalog();
+        for (FirmwareCatalog.Release release : catalog.getReleases().values())
+        {
+            System.out.println(release);
+        }
+        long[] usage = catalog.diskUsage();
+        System.out.println(catalog.getReleases().size() + " release(s), " + usage[0] / 1024 + "KB stored for "
+                + usage[1] / 1024 + "KB of firmware");
+        return true;
+    } // showReleases
+
+    private static boolean compareReleases(String from, String to)
+    {
+        FirmwareCatalog catalog = ESPSFlashTool.ftconfig.getCatalog();
+        FirmwareCatalog.Release before = catalog.get(from);
+        FirmwareCatalog.Release after = catalog.get(to);
+        if (before == null || after == null)
+        {
+            System.err.println("No release " + ((before == null) ? from : to) + " in the catalog");
+            return false;
+        }
+        for (String line : catalog.compare(before, after))
+        {
+            System.out.println(line);
+        }
+        return true;
+    } // compareReleases
+
+    private static boolean removeRelease(String id)
+    {
+        try
+        {
+            if (!ESPSFlashTool.ftconfig.getCatalog().remove(id))
+            {
+                System.err.println("No release " + id + " in the catalog");
+                return false;
+            }
+            System.out.println("Removed " + id);
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to remove " + id + ": " + ex.getMessage());
+            return false;
+        }
+    } // removeRelease
+
+    // Play a capture back through the serial event matcher, the output to stdout, events and timing to stderr
+    private static boolean replayCapture(String path, String speed)
+    {
+        final double rate;
+        try
+        {
+            rate = Double.parseDouble(speed);
+        }
+        catch (NumberFormatException ex)
+        {
+            System.err.println("Speed " + speed + " is not a number, 1 is real time and 0 as fast as possible");
+            return false;
+        }
+        final OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 64 * 1024);
+        final int[] events = new int[1];
+        SerialReplay replay = new SerialReplay(new File(path), rate);
+        try
+        {
+            final SerialEventMatcher matcher = new SerialEventMatcher(replay.getCapturedPort(),
+                    new SerialEventMatcher.Listener()
+            {
+                @Override
+                public void serialEvent(SerialEventMatcher.Event event)
+                {
+                    events[0]++;
+                    System.err.println(event);
+                }
+            });
+            System.err.println(String.format("Replaying %s, captured %tF %<tT at %d baud: %d reads, %d bytes over %.3fs",
+                    replay.getCapturedPort(), replay.getCapturedAt(), replay.getBaudrate(), replay.getCount(),
+                    replay.getBytes(), replay.getDuration() / 1e9));
+            final IOException[] failed = new IOException[1];
+            long took = replay.replay(new SerialReplay.Sink()
+            {
+                @Override
+                public void data(long nanos, byte[] data, int length)
+                {
+                    matcher.feed(data, 0, length);
+                    try
+                    {
+                        out.write(data, 0, length);
+                        if (rate > 0)
+                        {
+                            out.flush();
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        failed[0] = ex;
+                    }
+                }
+            });
+            out.flush();
+            if (failed[0] != null)
+            {
+                throw failed[0];
+            }
+            System.err.println(String.format("Replayed in %.3fs, %.1f MB/s, %d events", took / 1e9,
+                    replay.getBytes() / (took / 1e9) / 1e6, events[0]));
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to replay " + path + ": " + ex.getMessage());
+            return false;
+        }
+        catch (InterruptedException ex)
+        {
+            return false;
+        }
+    } // replayCapture
+} // class CommandLine
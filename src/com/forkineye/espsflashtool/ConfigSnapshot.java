@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The device config files of the fs directory as they were when a job was submitted. The fs directory is shared and
+ * rewritten by every submit, while a queued job only builds its filesystem image when it starts, so it builds from a
+ * private copy instead: the fs directory with these files laid over it.
+ *
+ * The copy is kept next to the job's image and only updated where it differs, unchanged files keep their size and
+ * modification time and FilesystemImage doesn't read them again.
+ */
+class ConfigSnapshot
+{
+
+    private static final String STAGE = ".fs";
+
+    private final String source;
+    private final Map<String, byte[]> files = new LinkedHashMap<>(); // name -> content, null when it didn't exist
+
+    // Read the named files from the fs directory now
+    ConfigSnapshot(String source, String... names) throws IOException
+    {
+        this.source = source;
+        for (String name : names)
+        {
+            File file = new File(source, name);
+            files.put(name, file.isFile() ? Files.readAllBytes(file.toPath()) : null);
+        }
+    }
+
+    /**
+     * Bring the private fs directory of an image up to date and return its path. The caller holds
+     * FilesystemImage.lock(fsImage), jobs for the same image share the directory.
+     */
+    public String stage(String fsImage) throws IOException
+    {
+        final Path from = Paths.get(source);
+        final Path to = Paths.get(fsImage + STAGE);
+        final Set<Path> wanted = new HashSet<>();
+
+        Files.createDirectories(to);
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                Path target = to.resolve(from.relativize(dir).toString());
+                wanted.add(target);
+                Files.createDirectories(target);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                String name = from.relativize(file).toString();
+                if (files.containsKey(name))
+                {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path target = to.resolve(name);
+                wanted.add(target);
+                if (!Files.isRegularFile(target) || Files.size(target) != attrs.size()
+                        || !Files.getLastModifiedTime(target).equals(attrs.lastModifiedTime()))
+                {
+                    Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        for (Map.Entry<String, byte[]> entry : files.entrySet())
+        {
+            Path target = to.resolve(entry.getKey());
+            if (entry.getValue() == null)
+            {
+                continue;
+            }
+            wanted.add(target);
+            // Rewritten only when it changed, so the image isn't rebuilt for nothing
+            if (!Files.isRegularFile(target) || !Arrays.equals(Files.readAllBytes(target), entry.getValue()))
+            {
+                Files.write(target, entry.getValue());
+            }
+        }
+
+        // Whatever is gone from the fs directory goes from the copy too
+        Files.walkFileTree(to, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                if (!wanted.contains(file))
+                {
+                    Files.delete(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException
+            {
+                if (ex != null)
+                {
+                    throw ex;
+                }
+                if (!wanted.contains(dir))
+                {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return to.toString() + File.separator;
+    } // stage
+} // class ConfigSnapshot
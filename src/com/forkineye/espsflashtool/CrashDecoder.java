@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes crash dumps in serial output against the firmware's ELF as they arrive. ESP32 backtraces and register dumps
+ * and ESP8266 exception lines and stack dumps get a line per code address right after them:
+ * <pre>
+ *   Backtrace: 0x400d74d4:0x3ffb5f30 ...
+ *     0x400d74d4: adjust_boot_time at clk.c:167
+ * </pre>
+ * Every other line passes through untouched. One decoder per serial stream, they are not thread safe.
+ */
+class CrashDecoder
+{
+
+    private static final int MAX_LINE = 512;
+    private static final Pattern ADDRESS = Pattern.compile("(?<![0-9A-Fa-fx])(?:0x)?([0-9A-Fa-f]{8})(?![0-9A-Fa-f])");
+    private static final String[] CRASH_LINES =
+    {
+        "Backtrace:", "PC      :", "EXCVADDR", "epc1=", "Exception ("
+    };
+    private static final String STACK_START = ">>>stack>>>";
+    private static final String STACK_END = "<<<stack<<<";
+
+    // The symbols of the board last asked for, loaded in the background
+    private static final Object lock = new Object();
+    private static Board loadedBoard = null;
+    private static ElfSymbols loadedSymbols = null;
+
+    private final byte[] line = new byte[MAX_LINE];
+    private int lineLength = 0;
+    private boolean inStack = false;
+
+    /**
+     * Start indexing a board's ELF, if it ships one, so it is ready before the first crash. Decoding only waits for
+     * an index that has finished loading.
+     */
+    public static void preload(final Board board)
+    {
+        synchronized (lock)
+        {
+            if (board == null || board == loadedBoard)
+            {
+                return;
+            }
+            loadedBoard = board;
+            loadedSymbols = null;
+        }
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ElfSymbols symbols = null;
+                try
+                {
+                    long start = System.nanoTime();
+                    ByteBuffer elf = board.mapElf();
+                    if (elf == null)
+                    {
+                        System.out.println("No ELF for " + board.name + ", crashes won't be decoded");
+                        return;
+                    }
+                    symbols = ElfSymbols.load(elf);
+                    System.out.println("Indexed " + board.getElfName() + ": " + symbols.getSymbolCount()
+                            + " functions, " + symbols.getLineCount() + " line rows in "
+                            + (System.nanoTime() - start) / 1000000 + "ms");
+                }
+                catch (IOException ex)
+                {
+                    System.err.println("Unable to index " + board.getElfName() + ": " + ex.getMessage());
+                }
+                synchronized (lock)
+                {
+                    if (loadedBoard == board)
+                    {
+                        loadedSymbols = symbols;
+                    }
+                }
+            }
+        });
+    } // preload
+
+    // The index for a board, null until it is loaded or when there is none
+    static ElfSymbols symbols(Board board)
+    {
+        synchronized (lock)
+        {
+            if (board != loadedBoard)
+            {
+                preload(board);
+                return null;
+            }
+            return loadedSymbols;
+        }
+    }
+
+    /**
+     * The next chunk of serial data with decoded addresses inserted after each crash line it completes. Returns the
+     * chunk itself, not a copy, when nothing was inserted.
+     */
+    public byte[] annotate(byte[] data, int length, Board board)
+    {
+        ByteArrayOutputStream out = null;
+        int copied = 0;
+        for (int i = 0; i < length; i++)
+        {
+            byte b = data[i];
+            if (b != '\n')
+            {
+                if (lineLength < MAX_LINE)
+                {
+                    line[lineLength++] = b;
+                }
+                continue;
+            }
+            String complete = new String(line, 0, lineLength, StandardCharsets.US_ASCII);
+            lineLength = 0;
+            if (!isCrashLine(complete))
+            {
+                continue;
+            }
+            ElfSymbols symbols = symbols(board);
+            String decoded = (symbols == null) ? "" : decode(complete, symbols);
+            if (decoded.isEmpty())
+            {
+                continue;
+            }
+            if (out == null)
+            {
+                out = new ByteArrayOutputStream(length + decoded.length());
+            }
+            out.write(data, copied, i + 1 - copied);
+            byte[] bytes = decoded.getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes, 0, bytes.length);
+            copied = i + 1;
+        }
+        if (out == null)
+        {
+            return data;
+        }
+        out.write(data, copied, length - copied);
+        return out.toByteArray();
+    } // annotate
+
+    // Whether a line is part of a crash dump, tracking ESP8266 stack dumps that span many lines
+    private boolean isCrashLine(String text)
+    {
+        if (text.contains(STACK_START))
+        {
+            inStack = true;
+            return false;
+        }
+        if (text.contains(STACK_END))
+        {
+            inStack = false;
+            return false;
+        }
+        if (inStack)
+        {
+            return true;
+        }
+        for (String marker : CRASH_LINES)
+        {
+            if (text.contains(marker))
+            {
+                return true;
+            }
+        }
+        return false;
+    } // isCrashLine
+
+    /**
+     * A line per code address in a crash line, each ending in a newline. Empty when none of them are known.
+     */
+    static String decode(String text, ElfSymbols symbols)
+    {
+        StringBuilder decoded = new StringBuilder();
+        Set<Long> seen = new HashSet<>();
+        Matcher matcher = ADDRESS.matcher(text);
+        while (matcher.find())
+        {
+            long address = Long.parseLong(matcher.group(1), 16);
+            if (!seen.add(address))
+            {
+                continue;
+            }
+            String where = symbols.describe(address);
+            if (where == null && (address & 0xc0000000L) == 0x80000000L)
+            {
+                // An Xtensa windowed return address, the top bits hold the call size
+                where = symbols.describe((address & 0x3fffffffL) | 0x40000000L);
+            }
+            if (where != null)
+            {
+                decoded.append(String.format("  0x%08x: %s\n", address, where));
+            }
+        }
+        return decoded.toString();
+    } // decode
+} // class CrashDecoder
@@ -21,6 +21,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -49,8 +50,7 @@ class DeviceConfig
         // read the file that is kept locally
         try
         {
-            Gson gson = new Gson();
-            LocalConfigMap = (Map<String, Object>) gson.fromJson(new FileReader(ESPSFlashTool.paths.getFsPath() + DeviceConfigFileName), Map.class);
+            loadConfig(new FileReader(ESPSFlashTool.paths.getFsPath() + DeviceConfigFileName));
             // System.out.println("LocalConfigMap: " + LocalConfigMap.toString());
             /*
             Gson gson = new GsonBuilder().setPrettyPrinting().create();
@@ -66,21 +66,42 @@ class DeviceConfig
         }
     } // ProcessLocalDeviceConfigFile
 
+    // Load the local default config from reader
     @SuppressWarnings("unchecked")
-    public void processDownloadedDeviceConfigFiles()
+    void loadConfig(Reader reader)
     {
-        ESPSFlashTool.flashToolUI.monitor();
+        Gson gson = new Gson();
+        LocalConfigMap = (Map<String, Object>) gson.fromJson(reader, Map.class);
+    } // loadConfig
 
-        String TargetFileName = GetDownloadedFsPath();
+    // Write the active config (downloaded if present, local default otherwise) as pretty printed JSON
+    void writeConfig(Writer fw)
+    {
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        if (null != DeviceConfigMap)
+        {
+            gson.toJson(DeviceConfigMap, fw);
+        }
+        else if (null != LocalConfigMap)
+        {
+            gson.toJson(LocalConfigMap, fw);
+        }
+    } // writeConfig
 
+    // Parse the downloaded config. Runs on the task thread and only returns the map, null when there is none; the EDT
+    // hands it to useDownloadedConfig() when the task is done.
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> processDownloadedDeviceConfigFiles(String TargetFileName)
+    {
+        Map<String, Object> retval = null;
 
         // parse it
         Gson gson = new Gson();
         String ConfigFilePath = TargetFileName + "/" + DeviceConfigFileName;
         System.out.println(" ConfigFilePath: " + ConfigFilePath);
-        try
+        try ( Reader reader = new FileReader(ConfigFilePath))
         {
-            DeviceConfigMap = gson.fromJson(new FileReader(ConfigFilePath), Map.class);
+            retval = (Map<String, Object>) gson.fromJson(reader, Map.class);
             // System.out.println("DeviceConfigMap: " + DeviceConfigMap.toString());
             /*
                 Gson gson = new GsonBuilder().setPrettyPrinting().create();
@@ -90,12 +111,21 @@ class DeviceConfig
         }
         catch (FileNotFoundException ex)
         {
-            JOptionPane.showMessageDialog(null,
-                    "Unable to find ESPixelStick Downloaded Configuration file",
-                    "Failed deserialize", JOptionPane.ERROR_MESSAGE);
+            // The calling task reports this through its listener
+            System.out.println("Unable to find ESPixelStick Downloaded Configuration file");
+        }
+        catch (IOException | JsonParseException ex)
+        {
+            System.out.println("Unable to read ESPixelStick Downloaded Configuration file: " + ex.getMessage());
         }
 
-        ESPSFlashTool.flashToolUI.populateConfigValues();
+        return retval;
+    }
+
+    // Show and edit a config processDownloadedDeviceConfigFiles() parsed, on the EDT like every other reader of it
+    public void useDownloadedConfig(Map<String, Object> config)
+    {
+        DeviceConfigMap = config;
     }
 
     public void ProcessOnDeviceConfigFiles()
@@ -120,8 +150,8 @@ class DeviceConfig
     private void GetFsFromDevice()
     {
         System.out.println("GetFsFromDevice - Start");
-        ImageTask ftask = new ImageTask(ImageTask.ImageTaskActionToPerform.DOWNLOAD_FILESYSTEM); // SwingWorker task to build and flash
-        ftask.execute();
+        ESPSFlashTool.scheduler.submit(ImageTask.ImageTaskActionToPerform.DOWNLOAD_FILESYSTEM,
+                ESPSFlashTool.port, ESPSFlashTool.board, FlashScheduler.Priority.HIGH, 0);
         // Block until filesystem image is downloaded
 /*
         try
@@ -145,18 +175,10 @@ class DeviceConfig
 
         try ( Writer fw = new FileWriter(ESPSFlashTool.paths.getFsPath() + DeviceConfigFileName))
         {
-            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
-            if (null != DeviceConfigMap)
-            {
-                gson.toJson(DeviceConfigMap, fw);
-            }
-            else if (null != LocalConfigMap)
-            {
-                gson.toJson(LocalConfigMap, fw);
-            }
+            writeConfig(fw);
 
             // does input_config.json exist?
-            String SourceFsDirName = GetDownloadedFsPath() + "/";
+            String SourceFsDirName = GetDownloadedFsPath(ESPSFlashTool.board, ESPSFlashTool.port) + "/";
 
             File InputConfigFile = new File(SourceFsDirName + DeviceInputConfigFileName);
             // System.out.println("InputConfigFile: " + InputConfigFile.toPath());
@@ -193,15 +215,36 @@ class DeviceConfig
         return retval;
     }
 
-    public String GetDownloadedFsName()
+    // The config files serializeConfig() just wrote, for a job to build from when it gets to run. Null on failure.
+    public ConfigSnapshot snapshotConfig()
     {
-        String DownloadedFsDir = ESPSFlashTool.board.name + "_" + ESPSFlashTool.board.filesystem.offset + "_" + ESPSFlashTool.board.filesystem.size;
+        try
+        {
+            return new ConfigSnapshot(ESPSFlashTool.paths.getFsPath(), DeviceConfigFileName,
+                    DeviceInputConfigFileName, DeviceOutputConfigFileName);
+        }
+        catch (IOException ex)
+        {
+            JOptionPane.showMessageDialog(null, "Failed to read back " + DeviceConfigFileName,
+                    "Failed serialize", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
+    // Per board and port, downloads from devices on different ports run side by side
+    public String GetDownloadedFsName(Board board, ESPSSerialPort port)
+    {
+        String DownloadedFsDir = board.name + "_" + board.filesystem.offset + "_" + board.filesystem.size;
+        if (port != null && port.getTransport() != null)
+        {
+            DownloadedFsDir += "_" + port.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+        }
         return DownloadedFsDir.replace(" ", "_");
     }
 
-    public String GetDownloadedFsPath()
+    public String GetDownloadedFsPath(Board board, ESPSSerialPort port)
     {
-        return ESPSFlashTool.paths.getDownloadPath() + GetDownloadedFsName();
+        return ESPSFlashTool.paths.getDownloadPath() + GetDownloadedFsName(board, port);
     }
 
     public void InitDownloadedConfigFiles()
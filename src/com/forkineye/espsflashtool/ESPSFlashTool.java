@@ -21,25 +21,68 @@ public class ESPSFlashTool
     public static ESPSPaths paths = new ESPSPaths();
 
     public static FTConfig ftconfig = new FTConfig();
-    public static ESPSFlashToolUI flashToolUI = new ESPSFlashToolUI();
+    // Created by main when it opens the window, null for command line options, the benchmarks and headless runs
+    public static ESPSFlashToolUI flashToolUI = null;
     public static Board board = new Board();
     public static ESPSSerialPort port = new ESPSSerialPort();
     public static DeviceConfig deviceConfig = new DeviceConfig();
+    public static FlashMetrics metrics = new FlashMetrics();
+    public static UnitInventory inventory = new UnitInventory();
+    public static FlashScheduler scheduler = new FlashScheduler(Integer.getInteger("espsflashtool.jobs.concurrency", 4));
+    public static SerialMonitor serialMonitor = new SerialMonitor();
     // public static ImageTask ftask = new ImageTask(true); // SwingWorker task to build and flash
 
     public static void main(String[] args)
     {
+        // Time to interactive is measured from JVM launch
+        final long startedAt = java.lang.management.ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        // Command line options run without a window
+        if (args.length > 0 && args[0].startsWith("--"))
+        {
+            System.exit(CommandLine.run(args));
+        }
+        if (java.awt.GraphicsEnvironment.isHeadless())
+        {
+            System.err.println("No display to open the window on, see --help for the command line options");
+            System.exit(2);
+        }
+        flashToolUI = new ESPSFlashToolUI();
+
         paths.init();
-        ftconfig.init();
-        deviceConfig.init();
-        flashToolUI.init();
 
-        /* Create and display the form */
+        // Index the inventory behind startup, the first flash would otherwise wait for it
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                inventory.open(paths.getInventoryPath());
+            }
+        });
+
+        // Optional local metrics endpoint for station monitoring
+        Integer metricsPort = Integer.getInteger("espsflashtool.metrics.port");
+        if (metricsPort != null)
+        {
+            try
+            {
+                metrics.startServer(metricsPort);
+            }
+            catch (java.io.IOException ex)
+            {
+                System.err.println("Unable to start metrics endpoint: " + ex.getMessage());
+            }
+        }
+
+        /* Create and display the form, the config, boards and ports are loaded behind it */
         java.awt.EventQueue.invokeLater(new Runnable()
         {
             public void run()
             {
+                flashToolUI.init();
                 flashToolUI.setVisible(true);
+                flashToolUI.load(startedAt);
             }
         });
 
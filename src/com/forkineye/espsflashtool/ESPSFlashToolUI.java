@@ -24,6 +24,13 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.DefaultComboBoxModel;
@@ -42,6 +49,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
             + "(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\."
             + "(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
     private static final Pattern IPv4_PATTERN = Pattern.compile(IPV4_REGEX);
+    private static final DateTimeFormatter SERIAL_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
 
     private final DefaultComboBoxModel<Board> modelBoard = new DefaultComboBoxModel<>();
     private final DefaultComboBoxModel<ESPSSerialPort> modelPort = new DefaultComboBoxModel<>();
@@ -49,7 +57,24 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
     /* Validation Patterns */
     private static final String HOSTNAME_PATTERN = "^([a-zA-Z0-9]|[a-zA-Z0-9][a-zA-Z0-9\\-]*[a-zA-Z0-9])$";
 
-    private SerialPort lastPort;
+    // The selected port, its serial output is drained from the serial monitor on a Swing timer
+    private ESPSSerialPort lastPort;
+    private volatile SerialMonitor.Channel shownChannel = null;
+    private final byte[] serialDisplayBuffer = new byte[64 * 1024];
+    private static final int SERIAL_REFRESH_MS = Integer.getInteger("espsflashtool.monitor.refresh", 100);
+    private final boolean monitorAll = Boolean.getBoolean("espsflashtool.monitor.all");
+
+    // Hot-plug discovery and zero-touch flashing of newly attached units
+    private final PortWatcher portWatcher = new PortWatcher(Long.getLong("espsflashtool.ports.poll", 1000));
+    private final boolean autoFlash = Boolean.getBoolean("espsflashtool.autoflash");
+    private final int flashRetries = Integer.getInteger("espsflashtool.jobs.retries", 0);
+    private final Set<String> autoFlashPending = new HashSet<>(); // ports to flash once their chip is identified
+
+    // Time-to-interactive budget for startup, measured from JVM launch
+    private static final long STARTUP_TARGET_MS = Long.getLong("espsflashtool.startup.target", 1500);
+    private int startupPending = 0;
+    private String otaTargets = "";
+    private List<ESPSSerialPort> startupPorts = new ArrayList<>();
 
     /**
      * Creates new form ESPSFlashToolUI
@@ -58,6 +83,10 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
     {
     }
 
+    /**
+     * Build the window. Only the Swing work happens here so the frame can be shown right away; the manifest, board files,
+     * device config and serial ports are loaded by {@link #load(long)} while the interface stays disabled.
+     */
     public void init()
     {       
         // Set Flat Look and Feel
@@ -71,52 +100,466 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
         initComponents();
         setLocationRelativeTo(null);
 
-        
-        // jFormattedTextFieldIpAddress
-        // Set release label
-        lblRelease.setText(ESPSFlashTool.ftconfig.getRelease());
-
         // Setup export dialog
         dlgSave.setFileFilter(
                 new FileNameExtensionFilter("ESPS Firmware Update", "efu"));
         dlgSave.setSelectedFile(
                 new File("espixelstick.efu"));
 
-        if (ESPSFlashTool.ftconfig.getBoards().isEmpty())
+        lblRelease.setText("Loading...");
+        disableInterface();
+
+        // Clicking the release switches to another one from the catalog
+        lblRelease.setToolTipText("Click to switch releases");
+        lblRelease.addMouseListener(new java.awt.event.MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent evt)
+            {
+                chooseRelease();
+            }
+        });
+    }
+
+    /**
+     * Load everything the interface needs in parallel and enable it once all of it is in. Runs on the EDT; startedAt is
+     * the epoch ms the launch is measured from.
+     */
+    public void load(final long startedAt)
+    {
+        final long windowMs = System.currentTimeMillis() - startedAt;
+        startupPending = 3;
+
+        // Manifest, then every board's files checked side by side
+        TaskExecutor.execute(new Runnable()
         {
-            showMessageDialog(null, "No boards found in configuration file",
-                    "Bad configuration", JOptionPane.ERROR_MESSAGE);
-            System.exit(0);
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if (!ESPSFlashTool.ftconfig.init())
+                    {
+                        // Already reported, the tool exits
+                        return;
+                    }
+                    final List<Board> boards = ESPSFlashTool.ftconfig.getBoards();
+                    final boolean[] valid = verifyBoards(boards);
+
+                    TaskExecutor.runOnEdt(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            lblRelease.setText(ESPSFlashTool.ftconfig.getRelease());
+                            if (boards.isEmpty())
+                            {
+                                showMessageDialog(null, "No boards found in configuration file",
+                                        "Bad configuration", JOptionPane.ERROR_MESSAGE);
+                                System.exit(0);
+                            }
+                            for (int i = 0; i < valid.length; i++)
+                            {
+                                if (valid[i])
+                                {
+                                    modelBoard.addElement(boards.get(i));
+                                }
+                                else
+                                {
+                                    showMessageDialog(null, "Firmware file(s) missing for " + boards.get(i).toString(),
+                                            "Bad Firmware Configuration", JOptionPane.ERROR_MESSAGE);
+                                }
+                            }
+                            startupStepDone(startedAt, windowMs, null);
+                        }
+                    });
+                }
+                catch (RuntimeException ex)
+                {
+                    startupStepFailed("load the firmware configuration", ex, startedAt, windowMs);
+                }
+            }
+        });
+
+        // Clear out the last session's download and read the local default config
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    ESPSFlashTool.deviceConfig.init();
+                }
+                catch (RuntimeException ex)
+                {
+                    startupStepFailed("load the device configuration", ex, startedAt, windowMs);
+                    return;
+                }
+                TaskExecutor.runOnEdt(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            populateConfigValues();
+
+                            // Trigger state changes
+                            CheckBoxUseDhcpItemStateChanged(null);
+                        }
+                        catch (RuntimeException ex)
+                        {
+                            startupStepFailed("show the device configuration", ex, startedAt, windowMs);
+                            return;
+                        }
+                        startupStepDone(startedAt, windowMs, null);
+                    }
+                });
+            }
+        });
+
+        // Initial port list. It is only put in the combo box once the rest is loaded, selecting a port opens the monitor
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final List<ESPSSerialPort> ports;
+                try
+                {
+                    portWatcher.poll();
+                    ports = portWatcher.getPorts();
+                }
+                catch (RuntimeException ex)
+                {
+                    startupStepFailed("list the serial ports", ex, startedAt, windowMs);
+                    return;
+                }
+                TaskExecutor.runOnEdt(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        startupStepDone(startedAt, windowMs, ports);
+                    }
+                });
+            }
+        });
+    } // load
+
+    // Check every board's files side by side, called off the EDT
+    private static boolean[] verifyBoards(List<Board> boards)
+    {
+        final List<Future<Boolean>> verified = new ArrayList<>();
+        for (final Board board : boards)
+        {
+            verified.add(TaskExecutor.get().submit(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return board.verify();
+                }
+            }));
+        }
+        boolean[] valid = new boolean[boards.size()];
+        for (int i = 0; i < valid.length; i++)
+        {
+            try
+            {
+                valid[i] = verified.get(i).get();
+            }
+            catch (InterruptedException | ExecutionException ex)
+            {
+                valid[i] = false;
+            }
         }
+        return valid;
+    } // verifyBoards
 
-        // Verify and Populate boards
-        for (Board x : ESPSFlashTool.ftconfig.getBoards())
+    /**
+     * Let the operator pick another release from the catalog. Called on the EDT when the release label is clicked.
+     */
+    private void chooseRelease()
+    {
+        if (!cboxFirmware.isEnabled())
+        {
+            return;
+        }
+        final String firmwareDir = "firmware/ directory";
+        List<String> choices = new ArrayList<>(ESPSFlashTool.ftconfig.getCatalog().getReleases().keySet());
+        if (choices.isEmpty())
         {
-            String FwPath = ESPSFlashTool.paths.getFwPath();
-            if (x.verify(FwPath))
+            showMessageDialog(this, "The catalog has no releases yet.\n"
+                    + "Add one with: java -jar ESPSFlashTool.jar --import-release <firmware dir>",
+                    "Firmware Catalog", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (new File(ESPSFlashTool.paths.getFwPath() + "firmware.json").isFile())
+        {
+            choices.add(0, firmwareDir);
+        }
+        String current = ESPSFlashTool.ftconfig.getReleaseId().isEmpty() ? firmwareDir
+                : ESPSFlashTool.ftconfig.getReleaseId();
+        final Object choice = JOptionPane.showInputDialog(this, "Release to flash:", "Firmware Catalog",
+                JOptionPane.QUESTION_MESSAGE, null, choices.toArray(), current);
+        if (choice == null || choice.equals(current))
+        {
+            return;
+        }
+
+        disableInterface();
+        lblRelease.setText("Loading...");
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
             {
-                modelBoard.addElement(x);
+                if (choice.equals(firmwareDir))
+                {
+                    if (!ESPSFlashTool.ftconfig.loadFirmwareDirectory())
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    ESPSFlashTool.ftconfig.select(choice.toString());
+                }
+                final List<Board> boards = ESPSFlashTool.ftconfig.getBoards();
+                final boolean[] valid = verifyBoards(boards);
+                TaskExecutor.runOnEdt(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        modelBoard.removeAllElements();
+                        for (int i = 0; i < valid.length; i++)
+                        {
+                            if (valid[i])
+                            {
+                                modelBoard.addElement(boards.get(i));
+                            }
+                        }
+                        lblRelease.setText(ESPSFlashTool.ftconfig.getRelease());
+                        appendTxtSystemOutput("Switched to release " + choice + "\n");
+                        ChipIdentity known = ChipIdentity.get(ESPSFlashTool.port);
+                        if (known != null)
+                        {
+                            selectBoard(ESPSFlashTool.port, known);
+                        }
+                        enableInterface();
+                    }
+                });
             }
-            else
+        });
+    } // chooseRelease
+
+    // A startup step threw: say so and count it as done, the rest of the interface still comes up. Any thread.
+    private void startupStepFailed(final String step, final RuntimeException ex, final long startedAt,
+            final long windowMs)
+    {
+        System.err.println("Unable to " + step + ": " + ex);
+        ex.printStackTrace();
+        TaskExecutor.runOnEdt(new Runnable()
+        {
+            @Override
+            public void run()
             {
-                showMessageDialog(null, "Firmware file(s) missing for " + x.toString(),
-                        "Bad Firmware Configuration", JOptionPane.ERROR_MESSAGE);
+                showMessageDialog(ESPSFlashToolUI.this, "Unable to " + step + ":\n" + ex.getMessage(),
+                        "Startup Failed", JOptionPane.ERROR_MESSAGE);
+                startupStepDone(startedAt, windowMs, null);
             }
+        });
+    } // startupStepFailed
+
+    // Called on the EDT as each startup step finishes, the last one makes the interface usable
+    private void startupStepDone(long startedAt, long windowMs, List<ESPSSerialPort> ports)
+    {
+        if (ports != null)
+        {
+            startupPorts = ports;
+        }
+        if (--startupPending > 0)
+        {
+            return;
         }
 
-        // Populate serial ports
-        for (SerialPort serial : SerialPort.getCommPorts())
+        // Populate serial ports - initial list is filled here, later changes arrive from the watcher
+        for (ESPSSerialPort port : startupPorts)
         {
-            modelPort.addElement(new ESPSSerialPort(serial));
+            modelPort.addElement(port);
         }
-        populateConfigValues();
+        portWatcher.addListener(new PortWatcher.Listener()
+        {
+            @Override
+            public void portAttached(final ESPSSerialPort port)
+            {
+                java.awt.EventQueue.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        onPortAttached(port);
+                    }
+                });
+            }
 
-        // Trigger state changes
-        CheckBoxUseDhcpItemStateChanged(null);
-        
-        // Start serial monitor
+            @Override
+            public void portDetached(final ESPSSerialPort port)
+            {
+                java.awt.EventQueue.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        onPortDetached(port);
+                    }
+                });
+            }
+        });
+
+        // Start serial monitor. Events are reported from the reader threads, output is shown a few times a second.
+        ESPSFlashTool.serialMonitor.setListener(new SerialEventMatcher.Listener()
+        {
+            @Override
+            public void serialEvent(SerialEventMatcher.Event event)
+            {
+                serialEventSeen(event);
+            }
+        });
+        new javax.swing.Timer(SERIAL_REFRESH_MS, new java.awt.event.ActionListener()
+        {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent evt)
+            {
+                showSerialOutput();
+            }
+        }).start();
         monitor();
-    }
+
+        // Watch for boards being plugged in / removed
+        portWatcher.start();
+
+        enableInterface();
+
+        long interactiveMs = System.currentTimeMillis() - startedAt;
+        System.out.println("     Startup: window " + windowMs + "ms, interactive " + interactiveMs
+                + "ms (target " + STARTUP_TARGET_MS + "ms)");
+        if (interactiveMs > STARTUP_TARGET_MS)
+        {
+            System.err.println("Startup took " + interactiveMs + "ms, over the " + STARTUP_TARGET_MS + "ms target");
+        }
+    } // startupStepDone
+
+    private void onPortAttached(ESPSSerialPort port)
+    {
+        if (modelPort.getIndexOf(port) < 0)
+        {
+            modelPort.addElement(port);
+        }
+        appendTxtSystemOutput("Port attached: " + port + "\n");
+        if (monitorAll)
+        {
+            ESPSFlashTool.serialMonitor.add(port);
+        }
+
+        probe(port, autoFlash && btnFlash.isEnabled() && !ESPSFlashTool.scheduler.isBusy(port));
+    } // onPortAttached
+
+    /**
+     * Find out what is on a port and select the board for it. The probe runs as a quick job on the port, a device
+     * identified before answers from the cache straight away. thenFlash flashes it once the board is chosen.
+     */
+    private void probe(ESPSSerialPort port, boolean thenFlash)
+    {
+        if (port != null && port.getTransport() instanceof SerialReplay)
+        {
+            // A capture replay has no chip behind it to ask or flash
+            return;
+        }
+        ChipIdentity known = ChipIdentity.get(port);
+        if (known != null || !ChipIdentity.PROBE || port == null || port.getTransport() == null)
+        {
+            if (known != null)
+            {
+                selectBoard(port, known);
+            }
+            if (thenFlash)
+            {
+                autoFlash(port);
+            }
+            return;
+        }
+
+        if (thenFlash)
+        {
+            autoFlashPending.add(port.getKey());
+        }
+        ESPSFlashTool.scheduler.submit(ImageTask.ImageTaskActionToPerform.IDENTIFY, port, ESPSFlashTool.board,
+                FlashScheduler.Priority.HIGH, 0);
+    } // probe
+
+    // Called on the EDT when an IDENTIFY job is done
+    public void chipIdentified(ImageTask task)
+    {
+        ESPSSerialPort port = task.getSerialPort();
+        ChipIdentity identity = ChipIdentity.get(port);
+        if (identity != null)
+        {
+            appendTxtSystemOutput("\n" + port + ": " + identity + "\n");
+            selectBoard(port, identity);
+        }
+        if (autoFlashPending.remove(port.getKey()))
+        {
+            autoFlash(port);
+        }
+    } // chipIdentified
+
+    // Switch to a board whose firmware fits the chip, if the current one doesn't
+    private void selectBoard(ESPSSerialPort port, ChipIdentity identity)
+    {
+        if (port != ESPSFlashTool.port && !autoFlashPending.contains(port.getKey()))
+        {
+            // Only follow the port the operator is looking at
+            return;
+        }
+        Board board = identity.pick(ESPSFlashTool.board, ESPSFlashTool.ftconfig.getBoards());
+        if (board == null)
+        {
+            appendTxtSystemOutput("No board in firmware.json fits the " + identity.description() + " on " + port
+                    + "\n");
+        }
+        else if (board != ESPSFlashTool.board)
+        {
+            appendTxtSystemOutput("Selected " + board + " for the " + identity.description() + " on " + port + "\n");
+            cboxFirmware.setSelectedItem(board);
+        }
+    } // selectBoard
+
+    private void autoFlash(ESPSSerialPort port)
+    {
+        if (!btnFlash.isEnabled() || ESPSFlashTool.scheduler.isBusy(port))
+        {
+            return;
+        }
+        appendTxtSystemOutput("Auto flashing newly attached device on " + port + "\n");
+        cboxPort.setSelectedItem(port);
+        btnFlashActionPerformed(null);
+    } // autoFlash
+
+    private void onPortDetached(ESPSSerialPort port)
+    {
+        ESPSFlashTool.serialMonitor.remove(port);
+        if (lastPort != null && lastPort.getKey().equals(port.getKey()))
+        {
+            lastPort = null;
+            shownChannel = null;
+        }
+        modelPort.removeElement(port);
+        ChipIdentity.forget(port);
+        autoFlashPending.remove(port.getKey());
+        appendTxtSystemOutput("Port detached: " + port + "\n");
+    } // onPortDetached
 
     public void populateConfigValues()
     {
@@ -133,7 +576,8 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
         jTextFieldGatewayIpAddress.setText(ESPSFlashTool.deviceConfig.getGatewayIp());
     }
 
-    private boolean serializeConfig()
+    // Write the config to the fs directory and snapshot it for the job about to be submitted, null on failure
+    private ConfigSnapshot serializeConfig()
     {
         ESPSFlashTool.deviceConfig.setSSID(txtSSID.getText());
         ESPSFlashTool.deviceConfig.setPassphrase(txtPassphrase.getText());
@@ -146,7 +590,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
         ESPSFlashTool.deviceConfig.setMask(jTextFieldIpMask.getText());
         ESPSFlashTool.deviceConfig.setGatewayIp(jTextFieldGatewayIpAddress.getText());
 
-        return ESPSFlashTool.deviceConfig.serializeConfig();
+        return ESPSFlashTool.deviceConfig.serializeConfig() ? ESPSFlashTool.deviceConfig.snapshotConfig() : null;
     }
 
     // execPath + EspPlatformPath +
@@ -161,49 +605,83 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
                 break;
             }
 
-            SerialPort serial = ESPSFlashTool.port.getPort();
-            if (serial == null)
+            if (ESPSFlashTool.port.getTransport() == null)
             {
                 txtSerialOutput.append("Desired Serial Port Not Found");
                 break;
             }
 
-            serial.setComPortParameters(Integer.parseInt(ESPSFlashTool.ftconfig.getBaudrate()),
-                    8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY
-            );
-            if (!serial.openPort())
+            // The monitor's reader threads match events and decode crashes, the timer shows what they read
+            SerialMonitor.Channel channel = ESPSFlashTool.serialMonitor.add(ESPSFlashTool.port);
+            if (channel == null)
             {
-                txtSerialOutput.append("Failed to open serial port " + serial.getSystemPortName());
+                txtSerialOutput.append("Failed to open serial port " + ESPSFlashTool.port.getName());
                 break;
             }
+            CrashDecoder.preload(ESPSFlashTool.board);
+            shownChannel = channel;
+        } while (false);
+        System.out.println("monitor - End");
+    }
 
-            serial.addDataListener(new SerialPortDataListener()
-            {
-                @Override
-                public int getListeningEvents()
-                {
-                    return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
-                }
+    // Called on the serial refresh timer, appends what the shown port has sent since the last tick
+    private void showSerialOutput()
+    {
+        SerialMonitor.Channel channel = shownChannel;
+        if (channel == null)
+        {
+            return;
+        }
+        int count;
+        boolean shown = false;
+        LocalDateTime now = LocalDateTime.now();
+        while ((count = channel.read(serialDisplayBuffer)) > 0)
+        {
+            txtSerialOutput.append(timestampSerialData(serialDisplayBuffer, count, now));
+            shown = true;
+        }
+        if (shown)
+        {
+            txtSerialOutput.setCaretPosition(txtSerialOutput.getDocument().getLength());
+        }
+    } // showSerialOutput
 
-                @Override
-                public void serialEvent(SerialPortEvent event)
+    // Called on the serial thread for every state change the monitor spots
+    private void serialEventSeen(final SerialEventMatcher.Event event)
+    {
+        System.out.println("Serial: " + event);
+        TaskExecutor.runOnEdt(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                switch (event.type)
                 {
-                    if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE)
+                    case WATCHDOG_RESET:
+                    case EXCEPTION:
                     {
-                        return;
+                        appendTxtSystemOutput("-= " + event.port + ": " + event.type + " =- " + event.line + "\n");
+                        break;
+                    }
+                    case IP_ASSIGNED:
+                    {
+                        appendTxtSystemOutput(event.port + ": device is up at " + event.detail + "\n");
+                        break;
+                    }
+                    default:
+                    {
+                        break;
                     }
-                    byte[] data = new byte[serial.bytesAvailable()];
-                    serial.readBytes(data, data.length);
-                    LocalDateTime LocalTimeStamp = LocalDateTime.now();
-                    DateTimeFormatter TimeStampFormater = DateTimeFormatter.ofPattern("HH:mm:ss");
-                    String formattedtime = LocalTimeStamp.format(TimeStampFormater);
-                    String Line = new String(data, StandardCharsets.US_ASCII).replace("\n", "\n" + formattedtime + ": ");
-                    txtSerialOutput.append(Line);
-                    txtSerialOutput.setCaretPosition(txtSerialOutput.getDocument().getLength());
                 }
-            });
-        } while (false);
-        System.out.println("monitor - End");
+            }
+        });
+    } // serialEventSeen
+
+    // Prefix every line of raw serial data with the time it arrived
+    static String timestampSerialData(byte[] data, int length, LocalDateTime now)
+    {
+        String formattedtime = now.format(SERIAL_TIMESTAMP_FORMAT);
+        return new String(data, 0, length, StandardCharsets.US_ASCII).replace("\n", "\n" + formattedtime + ": ");
     }
 
     private void disableInterface()
@@ -226,6 +704,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
     {
         btnFlash.setEnabled(false);
         btnExport.setEnabled(false);
+        btnPush.setEnabled(false);
         btnDownload.setEnabled(false);
     }
 
@@ -233,6 +712,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
     {
         btnFlash.setEnabled(true);
         btnExport.setEnabled(true);
+        btnPush.setEnabled(true);
         btnDownload.setEnabled(true);
     }
 
@@ -247,11 +727,26 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
         txtSystemOutput.setCaretPosition(txtSystemOutput.getDocument().getLength());
     }
 
-    public String getEfuTarget()
+    // Where the EFU goes, as chosen in the save dialog
+    private String getEfuTarget()
     {
         return dlgSave.getSelectedFile().getAbsolutePath();
     }
 
+    // Devices to push the EFU to, as last entered
+    private List<String> getOtaTargets()
+    {
+        List<String> targets = new ArrayList<>();
+        for (String target : otaTargets.split("[\\s,]+"))
+        {
+            if (!target.isEmpty())
+            {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
     private int ValidateIpAddress(String value)
     {
         int response = 0;
@@ -334,6 +829,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
         jTextFieldGatewayIpAddress = new javax.swing.JTextField();
         jPanelButtons = new javax.swing.JPanel();
         btnExport = new javax.swing.JButton();
+        btnPush = new javax.swing.JButton();
         btnFlash = new javax.swing.JButton();
         btnDownload = new javax.swing.JButton();
         jSplitPane1 = new javax.swing.JSplitPane();
@@ -601,6 +1097,15 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
             }
         });
 
+        btnPush.setFont(new java.awt.Font("Tahoma", 1, 12)); // NOI18N
+        btnPush.setIcon(new javax.swing.ImageIcon(getClass().getResource("/com/forkineye/espsflashtool/upload_FILL0_wght400_GRAD0_opsz48.png"))); // NOI18N
+        btnPush.setText("Push EFU");
+        btnPush.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btnPushActionPerformed(evt);
+            }
+        });
+
         btnFlash.setFont(new java.awt.Font("Tahoma", 1, 12)); // NOI18N
         btnFlash.setIcon(new javax.swing.ImageIcon(getClass().getResource("/com/forkineye/espsflashtool/upload_FILL0_wght400_GRAD0_opsz48.png"))); // NOI18N
         btnFlash.setText("Flash Device");
@@ -630,6 +1135,8 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
                 .addComponent(btnDownload)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(btnExport, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(btnPush, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE)
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
         jPanelButtonsLayout.setVerticalGroup(
@@ -643,7 +1150,8 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
                     .addGroup(jPanelButtonsLayout.createSequentialGroup()
                         .addGroup(jPanelButtonsLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                             .addComponent(btnDownload, javax.swing.GroupLayout.PREFERRED_SIZE, 46, javax.swing.GroupLayout.PREFERRED_SIZE)
-                            .addComponent(btnExport, javax.swing.GroupLayout.PREFERRED_SIZE, 46, javax.swing.GroupLayout.PREFERRED_SIZE))
+                            .addComponent(btnExport, javax.swing.GroupLayout.PREFERRED_SIZE, 46, javax.swing.GroupLayout.PREFERRED_SIZE)
+                            .addComponent(btnPush, javax.swing.GroupLayout.PREFERRED_SIZE, 46, javax.swing.GroupLayout.PREFERRED_SIZE))
                         .addGap(0, 0, Short.MAX_VALUE)))
                 .addContainerGap())
         );
@@ -828,23 +1336,49 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
 
         if (dlgSave.showSaveDialog(this) == JFileChooser.APPROVE_OPTION)
         {
-            if (serializeConfig())
+            ConfigSnapshot config = serializeConfig();
+            if (config != null)
             {
                 disableInterface();
 
-                ImageTask ftask = new ImageTask(ImageTask.ImageTaskActionToPerform.MAKEEFU); // SwingWorker task to build and flash
-                ftask.execute();
+                ESPSFlashTool.scheduler.submitEfu(ESPSFlashTool.board, config, getEfuTarget());
             }
         }
     }//GEN-LAST:event_btnExportActionPerformed
 
+    private void btnPushActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_btnPushActionPerformed
+    {//GEN-HEADEREND:event_btnPushActionPerformed
+        String entered = (String) JOptionPane.showInputDialog(this,
+                "Device addresses (host, host:port or URL), separated by spaces or commas",
+                "Push EFU", JOptionPane.QUESTION_MESSAGE, null, null, otaTargets);
+        if (entered == null || entered.trim().isEmpty())
+        {
+            return;
+        }
+        otaTargets = entered.trim();
+
+        ConfigSnapshot config = serializeConfig();
+        if (config != null)
+        {
+            disableInterface();
+
+            ESPSFlashTool.scheduler.submitPush(ESPSFlashTool.board, config, getOtaTargets());
+        }
+    }//GEN-LAST:event_btnPushActionPerformed
+
     private void btnFlashActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_btnFlashActionPerformed
     {//GEN-HEADEREND:event_btnFlashActionPerformed
-        if (serializeConfig())
+        ConfigSnapshot config = serializeConfig();
+        if (config != null)
         {
-            // disableInterface();
-            ImageTask ftask = new ImageTask(ImageTask.ImageTaskActionToPerform.CREATE_AND_UPLOAD_ALL); // SwingWorker task to build and flash
-            ftask.execute();
+            // Jobs are serialized per port by the scheduler, so the interface stays live to queue other ports
+            if (ESPSFlashTool.scheduler.isBusy(ESPSFlashTool.port))
+            {
+                appendTxtSystemOutput("\nPort busy, flash queued behind "
+                        + ESPSFlashTool.scheduler.getQueueDepth(ESPSFlashTool.port) + " job(s)\n");
+            }
+            ESPSFlashTool.scheduler.submit(ImageTask.ImageTaskActionToPerform.CREATE_AND_UPLOAD_ALL,
+                    ESPSFlashTool.port, ESPSFlashTool.board, FlashScheduler.Priority.NORMAL, flashRetries, config);
         }
     }//GEN-LAST:event_btnFlashActionPerformed
 
@@ -892,6 +1426,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
 
     private void cboxFirmwareActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cboxFirmwareActionPerformed
         ESPSFlashTool.board = cboxFirmware.getItemAt(cboxFirmware.getSelectedIndex());
+        CrashDecoder.preload(ESPSFlashTool.board);
     }//GEN-LAST:event_cboxFirmwareActionPerformed
 
     private void cboxPortActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cboxPortActionPerformed
@@ -903,13 +1438,15 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
             {
                 break;
             }
-            if (lastPort != null)
+            if (lastPort != null && !monitorAll)
             {
-                lastPort.closePort();
+                ESPSFlashTool.serialMonitor.remove(lastPort);
             }
-            lastPort = ESPSFlashTool.port.getPort();
+            shownChannel = null;
+            lastPort = ESPSFlashTool.port;
 
             monitor();
+            probe(ESPSFlashTool.port, false);
         } while (false);
     }//GEN-LAST:event_cboxPortActionPerformed
 
@@ -932,6 +1469,7 @@ public class ESPSFlashToolUI extends javax.swing.JFrame
     private javax.swing.JButton btnDownload;
     private javax.swing.JButton btnExport;
     private javax.swing.JButton btnFlash;
+    private javax.swing.JButton btnPush;
     private javax.swing.JComboBox<Board> cboxFirmware;
     private javax.swing.JComboBox<ESPSSerialPort> cboxPort;
     private javax.swing.JFileChooser dlgSave;
@@ -15,7 +15,6 @@
  */
 package com.forkineye.espsflashtool;
 
-import java.io.IOException;
 import javax.swing.JOptionPane;
 import static javax.swing.JOptionPane.showMessageDialog;
 
@@ -27,11 +26,15 @@ public class ESPSPaths
     private String esptool;      // esptool binary to use with path
     private String mkfilesystem; // filesystem binary to use with path
     private String python;       // python binary to use
+    private Toolchain toolchain; // resolved and validated tools
     private final String execPath = "bin/";             // Path for executables
     private final String fsPath = "fs/";         // Path for filesystem
     private final String fsBin = "filesystem.bin";      // Filesystem Image
     private final String fwPath = "firmware/";          // Path for firmware binaries
     private final String downloadPath = "downloaded/"; // path for downloaded FS objects
+    private final String logPath = "logs/";             // path for per job tool logs
+    private final String inventoryPath = "inventory/";  // path for the flashed unit inventory
+    private final String catalogPath = "catalog/";      // path for the multi release firmware catalog
 
     private boolean isWindows = false;
 
@@ -98,23 +101,28 @@ public class ESPSPaths
         else
         {
             python = "python";
-            try
-            {
-                java.lang.Runtime.getRuntime().exec("chmod 550 " + esptool);
-                java.lang.Runtime.getRuntime().exec("chmod 550 " + mkfilesystem);
-            }
-            catch (IOException ex)
-            {
-                // ignore exception
-            }
         }
+        toolchain = new Toolchain(python, esptool, mkfilesystem);
+        validateToolchain();
+        EsptoolWorker.prewarm();
         System.out.println("    execPath: " + execPath);
         System.out.println("mkfilesystem: " + mkfilesystem);
         System.out.println("     esptool: " + esptool);
-        System.out.println("      python: " + python);
+        System.out.println("      python: " + toolchain.getPython());
 
     }// setToolPaths
 
+    // Make sure the resolved tools are still runnable, only touches them again when they changed on disk
+    public void validateToolchain()
+    {
+        toolchain.validate();
+    }
+
+    public Toolchain getToolchain()
+    {
+        return toolchain;
+    }
+
     public String getFsBin()
     {
         return fsBin;
@@ -140,6 +148,21 @@ public class ESPSPaths
         return downloadPath;
     }
 
+    public String getLogPath()
+    {
+        return logPath;
+    }
+
+    public String getInventoryPath()
+    {
+        return inventoryPath;
+    }
+
+    public String getCatalogPath()
+    {
+        return catalogPath;
+    }
+
     public String getOsName()
     {
         return OsName;
@@ -168,6 +191,7 @@ public class ESPSPaths
     public void setEsptool(String esptool)
     {
         this.esptool = esptool;
+        toolchain = new Toolchain(python, esptool, mkfilesystem);
     }
 
     public String getMkfilesystem()
@@ -178,16 +202,18 @@ public class ESPSPaths
     public void setMkfilesystem(String mkfilesystem)
     {
         this.mkfilesystem = mkfilesystem;
+        toolchain = new Toolchain(python, esptool, mkfilesystem);
     }
 
     public String getPython()
     {
-        return python;
+        return toolchain.getPython();
     }
 
     public void setPython(String python)
     {
         this.python = python;
+        toolchain = new Toolchain(python, esptool, mkfilesystem);
     }
 
     public boolean IsWindows()
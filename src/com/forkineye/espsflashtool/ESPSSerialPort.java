@@ -17,34 +17,82 @@ package com.forkineye.espsflashtool;
 
 import com.fazecast.jSerialComm.*;
 
-// Serial Ports
+// Serial Ports: a local port, or a serial server on the network
 class ESPSSerialPort
 {
 
-    private SerialPort port;      // Hardwire ID or path to port;
+    private SerialTransport transport;
 
     public ESPSSerialPort(SerialPort value)
     {
         setPort(value);
     }
 
+    // A remote slot, rfc2217://host:port or socket://host:port, or a capture played back, replay:<file>
+    public ESPSSerialPort(String url)
+    {
+        transport = SerialReplay.isUrl(url) ? new SerialReplay(url) : new RemoteSerialTransport(url);
+    }
+
     public ESPSSerialPort()
     {
     }
 
     public void setPort(SerialPort value)
     {
-        port = value;
+        transport = (value == null) ? null : new LocalSerialTransport(value);
     }
 
+    // The local port, null for a remote one
     public SerialPort getPort()
     {
-        return port;
+        return (transport instanceof LocalSerialTransport) ? ((LocalSerialTransport) transport).getPort() : null;
+    }
+
+    // null when no port is set
+    public SerialTransport getTransport()
+    {
+        return transport;
+    }
+
+    public boolean isRemote()
+    {
+        return transport instanceof RemoteSerialTransport;
+    }
+
+    // e.g. ttyUSB0, COM3 or host:port
+    public String getName()
+    {
+        return transport.getName();
+    }
+
+    // Unique per slot, jobs are queued by it
+    public String getPath()
+    {
+        return transport.getPath();
+    }
+
+    // Path esptool opens: the bare port name on Windows (COMx), the full device path elsewhere, the URL when remote
+    public String getDevicePath()
+    {
+        return transport.getDevicePath();
+    }
+
+    // VID:PID:serial - identifies the physical device independent of the path it enumerated on
+    public String getIdentity()
+    {
+        return transport.getIdentity();
+    }
+
+    // Path + identity - changes when a different device shows up on the same path
+    public String getKey()
+    {
+        return transport.getPath() + "|" + getIdentity();
     }
 
     @Override
     public String toString()
     {
-        return (port.getSystemPortName() + " - " + port.getDescriptivePortName());
+        return (transport.getName() + " - " + transport.getDescription());
     }
 } // ESPSSerialPort
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes an EFU straight to ESPixelStick controllers over HTTP, the same multipart upload the device's web UI does. The
+ * EFU is generated from the cached images while it is sent, nothing is written to disk. Devices are updated side by
+ * side, at most {@code parallel} at a time, and each upload is retried on failure.
+ */
+class EfuUploader
+{
+
+    public static final String DEFAULT_PATH = System.getProperty("espsflashtool.ota.path", "/updatefw");
+
+    public interface Listener
+    {
+
+        // Called on the uploading thread when a device is done, successfully or not
+        void uploadDone(Result result);
+    }
+
+    public static class Result
+    {
+
+        String target;
+        int httpStatus;     // -1 when no response was received
+        int attempts;
+        long wallMs;
+        long bytes;
+        String message;
+
+        public boolean isSuccess()
+        {
+            return httpStatus >= 200 && httpStatus < 300;
+        }
+
+        @Override
+        public String toString()
+        {
+            return target + ": " + (isSuccess() ? "OK" : "FAILED") + " (HTTP " + httpStatus + ", " + attempts
+                    + " attempt(s), " + wallMs + "ms" + (message.isEmpty() ? "" : ", " + message) + ")";
+        }
+    } // Result
+
+    private final ByteBuffer sketch;
+    private final ByteBuffer spiffs;
+    private final String fileName;
+    private int parallel = Integer.getInteger("espsflashtool.ota.parallel", 4);
+    private int retries = Integer.getInteger("espsflashtool.ota.retries", 2);
+    private int timeoutMs = Integer.getInteger("espsflashtool.ota.timeout", 120000);
+    private boolean chunked = Boolean.getBoolean("espsflashtool.ota.chunked");
+
+    // Images as handed out by ImageCache, every upload reads its own view of them. A null spiffs pushes the sketch only
+    // and keeps the device's filesystem, and with it its config.
+    public EfuUploader(ByteBuffer sketch, ByteBuffer spiffs, String fileName)
+    {
+        this.sketch = sketch;
+        this.spiffs = spiffs;
+        this.fileName = fileName;
+    }
+
+    public void setParallel(int parallel)
+    {
+        this.parallel = Math.max(1, parallel);
+    }
+
+    public void setRetries(int retries)
+    {
+        this.retries = Math.max(0, retries);
+    }
+
+    public void setTimeoutMs(int timeoutMs)
+    {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Send the body with chunked transfer encoding instead of a Content-Length. The ESPixelStick web server needs the
+     * length up front, so this is off unless the target is known to accept it.
+     */
+    public void setChunked(boolean chunked)
+    {
+        this.chunked = chunked;
+    }
+
+    /**
+     * Update every target and wait for all of them. Results come back in target order. At most {@code parallel}
+     * workers run, each taking the next target until none are left.
+     */
+    public List<Result> uploadAll(final List<String> targets, final Listener listener) throws InterruptedException
+    {
+        final Result[] results = new Result[targets.size()];
+        final AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallel, targets.size()); i++)
+        {
+            workers.add(TaskExecutor.get().submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws InterruptedException
+                {
+                    int index;
+                    while ((index = next.getAndIncrement()) < targets.size())
+                    {
+                        Result result = upload(targets.get(index));
+                        results[index] = result;
+                        if (listener != null)
+                        {
+                            listener.uploadDone(result);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try
+        {
+            for (Future<?> worker : workers)
+            {
+                worker.get();
+            }
+        }
+        catch (ExecutionException ex)
+        {
+            throw new IllegalStateException(ex.getCause());
+        }
+        finally
+        {
+            // Interrupted or failed, the workers still going stop at their next back off
+            for (Future<?> worker : workers)
+            {
+                worker.cancel(true);
+            }
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    } // uploadAll
+
+    /**
+     * Update one device, retrying with a growing back off. target is a host, host:port or a full URL.
+     */
+    public Result upload(String target) throws InterruptedException
+    {
+        Result result = new Result();
+        result.target = target;
+        long start = System.nanoTime();
+        do
+        {
+            if (result.attempts > 0)
+            {
+                Thread.sleep(1000L * result.attempts);
+            }
+            result.attempts++;
+            try
+            {
+                result.httpStatus = post(toUrl(target));
+                result.bytes = efuSize();
+                result.message = result.isSuccess() ? "" : "unexpected HTTP " + result.httpStatus + " response";
+            }
+            catch (IOException ex)
+            {
+                result.httpStatus = -1;
+                result.message = ex.toString();
+            }
+        } while (!result.isSuccess() && result.attempts <= retries);
+        result.wallMs = (System.nanoTime() - start) / 1000000;
+        return result;
+    } // upload
+
+    private long efuSize()
+    {
+        return UpdateBuilder.size(sketch.remaining(), (spiffs == null) ? -1 : spiffs.remaining());
+    }
+
+    static URL toUrl(String target) throws IOException
+    {
+        String url = target.trim();
+        if (!url.contains("://"))
+        {
+            url = "http://" + url;
+        }
+        // A bare host gets the update endpoint
+        if (url.indexOf('/', url.indexOf("://") + 3) < 0)
+        {
+            url = url + DEFAULT_PATH;
+        }
+        return new URL(url);
+    } // toUrl
+
+    private int post(URL url) throws IOException
+    {
+        String boundary = "----ESPSFlashTool" + Long.toHexString(System.nanoTime());
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(Math.min(timeoutMs, 10000));
+        connection.setReadTimeout(timeoutMs);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        if (chunked)
+        {
+            connection.setChunkedStreamingMode(16 * 1024);
+        }
+        else
+        {
+            connection.setFixedLengthStreamingMode(head.length + efuSize() + tail.length);
+        }
+
+        try ( OutputStream out = connection.getOutputStream())
+        {
+            out.write(head);
+            UpdateBuilder.write(sketch, spiffs, out);
+            out.write(tail);
+        }
+
+        int status = connection.getResponseCode();
+        // Drain the response so the connection can be reused
+        InputStream response = (status >= 400) ? connection.getErrorStream() : connection.getInputStream();
+        if (response != null)
+        {
+            byte[] buffer = new byte[1024];
+            while (response.read(buffer) != -1)
+            {
+            }
+            response.close();
+        }
+        return status;
+    } // post
+} // class EfuUploader
@@ -0,0 +1,823 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Address to function and source line lookups for a firmware ELF, in process, without addr2line. The ELF is read once
+ * from a mapped buffer: function symbols from .symtab and the DWARF 2 to 5 line tables from .debug_line are turned into
+ * sorted address arrays, each lookup is then a binary search.
+ */
+class ElfSymbols
+{
+
+    // Section header fields of interest
+    private static class Section
+    {
+
+        String name;
+        int type;
+        long offset;
+        long size;
+        int link;
+        long entsize;
+    }
+
+    private static final int SHT_SYMTAB = 2;
+    private static final int STT_FUNC = 2;
+    private static final int NO_FILE = -1;
+
+    // Functions, sorted by start address
+    private long[] symbolStart = new long[0];
+    private long[] symbolEnd = new long[0];
+    private String[] symbolName = new String[0];
+
+    // Line table rows, sorted by address. A row with file NO_FILE ends a sequence, addresses after it have no line.
+    private long[] lineAddress = new long[0];
+    private int[] lineFile = new int[0];
+    private int[] lineNumber = new int[0];
+    private final List<String> files = new ArrayList<>();
+
+    private final ByteBuffer elf;
+    private boolean is64 = false;
+
+    private ElfSymbols(ByteBuffer elf)
+    {
+        this.elf = elf;
+    }
+
+    /**
+     * Index an ELF image, as handed out by ImageCache or a release bundle.
+     */
+    public static ElfSymbols load(ByteBuffer image) throws IOException
+    {
+        ByteBuffer elf = image.slice();
+        if (elf.remaining() < 52 || elf.getInt(0) != 0x7f454c46)
+        {
+            throw new IOException("not an ELF file");
+        }
+        if (elf.get(4) != 1)
+        {
+            throw new IOException("only 32 bit ELF files are supported");
+        }
+        elf.order((elf.get(5) == 2) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        ElfSymbols symbols = new ElfSymbols(elf);
+        try
+        {
+            Map<String, Section> sections = symbols.readSections();
+            symbols.readSymbols(sections);
+            symbols.readLines(sections);
+        }
+        catch (IndexOutOfBoundsException | IllegalArgumentException ex)
+        {
+            throw new IOException("damaged ELF file: " + ex);
+        }
+        return symbols;
+    } // load
+
+    public int getSymbolCount()
+    {
+        return symbolStart.length;
+    }
+
+    public int getLineCount()
+    {
+        return lineAddress.length;
+    }
+
+    // Name of the function holding the address, null when none does
+    public String function(long address)
+    {
+        int i = floor(symbolStart, address);
+        return (i >= 0 && address < symbolEnd[i]) ? symbolName[i] : null;
+    }
+
+    // file:line the address was compiled from, null when the line tables don't cover it
+    public String line(long address)
+    {
+        int i = floor(lineAddress, address);
+        if (i < 0 || lineFile[i] == NO_FILE)
+        {
+            return null;
+        }
+        return files.get(lineFile[i]) + ":" + lineNumber[i];
+    }
+
+    /**
+     * "function at file:line" for an address, or null when nothing is known about it.
+     */
+    public String describe(long address)
+    {
+        String function = function(address);
+        String line = line(address);
+        if (function == null && line == null)
+        {
+            return null;
+        }
+        return ((function == null) ? "??" : demangle(function)) + ((line == null) ? "" : " at " + line);
+    }
+
+    /**
+     * The qualified name of an Itanium C++ symbol, parameters left off: _ZN5c_FPP4loopEv is c_FPP::loop. Names it can't
+     * take apart (templates, std:: abbreviations) come back as they are.
+     */
+    static String demangle(String name)
+    {
+        if (!name.startsWith("_Z"))
+        {
+            return name;
+        }
+        int i = 2;
+        boolean nested = i < name.length() && name.charAt(i) == 'N';
+        if (nested)
+        {
+            i++;
+            // cv and ref qualifiers of member functions
+            while (i < name.length() && "rVKRO".indexOf(name.charAt(i)) >= 0)
+            {
+                i++;
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        String last = "";
+        do
+        {
+            if (i >= name.length())
+            {
+                return name;
+            }
+            char c = name.charAt(i);
+            if (nested && c == 'E')
+            {
+                break;
+            }
+            String part;
+            if (Character.isDigit(c))
+            {
+                int length = 0;
+                while (i < name.length() && Character.isDigit(name.charAt(i)))
+                {
+                    length = length * 10 + name.charAt(i++) - '0';
+                }
+                if (i + length > name.length())
+                {
+                    return name;
+                }
+                part = name.substring(i, i + length);
+                i += length;
+            }
+            else if ((c == 'C' || c == 'D') && i + 1 < name.length() && Character.isDigit(name.charAt(i + 1)))
+            {
+                // constructor or destructor of the enclosing class
+                part = ((c == 'D') ? "~" : "") + last;
+                i += 2;
+            }
+            else
+            {
+                return name;
+            }
+            if (result.length() > 0)
+            {
+                result.append("::");
+            }
+            result.append(part);
+            last = part;
+        } while (nested);
+        return result.toString();
+    } // demangle
+
+    // Index of the last entry <= key, -1 when all are greater
+    private static int floor(long[] sorted, long key)
+    {
+        int low = 0;
+        int high = sorted.length - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= key)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        return high;
+    } // floor
+
+    private Map<String, Section> readSections()
+    {
+        long shoff = u32(elf.getInt(32));
+        int shentsize = u16(elf.getShort(46));
+        int shnum = u16(elf.getShort(48));
+        int shstrndx = u16(elf.getShort(50));
+
+        Section[] headers = new Section[shnum];
+        for (int i = 0; i < shnum; i++)
+        {
+            int at = (int) (shoff + (long) i * shentsize);
+            Section section = new Section();
+            section.name = Integer.toString(elf.getInt(at));   // resolved below
+            section.type = elf.getInt(at + 4);
+            section.offset = u32(elf.getInt(at + 16));
+            section.size = u32(elf.getInt(at + 20));
+            section.link = elf.getInt(at + 24);
+            section.entsize = u32(elf.getInt(at + 36));
+            headers[i] = section;
+        }
+
+        Map<String, Section> sections = new HashMap<>();
+        Section names = headers[shstrndx];
+        for (Section section : headers)
+        {
+            section.name = string(names.offset + Integer.parseInt(section.name));
+            sections.put(section.name, section);
+        }
+        for (Section section : headers)
+        {
+            // .symtab is found by type, its string table by link
+            if (section.type == SHT_SYMTAB)
+            {
+                sections.put(".symtab", section);
+                sections.put(".symtab.strtab", headers[section.link]);
+            }
+        }
+        return sections;
+    } // readSections
+
+    private void readSymbols(Map<String, Section> sections)
+    {
+        Section symtab = sections.get(".symtab");
+        if (symtab == null)
+        {
+            return;
+        }
+        Section strtab = sections.get(".symtab.strtab");
+        int entsize = (int) Math.max(16, symtab.entsize);
+        int count = (int) (symtab.size / entsize);
+
+        long[] start = new long[count];
+        long[] end = new long[count];
+        String[] name = new String[count];
+        Integer[] order = new Integer[count];
+        int functions = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int at = (int) (symtab.offset + (long) i * entsize);
+            int info = elf.get(at + 12) & 0xff;
+            int shndx = u16(elf.getShort(at + 14));
+            if ((info & 0xf) != STT_FUNC || shndx == 0)
+            {
+                continue;
+            }
+            start[functions] = u32(elf.getInt(at + 4));
+            end[functions] = start[functions] + Math.max(1, u32(elf.getInt(at + 8)));
+            name[functions] = string(strtab.offset + u32(elf.getInt(at)));
+            order[functions] = functions;
+            functions++;
+        }
+
+        final long[] starts = start;
+        Integer[] sorted = Arrays.copyOf(order, functions);
+        Arrays.sort(sorted, new java.util.Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(starts[a], starts[b]);
+            }
+        });
+        symbolStart = new long[functions];
+        symbolEnd = new long[functions];
+        symbolName = new String[functions];
+        for (int i = 0; i < functions; i++)
+        {
+            symbolStart[i] = start[sorted[i]];
+            symbolEnd[i] = end[sorted[i]];
+            symbolName[i] = name[sorted[i]];
+        }
+    } // readSymbols
+
+    // Run every line number program in .debug_line, collecting rows
+    private void readLines(Map<String, Section> sections)
+    {
+        Section debugLine = sections.get(".debug_line");
+        if (debugLine == null)
+        {
+            return;
+        }
+        Section lineStr = sections.get(".debug_line_str");
+        Section str = sections.get(".debug_str");
+        Rows rows = new Rows();
+        Map<String, Integer> fileIds = new HashMap<>();
+
+        long at = debugLine.offset;
+        long end = debugLine.offset + debugLine.size;
+        while (at < end)
+        {
+            Reader in = new Reader(elf, at);
+            long unitLength = in.u32();
+            is64 = unitLength == 0xffffffffL;
+            if (is64)
+            {
+                unitLength = in.u64();
+            }
+            long unitEnd = in.position() + unitLength;
+            if (unitLength == 0 || unitEnd > end)
+            {
+                break;
+            }
+            try
+            {
+                readUnit(in, unitEnd, lineStr, str, rows, fileIds);
+            }
+            catch (UnsupportedOperationException ex)
+            {
+                // One unit we can't read doesn't spoil the others
+                System.err.println("ELF: skipping a line table: " + ex.getMessage());
+            }
+            at = unitEnd;
+        }
+        rows.sortInto(this);
+    } // readLines
+
+    private void readUnit(Reader in, long unitEnd, Section lineStr, Section str, Rows rows,
+            Map<String, Integer> fileIds)
+    {
+        int version = in.u16();
+        if (version < 2 || version > 5)
+        {
+            throw new UnsupportedOperationException("DWARF version " + version);
+        }
+        int addressSize = 4;
+        if (version >= 5)
+        {
+            addressSize = in.u8();
+            in.u8();    // segment selector size
+        }
+        long headerLength = is64 ? in.u64() : in.u32();
+        long program = in.position() + headerLength;
+        int minInstruction = in.u8();
+        if (version >= 4)
+        {
+            in.u8();    // maximum operations per instruction, 1 on everything but VLIW
+        }
+        boolean defaultIsStmt = in.u8() != 0;
+        int lineBase = (byte) in.u8();
+        int lineRange = in.u8();
+        int opcodeBase = in.u8();
+        int[] opcodeLengths = new int[opcodeBase];
+        for (int i = 1; i < opcodeBase; i++)
+        {
+            opcodeLengths[i] = in.u8();
+        }
+        if (lineRange == 0)
+        {
+            throw new UnsupportedOperationException("line range 0");
+        }
+
+        // Unit file numbers -> ids in the shared file list
+        List<Integer> unitFiles = new ArrayList<>();
+        if (version >= 5)
+        {
+            List<String> dirs = new ArrayList<>();
+            for (String[] entry : readEntries(in, lineStr, str))
+            {
+                dirs.add(entry[0]);
+            }
+            for (String[] entry : readEntries(in, lineStr, str))
+            {
+                int dir = (entry[1] == null) ? 0 : Integer.parseInt(entry[1]);
+                unitFiles.add(fileId(path((dir < dirs.size()) ? dirs.get(dir) : "", entry[0]), fileIds));
+            }
+        }
+        else
+        {
+            List<String> dirs = new ArrayList<>();
+            dirs.add("");
+            String dir;
+            while (!(dir = in.string()).isEmpty())
+            {
+                dirs.add(dir);
+            }
+            unitFiles.add(NO_FILE);    // file numbers start at 1
+            String name;
+            while (!(name = in.string()).isEmpty())
+            {
+                int index = (int) in.uleb();
+                in.uleb();
+                in.uleb();
+                unitFiles.add(fileId(path((index < dirs.size()) ? dirs.get(index) : "", name), fileIds));
+            }
+        }
+
+        // The state machine
+        in.seek(program);
+        long address = 0;
+        int file = 1;
+        int line = 1;
+        boolean sequenceValid = true;
+        rows.startSequence();
+        while (in.position() < unitEnd)
+        {
+            int opcode = in.u8();
+            if (opcode >= opcodeBase)
+            {
+                int adjusted = opcode - opcodeBase;
+                address += (long) (adjusted / lineRange) * minInstruction;
+                line += lineBase + adjusted % lineRange;
+                rows.add(address, fileOf(unitFiles, file), line);
+                continue;
+            }
+            switch (opcode)
+            {
+                case 0:
+                {
+                    long length = in.uleb();
+                    long next = in.position() + length;
+                    int sub = (length == 0) ? -1 : in.u8();
+                    if (sub == 1)
+                    {
+                        // end_sequence. Code that was discarded at link time is left at address 0, drop it.
+                        rows.add(address, NO_FILE, 0);
+                        rows.endSequence(sequenceValid);
+                        address = 0;
+                        file = 1;
+                        line = 1;
+                        sequenceValid = true;
+                        rows.startSequence();
+                    }
+                    else if (sub == 2)
+                    {
+                        address = (addressSize == 8 || length == 9) ? in.u64() : in.u32();
+                        sequenceValid &= address != 0;
+                    }
+                    else if (sub == 3 && version < 5)
+                    {
+                        String name = in.string();
+                        int index = (int) in.uleb();
+                        unitFiles.add(fileId(name, fileIds));
+                    }
+                    in.seek(next);
+                    break;
+                }
+                case 1:     // copy
+                {
+                    rows.add(address, fileOf(unitFiles, file), line);
+                    break;
+                }
+                case 2:     // advance_pc
+                {
+                    address += in.uleb() * minInstruction;
+                    break;
+                }
+                case 3:     // advance_line
+                {
+                    line += (int) in.sleb();
+                    break;
+                }
+                case 4:     // set_file
+                {
+                    file = (int) in.uleb();
+                    break;
+                }
+                case 8:     // const_add_pc
+                {
+                    address += (long) ((255 - opcodeBase) / lineRange) * minInstruction;
+                    break;
+                }
+                case 9:     // fixed_advance_pc
+                {
+                    address += in.u16();
+                    break;
+                }
+                default:
+                {
+                    // set_column, negate_stmt, prologue / epilogue markers, set_isa and anything newer
+                    for (int i = 0; i < opcodeLengths[opcode]; i++)
+                    {
+                        in.uleb();
+                    }
+                    break;
+                }
+            }
+        }
+        rows.endSequence(false);
+    } // readUnit
+
+    // DWARF 5 directory or file name entries: {path, directory index}
+    private List<String[]> readEntries(Reader in, Section lineStr, Section str)
+    {
+        int formatCount = in.u8();
+        long[][] format = new long[formatCount][2];
+        for (int i = 0; i < formatCount; i++)
+        {
+            format[i][0] = in.uleb();
+            format[i][1] = in.uleb();
+        }
+        long count = in.uleb();
+        List<String[]> entries = new ArrayList<>();
+        for (long n = 0; n < count; n++)
+        {
+            String[] entry = new String[2];
+            for (long[] field : format)
+            {
+                String value = readForm(in, (int) field[1], lineStr, str);
+                if (field[0] == 1)
+                {
+                    entry[0] = value;
+                }
+                else if (field[0] == 2)
+                {
+                    entry[1] = value;
+                }
+            }
+            entries.add(entry);
+        }
+        return entries;
+    } // readEntries
+
+    private String readForm(Reader in, int form, Section lineStr, Section str)
+    {
+        switch (form)
+        {
+            case 0x08:  // string
+                return in.string();
+            case 0x1f:  // line_strp
+            case 0x0e:  // strp
+            {
+                long offset = is64 ? in.u64() : in.u32();
+                Section table = (form == 0x1f) ? lineStr : str;
+                if (table == null)
+                {
+                    throw new UnsupportedOperationException("missing string section");
+                }
+                return string(table.offset + offset);
+            }
+            case 0x0b:  // data1
+                return Integer.toString(in.u8());
+            case 0x05:  // data2
+                return Integer.toString(in.u16());
+            case 0x06:  // data4
+                return Long.toString(in.u32());
+            case 0x07:  // data8
+                return Long.toString(in.u64());
+            case 0x0f:  // udata
+                return Long.toString(in.uleb());
+            case 0x1e:  // data16, an MD5
+                in.seek(in.position() + 16);
+                return null;
+            case 0x09:  // block
+                in.seek(in.position() + in.uleb());
+                return null;
+            default:
+                throw new UnsupportedOperationException("form 0x" + Integer.toHexString(form));
+        }
+    } // readForm
+
+    private int fileId(String path, Map<String, Integer> fileIds)
+    {
+        Integer id = fileIds.get(path);
+        if (id == null)
+        {
+            id = files.size();
+            files.add(path);
+            fileIds.put(path, id);
+        }
+        return id;
+    }
+
+    private static int fileOf(List<Integer> unitFiles, int file)
+    {
+        return (file >= 0 && file < unitFiles.size()) ? unitFiles.get(file) : NO_FILE;
+    }
+
+    private static String path(String dir, String name)
+    {
+        if (name == null)
+        {
+            return "??";
+        }
+        if (dir == null || dir.isEmpty() || name.startsWith("/") || (name.length() > 1 && name.charAt(1) == ':'))
+        {
+            return name;
+        }
+        return dir + "/" + name;
+    }
+
+    // NUL terminated string at an absolute offset
+    private String string(long offset)
+    {
+        int start = (int) offset;
+        int end = start;
+        while (elf.get(end) != 0)
+        {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = elf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    } // string
+
+    private static long u32(int value)
+    {
+        return value & 0xffffffffL;
+    }
+
+    private static int u16(short value)
+    {
+        return value & 0xffff;
+    }
+
+    // Line rows as they come out of the programs, grouped in sequences
+    private static class Rows
+    {
+
+        long[] address = new long[4096];
+        int[] file = new int[4096];
+        int[] line = new int[4096];
+        int count = 0;
+        int sequenceStart = 0;
+
+        void startSequence()
+        {
+            sequenceStart = count;
+        }
+
+        void add(long rowAddress, int rowFile, int rowLine)
+        {
+            if (count == address.length)
+            {
+                address = Arrays.copyOf(address, count * 2);
+                file = Arrays.copyOf(file, count * 2);
+                line = Arrays.copyOf(line, count * 2);
+            }
+            address[count] = rowAddress;
+            file[count] = rowFile;
+            line[count] = rowLine;
+            count++;
+        }
+
+        void endSequence(boolean keep)
+        {
+            if (!keep)
+            {
+                count = sequenceStart;
+            }
+            sequenceStart = count;
+        }
+
+        // Sort by address, a sequence end sorts before a row starting another sequence at the same address
+        void sortInto(ElfSymbols symbols)
+        {
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++)
+            {
+                keys[i] = (address[i] << 32) | ((file[i] == NO_FILE) ? 0 : 1L << 31) | i;
+            }
+            Arrays.sort(keys);
+            symbols.lineAddress = new long[count];
+            symbols.lineFile = new int[count];
+            symbols.lineNumber = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                int row = (int) (keys[i] & 0x7fffffff);
+                symbols.lineAddress[i] = address[row];
+                symbols.lineFile[i] = file[row];
+                symbols.lineNumber[i] = line[row];
+            }
+        } // sortInto
+    } // Rows
+
+    // Sequential reads from the mapped ELF
+    private static class Reader
+    {
+
+        private final ByteBuffer buffer;
+        private long position;
+
+        Reader(ByteBuffer buffer, long position)
+        {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        long position()
+        {
+            return position;
+        }
+
+        void seek(long to)
+        {
+            position = to;
+        }
+
+        int u8()
+        {
+            return buffer.get((int) position++) & 0xff;
+        }
+
+        int u16()
+        {
+            int value = buffer.getShort((int) position) & 0xffff;
+            position += 2;
+            return value;
+        }
+
+        long u32()
+        {
+            long value = buffer.getInt((int) position) & 0xffffffffL;
+            position += 4;
+            return value;
+        }
+
+        long u64()
+        {
+            long value = buffer.getLong((int) position);
+            position += 8;
+            return value;
+        }
+
+        long uleb()
+        {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                b = u8();
+                if (shift < 64)
+                {
+                    value |= (long) (b & 0x7f) << shift;
+                }
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long sleb()
+        {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                b = u8();
+                if (shift < 64)
+                {
+                    value |= (long) (b & 0x7f) << shift;
+                }
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (shift < 64 && (b & 0x40) != 0)
+            {
+                value |= -1L << shift;
+            }
+            return value;
+        }
+
+        String string()
+        {
+            int start = (int) position;
+            int end = start;
+            while (buffer.get(end) != 0)
+            {
+                end++;
+            }
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                bytes[i] = buffer.get(start + i);
+            }
+            position = end + 1;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    } // Reader
+} // class ElfSymbols
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.Gson;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A warm python process running bin/esptool_worker.py. esptool and pyserial are imported once, after that each command
+ * line is sent over the worker's stdin and its output streams back framed on stdout, see the script for the protocol.
+ *
+ * Workers are pooled, one per concurrently running job. A worker that dies or is left mid command is thrown away, the next
+ * acquire() starts a fresh one.
+ */
+class EsptoolWorker
+{
+
+    static final boolean ENABLED = !"false".equals(System.getProperty("espsflashtool.esptool.worker"));
+    private static final int MAX_IDLE = Integer.getInteger("espsflashtool.esptool.workers", 4);
+    private static final String SCRIPT = "esptool_worker.py";
+    private static final int MAX_ERROR = 16 * 1024;   // bytes of a failed start kept for the message
+    private static final long STOP_MS = 2000;
+
+    private static final Deque<EsptoolWorker> idle = new ArrayDeque<>();
+
+    private final String python;
+    private final Process process;
+    private final InputStream input;
+    private final OutputStream output;
+    private volatile boolean broken = false;
+    private volatile int exitStatus = -1;
+
+    private EsptoolWorker(String python) throws IOException
+    {
+        this.python = python;
+        ProcessBuilder pb = new ProcessBuilder(python, ESPSFlashTool.paths.getExecPath() + SCRIPT);
+        pb.redirectErrorStream(true);
+        process = pb.start();
+        input = new BufferedInputStream(process.getInputStream());
+        output = process.getOutputStream();
+
+        // The worker says R once its imports are done, anything else is an error message
+        String ready;
+        try
+        {
+            ready = readLine();
+        }
+        catch (IOException ex)
+        {
+            process.destroy();
+            throw ex;
+        }
+        if (!"R".equals(ready))
+        {
+            // A worker that got past its imports waits on stdin for a command and stdout never ends. Close stdin
+            // and give it a moment to exit, then kill it, before reading the rest of what it said.
+            stop();
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            try
+            {
+                while (rest.size() < MAX_ERROR && (count = input.read(buffer)) != -1)
+                {
+                    rest.write(buffer, 0, count);
+                }
+            }
+            catch (IOException ex)
+            {
+                // closed with the process, what was read is enough
+            }
+            throw new IOException("esptool worker failed to start: " + ready + " "
+                    + new String(rest.toByteArray(), StandardCharsets.UTF_8).trim());
+        }
+    } // EsptoolWorker
+
+    // Close stdin and wait for the worker to exit, killing it if it doesn't
+    private void stop()
+    {
+        try
+        {
+            output.close();
+            if (process.waitFor(STOP_MS, TimeUnit.MILLISECONDS))
+            {
+                return;
+            }
+        }
+        catch (IOException ex)
+        {
+            // already gone
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        process.destroy();
+    } // stop
+
+    /**
+     * An idle worker for the current python, or a newly started one. Null if no worker can be started, the caller then
+     * runs esptool as a one-off process.
+     */
+    public static EsptoolWorker acquire()
+    {
+        String python = ESPSFlashTool.paths.getPython();
+        synchronized (idle)
+        {
+            while (!idle.isEmpty())
+            {
+                EsptoolWorker worker = idle.pollFirst();
+                if (worker.isUsable() && worker.python.equals(python))
+                {
+                    return worker;
+                }
+                worker.close();
+            }
+        }
+
+        try
+        {
+            long start = System.nanoTime();
+            EsptoolWorker worker = new EsptoolWorker(python);
+            System.out.println("esptool worker started in " + (System.nanoTime() - start) / 1000000 + "ms");
+            return worker;
+        }
+        catch (IOException ex)
+        {
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    } // acquire
+
+    // Hand a worker back once its command output has been read to the end
+    public static void release(EsptoolWorker worker)
+    {
+        synchronized (idle)
+        {
+            if (worker.isUsable() && idle.size() < MAX_IDLE)
+            {
+                idle.addLast(worker);
+                return;
+            }
+        }
+        worker.close();
+    } // release
+
+    // Start one worker in the background so the first job already finds it warm
+    public static void prewarm()
+    {
+        if (!ENABLED)
+        {
+            return;
+        }
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                EsptoolWorker worker = acquire();
+                if (worker != null)
+                {
+                    release(worker);
+                }
+            }
+        });
+    } // prewarm
+
+    // Stop the idle workers, e.g. because esptool changed on disk. Busy ones are dropped when released.
+    public static void retireAll()
+    {
+        List<EsptoolWorker> retired;
+        synchronized (idle)
+        {
+            retired = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (EsptoolWorker worker : retired)
+        {
+            worker.close();
+        }
+    } // retireAll
+
+    /**
+     * Run one esptool command line (everything after "upload.py"). The returned stream carries the command's output and
+     * ends when the command does, getExitStatus() is valid after that.
+     */
+    public InputStream run(List<String> args) throws IOException
+    {
+        Map<String, List<String>> request = Collections.singletonMap("args", args);
+        exitStatus = -1;
+        output.write((new Gson().toJson(request) + "\n").getBytes(StandardCharsets.UTF_8));
+        output.flush();
+        return new CommandOutput();
+    } // run
+
+    public int getExitStatus()
+    {
+        return exitStatus;
+    }
+
+    // For cancelling, destroying it ends the running command
+    public Process getProcess()
+    {
+        return process;
+    }
+
+    private boolean isUsable()
+    {
+        return !broken && process.isAlive();
+    }
+
+    private void close()
+    {
+        try
+        {
+            output.close();
+        }
+        catch (IOException ex)
+        {
+            // already gone
+        }
+        process.destroy();
+    } // close
+
+    // One line of ASCII, null at end of stream
+    private String readLine() throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != -1)
+        {
+            if (c == '\n')
+            {
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return (line.length() == 0) ? null : line.toString();
+    } // readLine
+
+    // Unwraps the O frames of one command, end of stream at its X frame
+    private class CommandOutput extends InputStream
+    {
+
+        private int remaining = 0;
+        private boolean done = false;
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            while (remaining == 0)
+            {
+                if (done)
+                {
+                    return -1;
+                }
+                String header = readLine();
+                if (header == null)
+                {
+                    // Worker died or was killed mid command
+                    broken = true;
+                    done = true;
+                }
+                else if (header.startsWith("O "))
+                {
+                    remaining = Integer.parseInt(header.substring(2).trim());
+                }
+                else if (header.startsWith("X "))
+                {
+                    exitStatus = Integer.parseInt(header.substring(2).trim());
+                    done = true;
+                }
+                else
+                {
+                    broken = true;
+                    throw new IOException("Unexpected esptool worker output: " + header);
+                }
+            }
+
+            int count = input.read(buffer, offset, Math.min(length, remaining));
+            if (count == -1)
+            {
+                broken = true;
+                done = true;
+                return -1;
+            }
+            remaining -= count;
+            return count;
+        } // read
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xff);
+        }
+
+        @Override
+        public void close()
+        {
+            // Leaves the worker's pipe open. Closing before the end leaves the worker out of step, so it is not reused.
+            if (!done)
+            {
+                broken = true;
+            }
+        }
+    } // CommandOutput
+} // class EsptoolWorker
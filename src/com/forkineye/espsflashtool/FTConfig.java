@@ -16,9 +16,15 @@
 package com.forkineye.espsflashtool;
 
 import com.google.gson.Gson;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import javax.swing.JOptionPane;
 import static javax.swing.JOptionPane.showMessageDialog;
 
@@ -35,65 +41,213 @@ class FTConfig
         public ArrayList<Board> boards;
     }
 
-    FTConfigData configData;
+    private static final String DEFAULT_BAUDRATE = "115200";
+
+    // Set once firmware.json or a release is loaded, which may still be going on in the background
+    volatile FTConfigData configData;
+    private volatile String releaseId = "";                 // catalog release in use, empty for firmware/
+    private volatile Map<String, Board> boardIndex = new HashMap<>();
+    private FirmwareCatalog catalog = null;
 
     /**
-     * Read the FlashTool configuration file
+     * Read the FlashTool configuration file, or the catalog release named by -Despsflashtool.release. False when there
+     * is no usable configuration, the tool is then on its way out.
      */
-    public void init()
+    public boolean init()
+    {
+        String id = System.getProperty("espsflashtool.release", "");
+        if (!id.isEmpty())
+        {
+            if (select(id))
+            {
+                return true;
+            }
+            System.err.println("Release " + id + " is not in the catalog, using firmware.json");
+        }
+        return loadFirmwareDirectory();
+    } // init
+
+    /**
+     * Read firmware.json from the firmware directory, the release the tool ships with. Runs in the background, false
+     * when it is missing or lists no boards.
+     */
+    public boolean loadFirmwareDirectory()
     {
         // Read FT Config and set default device
-        try
+        FTConfigData data;
+        String path = ESPSFlashTool.paths.getFwPath() + "firmware.json";
+        // System.out.println("     FW Path: " + path);
+        try ( Reader reader = new FileReader(path))
         {
-            Gson gson = new Gson();
-            String path = ESPSFlashTool.paths.getFwPath() + "firmware.json";
-            // System.out.println("     FW Path: " + path);
-            configData = gson.fromJson(
-                    new FileReader(path), FTConfigData.class);
+            data = parse(reader);
         }
         catch (FileNotFoundException ex)
         {
-            showMessageDialog(null, "Unable to find firmware configuration file",
-                    "Failed deserialize", JOptionPane.ERROR_MESSAGE);
-            System.exit(0);
+            exit("Unable to find firmware configuration file", "Failed deserialize");
+            return false;
+        }
+        catch (IOException ex)
+        {
+            exit("Unable to read firmware configuration file\n" + ex.getMessage(), "Failed deserialize");
+            return false;
+        }
+
+        // System.out.println("     release: " + data.release);
+        // System.out.println("     version: " + data.version);
+        // System.out.println("    baudrate: " + data.baudrate);
+        if (data == null || data.boards == null || data.boards.isEmpty())
+        {
+            exit("No boards found in configuration file", "Bad configuration");
+            return false;
         }
+        use(data, "", null);
+        ESPSFlashTool.board = data.boards.get(0);
+        /*
+        for (Board currentBoard : configData.boards)
+        {
+            currentBoard.dump();
+        }
+         */
+        ESPSFlashTool.paths.updatePlatformName();
+        return true;
+    } // loadFirmwareDirectory
 
-        // System.out.println("     release: " + configData.release);
-        // System.out.println("     version: " + configData.version);
-        // System.out.println("    baudrate: " + configData.baudrate);
-        if (configData.boards != null)
+    // Nothing to flash without a configuration: tell the operator on the EDT and quit, on the console without a window
+    private static void exit(final String message, final String title)
+    {
+        if (ESPSFlashTool.flashToolUI == null)
         {
-            ESPSFlashTool.board = configData.boards.get(0);
-            /*
-            for (Board currentBoard : configData.boards)
+            System.err.println(title + ": " + message);
+            System.exit(1);
+        }
+        TaskExecutor.runOnEdt(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                showMessageDialog(null, message, title, JOptionPane.ERROR_MESSAGE);
+                System.exit(0);
+            }
+        });
+    } // exit
+
+    /**
+     * Switch to a release from the catalog, or to a release bundle given by its path. Jobs already running keep the
+     * boards they were started with. False when there is no such release.
+     */
+    public boolean select(String id)
+    {
+        FirmwareCatalog.Release release = getCatalog().get(id);
+        if (release == null && id.endsWith(ReleaseBundle.EXTENSION) && new File(id).isFile())
+        {
+            try
+            {
+                release = ReleaseBundle.open(id).toRelease();
+            }
+            catch (IOException ex)
             {
-                currentBoard.dump();
+                System.err.println("Unable to open " + id + ": " + ex.getMessage());
             }
-             */
         }
-        else
+        if (release == null)
         {
-            showMessageDialog(null, "No boards found in configuration file",
-                    "Bad configuration", JOptionPane.ERROR_MESSAGE);
-            System.exit(0);
+            return false;
         }
+
+        // Boards are copied out of the release, the catalog's own stay untouched
+        FTConfigData data = parse(new StringReader(new Gson().toJson(release)));
+        Map<String, String> files = new HashMap<>();
+        for (String name : release.files.keySet())
+        {
+            files.put(name, getCatalog().path(release, name));
+        }
+        use(data, release.id, files);
+        for (Board board : configData.boards)
+        {
+            board.bundle = release.bundle;
+        }
+        ESPSFlashTool.board = configData.boards.get(0);
         ESPSFlashTool.paths.updatePlatformName();
+        System.out.println("     release: " + release);
+        return true;
+    } // select
 
-    } // init
+    // Make a parsed manifest the current one and index its boards
+    private synchronized void use(FTConfigData data, String id, Map<String, String> files)
+    {
+        // The previous release's images aren't read by new jobs, running ones keep their views
+        if (configData != null && configData != data)
+        {
+            ImageCache.clear();
+        }
+        Map<String, Board> index = new HashMap<>();
+        if (data != null && data.boards != null)
+        {
+            for (Board board : data.boards)
+            {
+                board.release = (data.release == null) ? "" : data.release;
+                board.version = (data.version == null) ? "" : data.version;
+                board.files = files;
+                index.put(board.name, board);
+            }
+        }
+        configData = data;
+        releaseId = id;
+        boardIndex = index;
+    } // use
+
+    // Releases side by side in catalog/, opened on first use
+    public synchronized FirmwareCatalog getCatalog()
+    {
+        if (catalog == null)
+        {
+            catalog = new FirmwareCatalog(ESPSFlashTool.paths.getCatalogPath());
+        }
+        return catalog;
+    }
+
+    // The catalog release in use, empty when firmware.json in firmware/ is
+    public String getReleaseId()
+    {
+        return releaseId;
+    }
 
+    // Board by its firmware.json name, null when the current release doesn't have it
+    public Board getBoard(String name)
+    {
+        return boardIndex.get(name);
+    }
+
+    // Deserialize a firmware.json manifest
+    public FTConfigData parse(Reader reader)
+    {
+        Gson gson = new Gson();
+        return gson.fromJson(reader, FTConfigData.class);
+    }
+
+    // Empty until firmware.json has been read
     public String getRelease()
     {
-        return configData.release;
+        return (configData == null || configData.release == null) ? "" : configData.release;
+    }
+
+    public String getVersion()
+    {
+        return (configData == null || configData.version == null) ? "" : configData.version;
     }
 
+    // The monitor baud rate, the ROM loader's default until firmware.json has been read
     public String getBaudrate()
     {
-        return configData.baudrate;
+        FTConfigData data = configData;
+        return (data == null || data.baudrate == null) ? DEFAULT_BAUDRATE : data.baudrate;
     }
 
+    // Empty until firmware.json has been read
     public ArrayList<Board> getBoards()
     {
-        return configData.boards;
+        FTConfigData data = configData;
+        return (data == null || data.boards == null) ? new ArrayList<Board>() : data.boards;
     }
 
 } // class FTConfig
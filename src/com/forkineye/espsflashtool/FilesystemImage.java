@@ -0,0 +1,343 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of what a filesystem image was built from, so it is only rebuilt when the fs directory or the
+ * mkfilesystem command line actually changed. The manifest next to the image (filesystem.bin.manifest.json) records
+ * every source file with its size, modification time and hash, and a hash per flash block of the image. After a
+ * rebuild the new block hashes are compared with the old ones, giving the flash ranges that really changed.
+ *
+ * Files whose size and modification time match the manifest are not read again, a check costs one directory walk.
+ */
+class FilesystemImage
+{
+
+    // -Despsflashtool.fs.incremental=false always runs mkfilesystem
+    static final boolean INCREMENTAL = !"false".equals(System.getProperty("espsflashtool.fs.incremental"));
+    private static final String MANIFEST = ".manifest.json";
+
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    private static class SourceFile
+    {
+
+        long size;
+        long modified;
+        String sha256;
+
+        // Same content, a touched but unchanged file doesn't need a rebuild
+        @Override
+        public boolean equals(Object other)
+        {
+            return (other instanceof SourceFile) && size == ((SourceFile) other).size
+                    && sha256.equals(((SourceFile) other).sha256);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return sha256.hashCode();
+        }
+    } // SourceFile
+
+    private static class Manifest
+    {
+
+        String command = "";
+        long toolStamp;
+        long imageStamp;
+        int blockSize;
+        Map<String, SourceFile> files = new TreeMap<>();
+        List<String> blocks = new ArrayList<>();
+    }
+
+    // What a rebuild changed
+    public static class Delta
+    {
+
+        List<String> changedFiles = new ArrayList<>();
+        int blocks;
+        int blockSize;
+        List<long[]> changedRanges = new ArrayList<>();    // {offset in the image, length}
+
+        public long getChangedBytes()
+        {
+            long bytes = 0;
+            for (long[] range : changedRanges)
+            {
+                bytes += range[1];
+            }
+            return bytes;
+        }
+
+        // Flash ranges relative to the filesystem offset
+        public String describe(long baseOffset)
+        {
+            StringBuilder text = new StringBuilder();
+            int changedBlocks = (int) (getChangedBytes() / blockSize);
+            text.append(changedBlocks).append(" of ").append(blocks).append(" flash block(s) changed");
+            for (long[] range : changedRanges)
+            {
+                text.append(String.format("%n  0x%06x - 0x%06x", baseOffset + range[0],
+                        baseOffset + range[0] + range[1] - 1));
+            }
+            if (!changedFiles.isEmpty())
+            {
+                text.append(String.format("%n  from ")).append(String.join(", ", changedFiles));
+            }
+            return text.toString();
+        }
+    } // Delta
+
+    private final File sourceDir;
+    private final File image;
+    private final File manifestFile;
+    private final String command;
+    private final String tool;
+    private final int blockSize;
+
+    private Manifest previous;
+    private Manifest current;
+
+    public FilesystemImage(String sourceDir, String image, List<String> command, int blockSize)
+    {
+        this.sourceDir = new File(sourceDir);
+        this.image = new File(image);
+        this.manifestFile = new File(image + MANIFEST);
+        this.command = String.join(" ", command);
+        this.tool = command.get(0);
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    // One lock per image, jobs building the same image take turns
+    public static Object lock(String image)
+    {
+        String key = new File(image).getAbsolutePath();
+        Object lock = locks.get(key);
+        if (lock == null)
+        {
+            locks.putIfAbsent(key, new Object());
+            lock = locks.get(key);
+        }
+        return lock;
+    }
+
+    /**
+     * True when the image on disk was built from exactly the current fs directory with the same command, so mkfilesystem
+     * can be skipped.
+     */
+    public boolean isUpToDate() throws IOException
+    {
+        previous = readManifest();
+        current = new Manifest();
+        current.command = command;
+        current.toolStamp = stamp(new File(tool));
+        current.blockSize = blockSize;
+        scan(sourceDir, "", current.files, (previous == null) ? null : previous.files);
+
+        return INCREMENTAL
+                && previous != null
+                && image.isFile()
+                && previous.imageStamp == stamp(image)
+                && previous.command.equals(current.command)
+                && previous.toolStamp == current.toolStamp
+                && previous.files.equals(current.files);
+    } // isUpToDate
+
+    /**
+     * Record the image mkfilesystem just built and work out what changed since the previous one. isUpToDate() must have
+     * been called before the build.
+     */
+    public Delta update() throws IOException
+    {
+        ByteBuffer data = ImageCache.load(image.getPath());
+        current.imageStamp = stamp(image);
+        current.blocks = hashBlocks(data);
+
+        Delta delta = new Delta();
+        delta.blocks = current.blocks.size();
+        delta.blockSize = blockSize;
+        for (Map.Entry<String, SourceFile> entry : current.files.entrySet())
+        {
+            SourceFile before = (previous == null) ? null : previous.files.get(entry.getKey());
+            if (before == null || !before.sha256.equals(entry.getValue().sha256))
+            {
+                delta.changedFiles.add(entry.getKey());
+            }
+        }
+        if (previous != null)
+        {
+            for (String name : previous.files.keySet())
+            {
+                if (!current.files.containsKey(name))
+                {
+                    delta.changedFiles.add(name + " (removed)");
+                }
+            }
+        }
+
+        boolean comparable = previous != null && previous.blockSize == blockSize;
+        long[] range = null;
+        for (int block = 0; block < current.blocks.size(); block++)
+        {
+            boolean changed = !comparable || block >= previous.blocks.size()
+                    || !previous.blocks.get(block).equals(current.blocks.get(block));
+            long offset = (long) block * blockSize;
+            long length = Math.min(blockSize, data.remaining() - offset);
+            if (!changed)
+            {
+                range = null;
+            }
+            else if (range != null)
+            {
+                range[1] += length;
+            }
+            else
+            {
+                range = new long[]
+                {
+                    offset, length
+                };
+                delta.changedRanges.add(range);
+            }
+        }
+
+        writeManifest(current);
+        return delta;
+    } // update
+
+    // Forget the recorded state, e.g. after a failed build left the image in an unknown state
+    public void discard()
+    {
+        manifestFile.delete();
+    }
+
+    private void scan(File dir, String prefix, Map<String, SourceFile> files, Map<String, SourceFile> known)
+            throws IOException
+    {
+        File[] entries = dir.listFiles();
+        if (entries == null)
+        {
+            return;
+        }
+        for (File entry : entries)
+        {
+            String name = prefix + entry.getName();
+            if (entry.isDirectory())
+            {
+                scan(entry, name + "/", files, known);
+                continue;
+            }
+
+            SourceFile file = new SourceFile();
+            file.size = entry.length();
+            file.modified = entry.lastModified();
+            SourceFile before = (known == null) ? null : known.get(name);
+            if (before != null && before.size == file.size && before.modified == file.modified)
+            {
+                file.sha256 = before.sha256;
+            }
+            else
+            {
+                file.sha256 = hashFile(entry);
+            }
+            files.put(name, file);
+        }
+    } // scan
+
+    private List<String> hashBlocks(ByteBuffer data)
+    {
+        List<String> blocks = new ArrayList<>();
+        MessageDigest digest = ImageCache.sha256();
+        byte[] block = new byte[blockSize];
+        ByteBuffer view = data.duplicate();
+        while (view.hasRemaining())
+        {
+            int count = Math.min(blockSize, view.remaining());
+            view.get(block, 0, count);
+            digest.update(block, 0, count);
+            blocks.add(ImageCache.hex(digest.digest()));
+        }
+        return blocks;
+    } // hashBlocks
+
+    private static String hashFile(File file) throws IOException
+    {
+        MessageDigest digest = ImageCache.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try ( InputStream in = new FileInputStream(file))
+        {
+            int count;
+            while ((count = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return ImageCache.hex(digest.digest());
+    }
+
+    private Manifest readManifest()
+    {
+        if (!manifestFile.isFile())
+        {
+            return null;
+        }
+        try ( Reader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8))
+        {
+            Manifest manifest = new Gson().fromJson(reader, Manifest.class);
+            return (manifest == null || manifest.files == null || manifest.blocks == null) ? null : manifest;
+        }
+        catch (IOException | JsonParseException ex)
+        {
+            System.err.println("Ignoring unreadable " + manifestFile + ": " + ex.getMessage());
+            return null;
+        }
+    } // readManifest
+
+    private void writeManifest(Manifest manifest) throws IOException
+    {
+        try ( Writer writer = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8))
+        {
+            new GsonBuilder().setPrettyPrinting().create().toJson(manifest, writer);
+        }
+    }
+
+    // Size and modification time folded together, 0 when the file is missing
+    private static long stamp(File file)
+    {
+        return file.isFile() ? file.lastModified() * 31 + file.length() : 0;
+    }
+} // class FilesystemImage
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Many firmware releases side by side. Every release imported from a firmware directory keeps its firmware.json in
+ * catalog/releases/&lt;id&gt;.json, with the SHA-256 of each bin file it names. The bin files themselves are stored once
+ * per content in catalog/objects/&lt;sha256&gt;.bin, so a bootloader or partition table shared by ten releases takes the
+ * disk space of one, and is mapped into memory once when releases are switched back and forth.
+ *
+ * Releases are never changed after import, an object is only deleted once no release names it. Release bundles copied
+ * into catalog/ are listed as releases too, opened in place.
+ */
+class FirmwareCatalog
+{
+
+    private static final String RELEASES = "releases/";
+    private static final String OBJECTS = "objects/";
+    private static final String MANIFEST = "firmware.json";
+
+    public static class Release
+    {
+
+        String id = "";
+        String release = "";
+        String version = "";
+        String baudrate = "";
+        long imported;                                      // epoch ms
+        String source = "";                                 // directory it was imported from
+        List<Board> boards = new ArrayList<>();
+        Map<String, String> files = new TreeMap<>();        // bin file name as firmware.json has it -> SHA-256
+        transient ReleaseBundle bundle = null;              // set for a release read from a bundle file
+
+        @Override
+        public String toString()
+        {
+            return id + ": " + release + (version.isEmpty() ? "" : " " + version) + ", " + boards.size()
+                    + " board(s), " + files.size() + " file(s)" + ((bundle == null) ? "" : " (bundle)");
+        }
+    } // Release
+
+    // What an import stored
+    public static class ImportResult
+    {
+
+        Release release;
+        int storedFiles;        // new content, copied into the catalog
+        int sharedFiles;        // content some release already had
+        long storedBytes;
+        long sharedBytes;
+
+        @Override
+        public String toString()
+        {
+            return "Imported " + release + ": " + storedFiles + " new file(s), " + storedBytes / 1024 + "KB stored, "
+                    + sharedFiles + " file(s) already in the catalog, " + sharedBytes / 1024 + "KB saved";
+        }
+    } // ImportResult
+
+    private final File dir;
+    private final Map<String, Release> releases = new TreeMap<>();
+    private boolean loaded = false;
+
+    public FirmwareCatalog(String dir)
+    {
+        this.dir = new File(dir);
+    }
+
+    /**
+     * Every release in the catalog by id. The manifests are read on first use, they are a few KB each.
+     */
+    public synchronized Map<String, Release> getReleases()
+    {
+        if (!loaded)
+        {
+            loaded = true;
+            File[] manifests = new File(dir, RELEASES).listFiles();
+            if (manifests != null)
+            {
+                for (File manifest : manifests)
+                {
+                    if (manifest.getName().endsWith(".json"))
+                    {
+                        Release release = readRelease(manifest);
+                        if (release != null)
+                        {
+                            releases.put(release.id, release);
+                        }
+                    }
+                }
+            }
+            File[] bundles = dir.listFiles();
+            if (bundles != null)
+            {
+                for (File bundle : bundles)
+                {
+                    if (bundle.getName().endsWith(ReleaseBundle.EXTENSION) && bundle.isFile())
+                    {
+                        try
+                        {
+                            Release release = ReleaseBundle.open(bundle.getPath()).toRelease();
+                            releases.put(release.id, release);
+                        }
+                        catch (IOException ex)
+                        {
+                            System.err.println("Catalog: ignoring " + bundle + ": " + ex.getMessage());
+                        }
+                    }
+                }
+            }
+        }
+        return new TreeMap<>(releases);
+    } // getReleases
+
+    public Release get(String id)
+    {
+        return getReleases().get(id);
+    }
+
+    /**
+     * Copy a firmware directory (firmware.json plus the bin files it names) into the catalog. Files whose content is
+     * already stored are not copied again. Importing a release id that exists replaces its manifest.
+     */
+    public synchronized ImportResult importRelease(String fwDir) throws IOException
+    {
+        File source = new File(fwDir);
+        FTConfig.FTConfigData config;
+        try ( Reader reader = Files.newBufferedReader(new File(source, MANIFEST).toPath(), StandardCharsets.UTF_8))
+        {
+            config = new FTConfig().parse(reader);
+        }
+        catch (JsonParseException ex)
+        {
+            throw new IOException("bad " + MANIFEST + " in " + fwDir + ": " + ex.getMessage());
+        }
+        if (config == null || config.boards == null || config.boards.isEmpty())
+        {
+            throw new IOException("no boards in " + MANIFEST + " in " + fwDir);
+        }
+
+        getReleases();
+        ImportResult result = new ImportResult();
+        Release release = new Release();
+        release.release = (config.release == null) ? "" : config.release;
+        release.version = (config.version == null) ? "" : config.version;
+        release.baudrate = config.baudrate;
+        release.id = id(release.release, release.version);
+        release.imported = System.currentTimeMillis();
+        release.source = source.getAbsolutePath();
+        release.boards = config.boards;
+
+        new File(dir, OBJECTS).mkdirs();
+        for (Board board : config.boards)
+        {
+            List<String> names = new ArrayList<>();
+            for (Board.Binfile binfile : board.binfiles)
+            {
+                names.add(binfile.name);
+            }
+            names.add(board.appbin);
+            if (board.elf != null && !board.elf.isEmpty() || new File(source, board.getElfName()).isFile())
+            {
+                names.add(board.getElfName());
+            }
+            for (String name : names)
+            {
+                if (name == null || name.isEmpty() || release.files.containsKey(name))
+                {
+                    continue;
+                }
+                File file = new File(source, name);
+                if (!file.isFile())
+                {
+                    throw new IOException(name + " named by " + board.name + " is missing from " + fwDir);
+                }
+                String sha256 = store(file, result);
+                release.files.put(name, sha256);
+            }
+        }
+
+        writeRelease(release);
+        releases.put(release.id, release);
+        result.release = release;
+        return result;
+    } // importRelease
+
+    /**
+     * Drop a release, and the stored files only it used. A bundle's file is deleted.
+     */
+    public synchronized boolean remove(String id) throws IOException
+    {
+        Release release = getReleases().get(id);
+        if (release == null)
+        {
+            return false;
+        }
+        Files.delete((release.bundle != null) ? new File(release.bundle.getPath()).toPath()
+                : manifestFile(id).toPath());
+        releases.remove(id);
+
+        Set<String> used = new HashSet<>();
+        for (Release other : releases.values())
+        {
+            used.addAll(other.files.values());
+        }
+        for (String sha256 : release.files.values())
+        {
+            if (!used.contains(sha256))
+            {
+                ImageCache.evict(objectFile(sha256).getPath());
+                objectFile(sha256).delete();
+            }
+        }
+        return true;
+    } // remove
+
+    /**
+     * Put content into the object store under its hash unless it is already there. Returns the object's path.
+     */
+    public synchronized String store(ByteBuffer data, String sha256) throws IOException
+    {
+        File object = objectFile(sha256);
+        if (object.isFile() && object.length() == data.remaining())
+        {
+            return object.getPath();
+        }
+        object.getParentFile().mkdirs();
+        File temp = new File(object.getPath() + ".tmp");
+        try ( FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            ByteBuffer view = data.duplicate();
+            while (view.hasRemaining())
+            {
+                out.write(view);
+            }
+        }
+        Files.move(temp.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return object.getPath();
+    } // store
+
+    /**
+     * Where a release keeps a bin file firmware.json names, null when the release doesn't have it.
+     */
+    public String path(Release release, String name)
+    {
+        String sha256 = release.files.get(name);
+        return (sha256 == null) ? null : objectFile(sha256).getPath();
+    }
+
+    /**
+     * What differs between two releases, board by board, from the recorded hashes alone.
+     */
+    public List<String> compare(Release from, Release to)
+    {
+        List<String> lines = new ArrayList<>();
+        Map<String, Board> fromBoards = boards(from);
+        Map<String, Board> toBoards = boards(to);
+        for (String name : toBoards.keySet())
+        {
+            Board before = fromBoards.get(name);
+            if (before == null)
+            {
+                lines.add(name + ": added");
+                continue;
+            }
+            Board after = toBoards.get(name);
+            Map<String, String> oldFiles = hashes(from, before);
+            Map<String, String> newFiles = hashes(to, after);
+            List<String> changes = new ArrayList<>();
+            for (Map.Entry<String, String> file : newFiles.entrySet())
+            {
+                String old = oldFiles.get(file.getKey());
+                if (old == null)
+                {
+                    changes.add(file.getKey() + " added");
+                }
+                else if (!old.equals(file.getValue()))
+                {
+                    changes.add(file.getKey() + " changed");
+                }
+            }
+            for (String file : oldFiles.keySet())
+            {
+                if (!newFiles.containsKey(file))
+                {
+                    changes.add(file + " removed");
+                }
+            }
+            lines.add(name + ": " + (changes.isEmpty() ? "unchanged" : String.join(", ", changes)));
+        }
+        for (String name : fromBoards.keySet())
+        {
+            if (!toBoards.containsKey(name))
+            {
+                lines.add(name + ": removed");
+            }
+        }
+        return lines;
+    } // compare
+
+    // Bytes the stored objects take, against what the releases would take as separate directories
+    public synchronized long[] diskUsage()
+    {
+        long stored = 0;
+        long expanded = 0;
+        Set<String> counted = new HashSet<>();
+        for (Release release : getReleases().values())
+        {
+            if (release.bundle != null)
+            {
+                // Already one file, its entries are only copied out once flashed
+                continue;
+            }
+            for (String sha256 : release.files.values())
+            {
+                long length = objectFile(sha256).length();
+                expanded += length;
+                if (counted.add(sha256))
+                {
+                    stored += length;
+                }
+            }
+        }
+        return new long[]
+        {
+            stored, expanded
+        };
+    } // diskUsage
+
+    // A file name safe id for a release, e.g. "4.0-beta 2" -> 4.0-beta_2
+    static String id(String release, String version)
+    {
+        String id = (release + (version.isEmpty() ? "" : " " + version)).trim();
+        id = id.replaceAll("[^A-Za-z0-9_.-]+", "_");
+        return id.isEmpty() ? "unnamed" : id;
+    }
+
+    // Board name -> board, keeping firmware.json order
+    private static Map<String, Board> boards(Release release)
+    {
+        Map<String, Board> boards = new LinkedHashMap<>();
+        for (Board board : release.boards)
+        {
+            boards.put(board.name, board);
+        }
+        return boards;
+    }
+
+    // Offset:name -> SHA-256 of everything a board writes
+    private static Map<String, String> hashes(Release release, Board board)
+    {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        for (Board.Binfile binfile : board.binfiles)
+        {
+            hashes.put(binfile.offset + " " + binfile.name, release.files.get(binfile.name));
+        }
+        return hashes;
+    }
+
+    // Copy a file in under its hash unless that content is already stored
+    private String store(File file, ImportResult result) throws IOException
+    {
+        String sha256 = hashFile(file);
+        File object = objectFile(sha256);
+        if (object.isFile() && object.length() == file.length())
+        {
+            result.sharedFiles++;
+            result.sharedBytes += file.length();
+            return sha256;
+        }
+
+        // Copied under a temporary name first, a half written object must never be found under its hash
+        File temp = new File(object.getPath() + ".tmp");
+        Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (!sha256.equals(hashFile(temp)))
+        {
+            temp.delete();
+            throw new IOException(file + " changed while being imported");
+        }
+        Files.move(temp.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        result.storedFiles++;
+        result.storedBytes += file.length();
+        return sha256;
+    } // store
+
+    private static String hashFile(File file) throws IOException
+    {
+        MessageDigest digest = ImageCache.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try ( InputStream in = new FileInputStream(file))
+        {
+            int count;
+            while ((count = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return ImageCache.hex(digest.digest());
+    }
+
+    private File objectFile(String sha256)
+    {
+        return new File(new File(dir, OBJECTS), sha256 + ".bin");
+    }
+
+    private File manifestFile(String id)
+    {
+        return new File(new File(dir, RELEASES), id + ".json");
+    }
+
+    private Release readRelease(File manifest)
+    {
+        try ( Reader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8))
+        {
+            Release release = new Gson().fromJson(reader, Release.class);
+            if (release == null || release.boards == null || release.files == null)
+            {
+                System.err.println("Catalog: ignoring incomplete " + manifest);
+                return null;
+            }
+            return release;
+        }
+        catch (IOException | JsonParseException ex)
+        {
+            System.err.println("Catalog: ignoring unreadable " + manifest + ": " + ex.getMessage());
+            return null;
+        }
+    } // readRelease
+
+    private void writeRelease(Release release) throws IOException
+    {
+        File manifest = manifestFile(release.id);
+        manifest.getParentFile().mkdirs();
+        File temp = new File(manifest.getPath() + ".tmp");
+        try ( OutputStream out = new FileOutputStream(temp);
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8))
+        {
+            new GsonBuilder().setPrettyPrinting().create().toJson(release, writer);
+        }
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } // writeRelease
+} // class FirmwareCatalog
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-process registry of per phase flash timings, exportable as CSV, JSON or Prometheus text
+class FlashMetrics
+{
+
+    public enum Phase
+    {
+        BUILD,
+        ERASE,
+        VERIFY,
+        UPLOAD,
+        DOWNLOAD,
+        UNPACK,
+        EFU,
+        OTA
+    }
+
+    // One timed phase of one job
+    public static class Record
+    {
+
+        long job;
+        String port;
+        String board;
+        Phase phase;
+        long startedAt;     // epoch ms
+        long wallMs;
+        long bytes;
+        int status;
+
+        public double getThroughput()
+        {
+            return (wallMs == 0) ? 0 : (bytes * 1000.0) / wallMs;
+        }
+    } // Record
+
+    // Running totals per port and phase
+    private static class Aggregate
+    {
+
+        long count;
+        long failures;
+        long totalMs;
+        long maxMs;
+        long bytes;
+    } // Aggregate
+
+    private static final int MAX_RECORDS = 10000;
+    private static final AtomicLong nextJob = new AtomicLong(1);
+
+    private final Deque<Record> records = new ArrayDeque<>();
+    private final Map<String, Aggregate> aggregates = new TreeMap<>();
+    private final Map<String, Long> serialEvents = new TreeMap<>();     // port \t event type -> count
+    private HttpServer server = null;
+
+    // Ids for the jobs whose phases are recorded, unique across flash tasks and fleet devices
+    public static long nextJobId()
+    {
+        return nextJob.getAndIncrement();
+    }
+
+    public synchronized void record(long job, String port, String board, Phase phase,
+            long startedAt, long wallMs, long bytes, int status)
+    {
+        Record record = new Record();
+        record.job = job;
+        record.port = port;
+        record.board = board;
+        record.phase = phase;
+        record.startedAt = startedAt;
+        record.wallMs = wallMs;
+        record.bytes = bytes;
+        record.status = status;
+
+        records.addLast(record);
+        if (records.size() > MAX_RECORDS)
+        {
+            records.removeFirst();
+        }
+
+        String key = port + "\t" + phase;
+        Aggregate aggregate = aggregates.get(key);
+        if (aggregate == null)
+        {
+            aggregate = new Aggregate();
+            aggregates.put(key, aggregate);
+        }
+        aggregate.count++;
+        aggregate.totalMs += wallMs;
+        aggregate.maxMs = Math.max(aggregate.maxMs, wallMs);
+        aggregate.bytes += bytes;
+        if (status != 0)
+        {
+            aggregate.failures++;
+        }
+    } // record
+
+    // Count a device state change seen on a serial monitor
+    public synchronized void countSerialEvent(String port, SerialEventMatcher.Type type)
+    {
+        String key = port + "\t" + type;
+        Long count = serialEvents.get(key);
+        serialEvents.put(key, (count == null) ? 1 : count + 1);
+    }
+
+    public synchronized List<Record> getRecords()
+    {
+        return new ArrayList<>(records);
+    }
+
+    // The phase records, then after a blank line the scheduler's counters as metric,port,value
+    public synchronized void exportCsv(Writer out) throws IOException
+    {
+        out.write("job,port,board,phase,started_at,wall_ms,bytes,bytes_per_sec,status\n");
+        for (Record record : records)
+        {
+            out.write(record.job + "," + csv(record.port) + "," + csv(record.board) + "," + record.phase
+                    + "," + record.startedAt + "," + record.wallMs + "," + record.bytes
+                    + "," + String.format("%.1f", record.getThroughput()) + "," + record.status + "\n");
+        }
+
+        FlashScheduler.Stats jobs = ESPSFlashTool.scheduler.getStats();
+        out.write("\nmetric,port,value\n");
+        for (Map.Entry<String, Integer> entry : jobs.queued.entrySet())
+        {
+            out.write("queued," + csv(entry.getKey()) + "," + entry.getValue() + "\n");
+        }
+        out.write("running,," + jobs.running + "\n");
+        out.write("max_concurrent,," + jobs.maxConcurrent + "\n");
+        out.write("started,," + jobs.started + "\n");
+        out.write("succeeded,," + jobs.succeeded + "\n");
+        out.write("failed,," + jobs.failed + "\n");
+        out.write("average_wait_ms,," + jobs.averageWaitMs + "\n");
+        out.write("max_wait_ms,," + jobs.maxWaitMs + "\n");
+        out.write("oldest_queued_ms,," + jobs.oldestQueuedMs + "\n");
+    } // exportCsv
+
+    // {"phases": [records], "scheduler": {queue depth, running, wait times}}
+    public synchronized void exportJson(Writer out)
+    {
+        Map<String, Object> export = new LinkedHashMap<>();
+        export.put("phases", records);
+        export.put("scheduler", ESPSFlashTool.scheduler.getStats());
+        new GsonBuilder().setPrettyPrinting().create().toJson(export, out);
+    } // exportJson
+
+    public synchronized void exportPrometheus(Writer out) throws IOException
+    {
+        out.write("# HELP espsflashtool_phase_duration_seconds Wall time spent in a flash phase.\n");
+        out.write("# TYPE espsflashtool_phase_duration_seconds summary\n");
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet())
+        {
+            String labels = labels(entry.getKey());
+            out.write("espsflashtool_phase_duration_seconds_sum" + labels + " " + (entry.getValue().totalMs / 1000.0) + "\n");
+            out.write("espsflashtool_phase_duration_seconds_count" + labels + " " + entry.getValue().count + "\n");
+        }
+
+        out.write("# HELP espsflashtool_phase_duration_max_seconds Longest single run of a flash phase.\n");
+        out.write("# TYPE espsflashtool_phase_duration_max_seconds gauge\n");
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet())
+        {
+            out.write("espsflashtool_phase_duration_max_seconds" + labels(entry.getKey()) + " " + (entry.getValue().maxMs / 1000.0) + "\n");
+        }
+
+        out.write("# HELP espsflashtool_phase_bytes_total Bytes processed by a flash phase.\n");
+        out.write("# TYPE espsflashtool_phase_bytes_total counter\n");
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet())
+        {
+            out.write("espsflashtool_phase_bytes_total" + labels(entry.getKey()) + " " + entry.getValue().bytes + "\n");
+        }
+
+        out.write("# HELP espsflashtool_phase_failures_total Failed runs of a flash phase.\n");
+        out.write("# TYPE espsflashtool_phase_failures_total counter\n");
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet())
+        {
+            out.write("espsflashtool_phase_failures_total" + labels(entry.getKey()) + " " + entry.getValue().failures + "\n");
+        }
+
+        out.write("# HELP espsflashtool_serial_events_total Device state changes seen on a serial monitor.\n");
+        out.write("# TYPE espsflashtool_serial_events_total counter\n");
+        for (Map.Entry<String, Long> entry : serialEvents.entrySet())
+        {
+            String[] parts = entry.getKey().split("\t");
+            out.write("espsflashtool_serial_events_total{port=\"" + escape(parts[0]) + "\",event=\""
+                    + parts[1].toLowerCase() + "\"} " + entry.getValue() + "\n");
+        }
+
+        FlashScheduler.Stats jobs = ESPSFlashTool.scheduler.getStats();
+        out.write("# HELP espsflashtool_jobs_queued Jobs waiting for their port.\n");
+        out.write("# TYPE espsflashtool_jobs_queued gauge\n");
+        for (Map.Entry<String, Integer> entry : jobs.queued.entrySet())
+        {
+            out.write("espsflashtool_jobs_queued{port=\"" + escape(entry.getKey()) + "\"} " + entry.getValue() + "\n");
+        }
+        out.write("# HELP espsflashtool_jobs_running Jobs running now.\n");
+        out.write("# TYPE espsflashtool_jobs_running gauge\n");
+        out.write("espsflashtool_jobs_running " + jobs.running + "\n");
+        out.write("# HELP espsflashtool_jobs_max_concurrent Jobs allowed to run at once.\n");
+        out.write("# TYPE espsflashtool_jobs_max_concurrent gauge\n");
+        out.write("espsflashtool_jobs_max_concurrent " + jobs.maxConcurrent + "\n");
+        out.write("# HELP espsflashtool_jobs_total Finished jobs by result.\n");
+        out.write("# TYPE espsflashtool_jobs_total counter\n");
+        out.write("espsflashtool_jobs_total{result=\"succeeded\"} " + jobs.succeeded + "\n");
+        out.write("espsflashtool_jobs_total{result=\"failed\"} " + jobs.failed + "\n");
+        out.write("# HELP espsflashtool_job_wait_seconds Time jobs spent queued before they started.\n");
+        out.write("# TYPE espsflashtool_job_wait_seconds summary\n");
+        out.write("espsflashtool_job_wait_seconds_sum " + (jobs.totalWaitMs / 1000.0) + "\n");
+        out.write("espsflashtool_job_wait_seconds_count " + jobs.started + "\n");
+        out.write("# HELP espsflashtool_job_wait_max_seconds Longest time a job waited before it started.\n");
+        out.write("# TYPE espsflashtool_job_wait_max_seconds gauge\n");
+        out.write("espsflashtool_job_wait_max_seconds " + (jobs.maxWaitMs / 1000.0) + "\n");
+        out.write("# HELP espsflashtool_job_oldest_queued_seconds How long the job waiting longest has waited.\n");
+        out.write("# TYPE espsflashtool_job_oldest_queued_seconds gauge\n");
+        out.write("espsflashtool_job_oldest_queued_seconds " + (jobs.oldestQueuedMs / 1000.0) + "\n");
+
+        List<SerialMonitor.Stats> monitors = ESPSFlashTool.serialMonitor.getStats();
+        out.write("# HELP espsflashtool_serial_bytes_total Bytes read from a monitored serial port.\n");
+        out.write("# TYPE espsflashtool_serial_bytes_total counter\n");
+        for (SerialMonitor.Stats stats : monitors)
+        {
+            out.write("espsflashtool_serial_bytes_total{port=\"" + escape(stats.port) + "\"} " + stats.bytes + "\n");
+        }
+        out.write("# HELP espsflashtool_serial_dropped_bytes_total Serial bytes dropped, the display fell behind.\n");
+        out.write("# TYPE espsflashtool_serial_dropped_bytes_total counter\n");
+        for (SerialMonitor.Stats stats : monitors)
+        {
+            out.write("espsflashtool_serial_dropped_bytes_total{port=\"" + escape(stats.port) + "\"} " + stats.dropped
+                    + "\n");
+        }
+        out.write("# HELP espsflashtool_serial_bytes_per_second Recent read rate of a monitored serial port.\n");
+        out.write("# TYPE espsflashtool_serial_bytes_per_second gauge\n");
+        for (SerialMonitor.Stats stats : monitors)
+        {
+            out.write("espsflashtool_serial_bytes_per_second{port=\"" + escape(stats.port) + "\"} "
+                    + String.format("%.1f", stats.bytesPerSec) + "\n");
+        }
+    } // exportPrometheus
+
+    /**
+     * Serve the metrics on localhost: /metrics (Prometheus text), /metrics.csv and /metrics.json
+     */
+    public synchronized void startServer(int port) throws IOException
+    {
+        if (server != null)
+        {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                StringWriter body = new StringWriter();
+                String type;
+                String path = exchange.getRequestURI().getPath();
+                if (path.endsWith(".csv"))
+                {
+                    exportCsv(body);
+                    type = "text/csv";
+                }
+                else if (path.endsWith(".json"))
+                {
+                    exportJson(body);
+                    type = "application/json";
+                }
+                else
+                {
+                    exportPrometheus(body);
+                    type = "text/plain; version=0.0.4";
+                }
+
+                byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", type);
+                exchange.sendResponseHeaders(200, bytes.length);
+                try ( OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(bytes);
+                }
+            }
+        });
+        server.setExecutor(null);
+        server.start();
+        System.out.println("     Metrics: http://localhost:" + server.getAddress().getPort() + "/metrics");
+    } // startServer
+
+    public synchronized void stopServer()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static String labels(String key)
+    {
+        String[] parts = key.split("\t");
+        return "{port=\"" + escape(parts[0]) + "\",phase=\"" + parts[1].toLowerCase() + "\"}";
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String csv(String value)
+    {
+        if (value.contains(",") || value.contains("\""))
+        {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+} // class FlashMetrics
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.forkineye.espsflashtool.ImageTask.ImageTaskActionToPerform;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Queues ImageTasks. Jobs on the same port run one at a time, jobs on different ports run side by side up to a limit.
+class FlashScheduler
+{
+
+    public enum Priority
+    {
+        LOW,
+        NORMAL,
+        HIGH
+    }
+
+    public enum JobState
+    {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    // Key for jobs that only touch local files (EFU export, filesystem build)
+    private static final String LOCAL_KEY = "local";
+
+    public class Job implements Comparable<Job>
+    {
+
+        private final long id;
+        private final ImageTaskActionToPerform action;
+        private final ESPSSerialPort port;
+        private final Board board;
+        private final Priority priority;
+        private final int maxRetries;
+        private final String key;
+        private int attempts = 0;
+        private long queuedAt;
+        private long startedAt = 0;
+        private long finishedAt = 0;
+        private volatile JobState state = JobState.QUEUED;
+        private volatile ImageTask task = null;
+        private ConfigSnapshot config = null;   // Device config at submit, the task reads fs/ as it is when null
+        private String efuTarget = null;        // Where a MAKEEFU job writes
+        private List<String> otaTargets = null; // Devices a PUSHEFU job updates
+
+        private Job(long id, ImageTaskActionToPerform action, ESPSSerialPort port, Board board,
+                Priority priority, int maxRetries)
+        {
+            this.id = id;
+            this.action = action;
+            this.port = port;
+            this.board = board;
+            this.priority = priority;
+            this.maxRetries = maxRetries;
+            this.key = (port == null || port.getTransport() == null) ? LOCAL_KEY : port.getPath();
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        public ImageTaskActionToPerform getAction()
+        {
+            return action;
+        }
+
+        public ESPSSerialPort getPort()
+        {
+            return port;
+        }
+
+        public JobState getState()
+        {
+            return state;
+        }
+
+        public int getAttempts()
+        {
+            return attempts;
+        }
+
+        // Time spent waiting in the queue before the current / last attempt started
+        public long getWaitMs()
+        {
+            long end = (startedAt == 0) ? System.currentTimeMillis() : startedAt;
+            return end - queuedAt;
+        }
+
+        public long getRunMs()
+        {
+            if (startedAt == 0)
+            {
+                return 0;
+            }
+            long end = (finishedAt == 0) ? System.currentTimeMillis() : finishedAt;
+            return end - startedAt;
+        }
+
+        public boolean cancel()
+        {
+            return FlashScheduler.this.cancel(this);
+        }
+
+        @Override
+        public int compareTo(Job other)
+        {
+            // Higher priority first, then first come first served
+            int result = other.priority.compareTo(priority);
+            if (result == 0)
+            {
+                result = Long.compare(id, other.id);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Job " + id + " " + action + " on " + key + " [" + state + "]";
+        }
+    } // Job
+
+    // Scheduler counters, as a snapshot
+    public static class Stats
+    {
+
+        Map<String, Integer> queued = new TreeMap<>();  // port -> jobs waiting, local for file only jobs
+        int running;
+        int maxConcurrent;
+        long started;           // attempts started, retries included
+        long succeeded;
+        long failed;
+        long totalWaitMs;       // queue wait of all started attempts
+        long averageWaitMs;
+        long maxWaitMs;
+        long oldestQueuedMs;    // how long the job waiting longest has waited so far
+    } // Stats
+
+    private final int maxConcurrent;
+    private final Map<String, PriorityQueue<Job>> queues = new HashMap<>();
+    private final Set<String> busyKeys = new HashSet<>();
+    private final Set<String> reservedKeys = new HashSet<>(); // ports held by runIfIdle, no job starts on them
+    private long nextId = 1;
+
+    // Metrics
+    private long completedJobs = 0;
+    private long failedJobs = 0;
+    private long totalWaitMs = 0;
+    private long maxWaitMs = 0;
+    private long startedJobs = 0;
+
+    public FlashScheduler(int maxConcurrent)
+    {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+    }
+
+    public Job submit(ImageTaskActionToPerform action, ESPSSerialPort port, Board board)
+    {
+        return submit(action, port, board, Priority.NORMAL, 0);
+    }
+
+    public Job submit(ImageTaskActionToPerform action, ESPSSerialPort port, Board board,
+            Priority priority, int maxRetries)
+    {
+        return submit(action, port, board, priority, maxRetries, null);
+    }
+
+    // The job builds its filesystem from config, whatever happens to fs/ while it waits
+    public synchronized Job submit(ImageTaskActionToPerform action, ESPSSerialPort port, Board board,
+            Priority priority, int maxRetries, ConfigSnapshot config)
+    {
+        Job job = new Job(nextId++, action, port, board, priority, maxRetries);
+        job.config = config;
+        return schedule(job);
+    } // submit
+
+    // Build an EFU into target, chosen when it was submitted
+    public synchronized Job submitEfu(Board board, ConfigSnapshot config, String target)
+    {
+        Job job = new Job(nextId++, ImageTaskActionToPerform.MAKEEFU, null, board, Priority.NORMAL, 0);
+        job.config = config;
+        job.efuTarget = target;
+        return schedule(job);
+    } // submitEfu
+
+    // Build an EFU and push it to targets, chosen when it was submitted
+    public synchronized Job submitPush(Board board, ConfigSnapshot config, List<String> targets)
+    {
+        Job job = new Job(nextId++, ImageTaskActionToPerform.PUSHEFU, null, board, Priority.NORMAL, 0);
+        job.config = config;
+        job.otaTargets = new ArrayList<>(targets);
+        return schedule(job);
+    } // submitPush
+
+    private Job schedule(Job job)
+    {
+        enqueue(job);
+        System.out.println("Scheduled " + job);
+        dispatch();
+        return job;
+    } // schedule
+
+    /**
+     * Cancel a job. Queued jobs are dropped, running jobs have their tool process killed and start no further steps.
+     */
+    public synchronized boolean cancel(Job job)
+    {
+        boolean response = false;
+        switch (job.state)
+        {
+            case QUEUED:
+            {
+                PriorityQueue<Job> queue = queues.get(job.key);
+                if (queue != null)
+                {
+                    queue.remove(job);
+                }
+                job.state = JobState.CANCELLED;
+                response = true;
+                break;
+            }
+            case RUNNING:
+            {
+                job.state = JobState.CANCELLED;
+                ImageTask task = job.task;
+                if (task != null)
+                {
+                    task.abort();
+                }
+                response = true;
+                break;
+            }
+            default:
+            {
+                // already finished
+            }
+        }
+        return response;
+    } // cancel
+
+    private void enqueue(Job job)
+    {
+        job.queuedAt = System.currentTimeMillis();
+        job.startedAt = 0;
+        job.state = JobState.QUEUED;
+        PriorityQueue<Job> queue = queues.get(job.key);
+        if (queue == null)
+        {
+            queue = new PriorityQueue<>();
+            queues.put(job.key, queue);
+        }
+        queue.add(job);
+    } // enqueue
+
+    // Start the best waiting job on every idle port until the concurrency limit is hit
+    private void dispatch()
+    {
+        while (busyKeys.size() < maxConcurrent)
+        {
+            Job next = null;
+            for (Map.Entry<String, PriorityQueue<Job>> entry : queues.entrySet())
+            {
+                if (busyKeys.contains(entry.getKey()) || reservedKeys.contains(entry.getKey()))
+                {
+                    continue;
+                }
+                Job head = entry.getValue().peek();
+                if (head != null && (next == null || head.compareTo(next) < 0))
+                {
+                    next = head;
+                }
+            }
+            if (next == null)
+            {
+                break;
+            }
+
+            queues.get(next.key).poll();
+            busyKeys.add(next.key);
+            start(next);
+        }
+    } // dispatch
+
+    private void start(final Job job)
+    {
+        job.attempts++;
+        job.startedAt = System.currentTimeMillis();
+        job.finishedAt = 0;
+        job.state = JobState.RUNNING;
+
+        long wait = job.getWaitMs();
+        startedJobs++;
+        totalWaitMs += wait;
+        maxWaitMs = Math.max(maxWaitMs, wait);
+
+        final ImageTask task = new ImageTask(job.action, job.port, job.board);
+        if (!LOCAL_KEY.equals(job.key))
+        {
+            task.setFsImage(ESPSFlashTool.paths.getFwPath() + "filesystem_"
+                    + job.port.getName().replaceAll("[^A-Za-z0-9_.-]", "_") + ".bin");
+        }
+        task.setConfig(job.config);
+        task.setEfuTarget(job.efuTarget);
+        task.setOtaTargets(job.otaTargets);
+        // finished() retries a failure while attempts <= maxRetries
+        task.setRetry(job.attempts <= job.maxRetries);
+        job.task = task;
+
+        TaskExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                System.out.println("Starting " + job + " (attempt " + job.attempts + ")");
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    finished(job, task.isCancelled() ? -1 : task.getExitStatus());
+                }
+            }
+        });
+    } // start
+
+    private synchronized void finished(Job job, int status)
+    {
+        job.finishedAt = System.currentTimeMillis();
+        job.task = null;
+        busyKeys.remove(job.key);
+
+        if (job.state == JobState.CANCELLED)
+        {
+            System.out.println("Cancelled " + job);
+        }
+        else if (status == 0)
+        {
+            job.state = JobState.SUCCEEDED;
+            completedJobs++;
+        }
+        else if (job.attempts <= job.maxRetries)
+        {
+            System.out.println("Retrying " + job + " after failure " + status);
+            enqueue(job);
+        }
+        else
+        {
+            job.state = JobState.FAILED;
+            failedJobs++;
+        }
+
+        System.out.println("Finished " + job + " in " + job.getRunMs() + "ms");
+        dispatch();
+    } // finished
+
+    public synchronized int getQueueDepth()
+    {
+        int depth = 0;
+        for (PriorityQueue<Job> queue : queues.values())
+        {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public synchronized int getQueueDepth(ESPSSerialPort port)
+    {
+        PriorityQueue<Job> queue = queues.get(port.getPath());
+        return (queue == null) ? 0 : queue.size();
+    }
+
+    public synchronized int getRunningCount()
+    {
+        return busyKeys.size();
+    }
+
+    public synchronized boolean isBusy(ESPSSerialPort port)
+    {
+        return port != null && port.getTransport() != null && busyKeys.contains(port.getPath());
+    }
+
+    /**
+     * Run something on a port only while no job has it, no job can start on the port until it returns. The port is
+     * reserved under the lock and the action runs outside it, opening a remote port can take a while and the EDT
+     * shouldn't wait for that to submit or look at the queue.
+     */
+    public boolean runIfIdle(ESPSSerialPort port, Runnable action)
+    {
+        synchronized (this)
+        {
+            if (isBusy(port) || reservedKeys.contains(port.getPath()))
+            {
+                return false;
+            }
+            reservedKeys.add(port.getPath());
+        }
+        try
+        {
+            action.run();
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                reservedKeys.remove(port.getPath());
+                dispatch();
+            }
+        }
+        return true;
+    } // runIfIdle
+
+    public synchronized List<Job> getQueuedJobs()
+    {
+        List<Job> jobs = new ArrayList<>();
+        for (PriorityQueue<Job> queue : queues.values())
+        {
+            jobs.addAll(queue);
+        }
+        return jobs;
+    }
+
+    public synchronized long getAverageWaitMs()
+    {
+        return (startedJobs == 0) ? 0 : totalWaitMs / startedJobs;
+    }
+
+    public synchronized long getMaxWaitMs()
+    {
+        return maxWaitMs;
+    }
+
+    // Queue depth per port, running jobs and wait times for the metrics exports
+    public synchronized Stats getStats()
+    {
+        Stats stats = new Stats();
+        for (String key : queues.keySet())
+        {
+            stats.queued.put(key, 0);
+        }
+        long now = System.currentTimeMillis();
+        for (Job job : getQueuedJobs())
+        {
+            stats.queued.put(job.key, stats.queued.get(job.key) + 1);
+            stats.oldestQueuedMs = Math.max(stats.oldestQueuedMs, now - job.queuedAt);
+        }
+        stats.running = getRunningCount();
+        stats.maxConcurrent = maxConcurrent;
+        stats.started = startedJobs;
+        stats.succeeded = completedJobs;
+        stats.failed = failedJobs;
+        stats.totalWaitMs = totalWaitMs;
+        stats.averageWaitMs = getAverageWaitMs();
+        stats.maxWaitMs = getMaxWaitMs();
+        return stats;
+    } // getStats
+} // class FlashScheduler
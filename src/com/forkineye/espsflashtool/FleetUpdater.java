@@ -0,0 +1,389 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Updates a fleet of controllers over the air in rolling waves. The inventory lists every device with the firmware.json
+ * board it runs; one EFU is built in memory per board. A canary wave goes first, then fixed size waves, each pushed with
+ * bounded parallelism. When the failures in a wave pass maxErrorRate the devices of that wave not yet started and all
+ * later waves are skipped.
+ *
+ * Inventory format:
+ * <pre>
+ * {
+ *   "canary": 1, "waveSize": 8, "parallel": 4, "retries": 2, "maxErrorRate": 0.2, "filesystem": false,
+ *   "devices": [ { "name": "Garage", "host": "192.168.1.50", "board": "Wemos D1 Mini", "mac": "..." }, ... ]
+ * }
+ * </pre>
+ * Every update goes into the unit inventory, under the device's mac when it is given.
+ * By default only the sketch is sent and each device keeps its own config. "filesystem": true also sends this
+ * station's fs directory, config.json included, so every device gets the same SSID, hostname and addresses.
+ */
+class FleetUpdater
+{
+
+    public enum DeviceState
+    {
+        PENDING,
+        RUNNING,
+        UPDATED,
+        FAILED,
+        SKIPPED
+    }
+
+    public static class Device
+    {
+
+        String name = "";
+        String host;
+        String board;
+        String mac = "";                // optional, links the update to the unit's record in the unit inventory
+
+        transient long id;              // job id in the metrics
+        transient DeviceState state = DeviceState.PENDING;
+        transient int wave = 0;
+        transient int attempts = 0;
+        transient int httpStatus = -1;
+        transient long startedAt = 0;   // epoch ms
+        transient long wallMs = 0;
+        transient String message = "";
+
+        @Override
+        public String toString()
+        {
+            return (name.isEmpty() ? host : name + " (" + host + ")") + ": " + state
+                    + ((wallMs > 0) ? " in " + wallMs + "ms" : "") + (message.isEmpty() ? "" : ", " + message);
+        }
+    } // Device
+
+    public static class Inventory
+    {
+
+        int canary = 1;
+        int waveSize = 8;
+        int parallel = 4;
+        int retries = 2;
+        double maxErrorRate = 0.2;
+        boolean filesystem = false;     // opt in, the fs image carries this station's config
+        List<Device> devices = new ArrayList<>();
+    } // Inventory
+
+    public interface Listener
+    {
+
+        void deviceDone(Device device);
+
+        void waveDone(int wave, int updated, int failed, boolean halted);
+    }
+
+    // EFU contents for one board
+    private static class Images
+    {
+
+        ByteBuffer sketch;
+        ByteBuffer spiffs;
+    }
+
+    private final Inventory inventory;
+    private final Map<String, EfuUploader> uploaders = new HashMap<>();
+
+    public FleetUpdater(Inventory inventory)
+    {
+        this.inventory = inventory;
+    }
+
+    // Throws JsonParseException for an empty inventory or a device without a host or board
+    public static Inventory load(Reader reader) throws JsonParseException
+    {
+        Inventory inventory = new Gson().fromJson(reader, Inventory.class);
+        if (inventory == null || inventory.devices == null || inventory.devices.isEmpty())
+        {
+            throw new JsonParseException("no devices listed");
+        }
+        for (int i = 0; i < inventory.devices.size(); i++)
+        {
+            Device device = inventory.devices.get(i);
+            String which = "device " + (i + 1)
+                    + ((device.name == null || device.name.isEmpty()) ? "" : " (" + device.name + ")");
+            if (device.host == null || device.host.trim().isEmpty())
+            {
+                throw new JsonParseException(which + " has no host");
+            }
+            if (device.board == null || device.board.trim().isEmpty())
+            {
+                throw new JsonParseException(which + " has no board");
+            }
+            device.name = (device.name == null) ? "" : device.name;
+            device.mac = (device.mac == null) ? "" : device.mac;
+            device.host = device.host.trim();
+            device.id = FlashMetrics.nextJobId();
+            device.state = DeviceState.PENDING;
+            device.message = "";
+            device.httpStatus = -1;
+        }
+        return inventory;
+    } // load
+
+    public List<Device> getDevices()
+    {
+        return inventory.devices;
+    }
+
+    /**
+     * Build the images and roll the update out. Returns true when every device was updated.
+     */
+    public boolean run(Listener listener) throws InterruptedException
+    {
+        List<Device> ready = prepare();
+        List<List<Device>> waves = plan(ready);
+
+        boolean halted = false;
+        for (int wave = 0; wave < waves.size(); wave++)
+        {
+            List<Device> devices = waves.get(wave);
+            if (halted)
+            {
+                for (Device device : devices)
+                {
+                    device.state = DeviceState.SKIPPED;
+                    device.message = "rollout halted";
+                }
+                continue;
+            }
+            halted = runWave(wave + 1, devices, listener);
+        }
+
+        for (Device device : inventory.devices)
+        {
+            if (device.state != DeviceState.UPDATED)
+            {
+                return false;
+            }
+        }
+        return true;
+    } // run
+
+    public void exportCsv(Writer out) throws IOException
+    {
+        out.write("name,host,board,wave,state,attempts,http_status,started_at,wall_ms,message\n");
+        for (Device device : inventory.devices)
+        {
+            out.write(csv(device.name) + "," + csv(device.host) + "," + csv(device.board) + "," + device.wave
+                    + "," + device.state + "," + device.attempts + "," + device.httpStatus + "," + device.startedAt
+                    + "," + device.wallMs + "," + csv(device.message) + "\n");
+        }
+    } // exportCsv
+
+    // One uploader per board in the inventory. Devices whose board can't be built fail up front.
+    private List<Device> prepare()
+    {
+        List<Device> ready = new ArrayList<>();
+        Map<String, String> broken = new HashMap<>();
+        for (Device device : inventory.devices)
+        {
+            String problem = broken.get(device.board);
+            if (problem == null && !uploaders.containsKey(device.board))
+            {
+                Board board = ESPSFlashTool.ftconfig.getBoard(device.board);
+                if (board == null)
+                {
+                    problem = "unknown board " + device.board;
+                }
+                else
+                {
+                    try
+                    {
+                        Images images = buildImages(board);
+                        EfuUploader uploader = new EfuUploader(images.sketch, images.spiffs, board.name + ".efu");
+                        uploader.setRetries(inventory.retries);
+                        uploaders.put(device.board, uploader);
+                    }
+                    catch (IOException ex)
+                    {
+                        problem = ex.getMessage();
+                    }
+                }
+                if (problem != null)
+                {
+                    broken.put(device.board, problem);
+                }
+            }
+
+            if (problem != null)
+            {
+                device.state = DeviceState.FAILED;
+                device.message = problem;
+            }
+            else
+            {
+                ready.add(device);
+            }
+        }
+        return ready;
+    } // prepare
+
+    private Images buildImages(Board board) throws IOException
+    {
+        Images images = new Images();
+        images.sketch = board.map(board.getAppbin());
+        if (inventory.filesystem)
+        {
+            String fsImage = ESPSFlashTool.paths.getFwPath() + "filesystem_fleet_"
+                    + board.name.replaceAll("[^A-Za-z0-9_.-]", "_") + ".bin";
+            ImageTask task = new ImageTask(ImageTask.ImageTaskActionToPerform.CREATE_FILESYSTEM, null, board);
+            task.setFsImage(fsImage);
+            task.setListener(new ImageTask.ConsoleListener());
+            task.run();
+            if (task.getExitStatus() != 0)
+            {
+                throw new IOException("failed to build the filesystem image for " + board.name);
+            }
+            images.spiffs = ImageCache.load(fsImage);
+        }
+        return images;
+    } // buildImages
+
+    // Canary first, then waves of waveSize
+    private List<List<Device>> plan(List<Device> devices)
+    {
+        List<List<Device>> waves = new ArrayList<>();
+        int next = 0;
+        if (inventory.canary > 0 && devices.size() > inventory.canary)
+        {
+            waves.add(new ArrayList<>(devices.subList(0, inventory.canary)));
+            next = inventory.canary;
+        }
+        int size = Math.max(1, inventory.waveSize);
+        while (next < devices.size())
+        {
+            waves.add(new ArrayList<>(devices.subList(next, Math.min(next + size, devices.size()))));
+            next += size;
+        }
+        return waves;
+    } // plan
+
+    // Push one wave, returns true when it tripped the error rate
+    private boolean runWave(final int wave, List<Device> devices, final Listener listener) throws InterruptedException
+    {
+        final Semaphore slots = new Semaphore(Math.max(1, inventory.parallel));
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger updated = new AtomicInteger();
+        final AtomicBoolean halted = new AtomicBoolean(false);
+        final int allowedFailures = (int) Math.floor(inventory.maxErrorRate * devices.size());
+
+        System.out.println("Fleet: wave " + wave + ", " + devices.size() + " device(s)");
+        List<Future<?>> pending = new ArrayList<>();
+        for (final Device device : devices)
+        {
+            device.wave = wave;
+            pending.add(TaskExecutor.get().submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws InterruptedException
+                {
+                    slots.acquire();
+                    try
+                    {
+                        if (halted.get())
+                        {
+                            device.state = DeviceState.SKIPPED;
+                            device.message = "wave halted";
+                            return null;
+                        }
+                        device.state = DeviceState.RUNNING;
+                        device.startedAt = System.currentTimeMillis();
+                        EfuUploader.Result result = uploaders.get(device.board).upload(device.host);
+                        device.attempts = result.attempts;
+                        device.httpStatus = result.httpStatus;
+                        device.wallMs = result.wallMs;
+                        device.message = result.message;
+                        device.state = result.isSuccess() ? DeviceState.UPDATED : DeviceState.FAILED;
+                        ESPSFlashTool.metrics.record(device.id, device.host, device.board, FlashMetrics.Phase.OTA,
+                                device.startedAt, result.wallMs, result.bytes, result.isSuccess() ? 0 : result.httpStatus);
+                        ESPSFlashTool.inventory.record(UnitInventory.ota(device.id, device.host, device.mac,
+                                ESPSFlashTool.ftconfig.getBoard(device.board), result));
+
+                        if (result.isSuccess())
+                        {
+                            updated.incrementAndGet();
+                        }
+                        else if (failed.incrementAndGet() > allowedFailures)
+                        {
+                            halted.set(true);
+                        }
+                        if (listener != null)
+                        {
+                            listener.deviceDone(device);
+                        }
+                        return null;
+                    }
+                    finally
+                    {
+                        slots.release();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : pending)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException ex)
+            {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+
+        if (listener != null)
+        {
+            listener.waveDone(wave, updated.get(), failed.get(), halted.get());
+        }
+        return halted.get();
+    } // runWave
+
+    private static String csv(String value)
+    {
+        if (value == null)
+        {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\""))
+        {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+} // class FleetUpdater
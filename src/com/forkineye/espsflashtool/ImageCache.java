@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared read-only views of firmware and filesystem images. Every job reading the same image gets its own view of one
+ * buffer instead of its own heap copy, and the buffer is reloaded only when the file changes on disk.
+ *
+ * Firmware binaries shipped in the firmware directory are memory mapped with map(). Images the tool rewrites itself,
+ * like the filesystem image, are loaded once with load(): a mapped file can't be replaced on Windows while the mapping
+ * is alive, and on other systems truncating it under a running upload faults the reader.
+ *
+ * A mapping lives until its last view is collected. Entries are dropped when the release in use changes and before the
+ * catalog deletes a file, so the old release's files are released once the jobs still reading them are done.
+ */
+class ImageCache
+{
+
+    // -Despsflashtool.mmap=false loads firmware into the heap as well
+    static final boolean MMAP = !"false".equals(System.getProperty("espsflashtool.mmap"));
+
+    private static class Entry
+    {
+
+        long stamp;
+        ByteBuffer buffer;
+        String sha256;  // worked out on first use
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Map<String, Entry> cache = new HashMap<>();
+
+    /**
+     * A read-only view of a firmware binary, memory mapped. The view has its own position and limit, so callers may
+     * consume it freely.
+     */
+    public static ByteBuffer map(String path) throws IOException
+    {
+        return get(path, MMAP);
+    }
+
+    // A read-only view of an image the tool regenerates, held in the heap
+    public static ByteBuffer load(String path) throws IOException
+    {
+        return get(path, false);
+    }
+
+    // Forget everything, e.g. after switching to another release
+    public static void clear()
+    {
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+    }
+
+    // Forget one file, e.g. before it is deleted
+    public static void evict(String path) throws IOException
+    {
+        String key = new File(path).getCanonicalPath();
+        synchronized (cache)
+        {
+            cache.remove(key);
+        }
+    }
+
+    // SHA-256 of a firmware binary, hashed once per version of the file
+    public static String mapSha256(String path) throws IOException
+    {
+        return sha256(entry(path, MMAP));
+    }
+
+    // SHA-256 of an image the tool regenerates
+    public static String loadSha256(String path) throws IOException
+    {
+        return sha256(entry(path, false));
+    }
+
+    static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JRE has SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String hex(byte[] bytes)
+    {
+        char[] text = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            text[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            text[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(text);
+    }
+
+    private static ByteBuffer get(String path, boolean mapped) throws IOException
+    {
+        return entry(path, mapped).buffer.duplicate();
+    }
+
+    private static String sha256(Entry entry)
+    {
+        synchronized (entry)
+        {
+            if (entry.sha256 == null)
+            {
+                MessageDigest digest = sha256();
+                digest.update(entry.buffer.duplicate());
+                entry.sha256 = hex(digest.digest());
+            }
+            return entry.sha256;
+        }
+    }
+
+    private static Entry entry(String path, boolean mapped) throws IOException
+    {
+        File file = new File(path).getCanonicalFile();
+        if (!file.isFile())
+        {
+            throw new IOException(path + " not found");
+        }
+        String key = file.getPath();
+        long stamp = file.lastModified() * 31 + file.length();
+
+        synchronized (cache)
+        {
+            Entry entry = cache.get(key);
+            if (entry == null || entry.stamp != stamp)
+            {
+                entry = new Entry();
+                entry.stamp = stamp;
+                entry.buffer = read(file, mapped);
+                cache.put(key, entry);
+            }
+            return entry;
+        }
+    } // entry
+
+    private static ByteBuffer read(File file, boolean mapped) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file.getName() + " is too large for an image");
+            }
+            if (mapped)
+            {
+                // The mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) == -1)
+                {
+                    throw new IOException(file.getName() + " changed while being read");
+                }
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    } // read
+} // class ImageCache
@@ -15,19 +15,30 @@
  */
 package com.forkineye.espsflashtool;
 
-import com.fazecast.jSerialComm.SerialPort;
 import com.forkineye.espsflashtool.ImageTask.ImageTaskActionToPerform;
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.swing.JOptionPane;
-import static javax.swing.JOptionPane.showMessageDialog;
-import javax.swing.SwingWorker;
 
-class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
+// Runs esptool / mklittlefs actions against a device on the TaskExecutor, reporting back to the UI on the EDT
+class ImageTask implements Runnable
 {
 
     public enum ImageTaskActionToPerform
@@ -39,51 +50,376 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
         CREATE_FILESYSTEM,
         MAKEEFU,
         UPLOAD_FIRMWARE,
-        CREATE_AND_UPLOAD_ALL
+        CREATE_AND_UPLOAD_ALL,
+        PUSHEFU,
+        IDENTIFY
     }
 
+    // Receives task progress. All calls are made on the EDT.
+    public interface Listener
+    {
+
+        void taskOutput(ImageTask task, String text);
+
+        void taskError(ImageTask task, String message, String title);
+
+        void taskDone(ImageTask task);
+    }
+
+    // Default listener, reports to the flash tool window
+    private static class UiListener implements Listener
+    {
+
+        @Override
+        public void taskOutput(ImageTask task, String text)
+        {
+            ESPSFlashTool.flashToolUI.appendTxtSystemOutput(text);
+        }
+
+        @Override
+        public void taskError(ImageTask task, String message, String title)
+        {
+            JOptionPane.showMessageDialog(null, message, title, JOptionPane.ERROR_MESSAGE);
+        }
+
+        @Override
+        public void taskDone(ImageTask task)
+        {
+            if (!task.isCancelled() && task.getExitStatus() != 0 && task.willRetry())
+            {
+                // The scheduler runs the job again, the interface stays as it is until the last attempt is done
+                ESPSFlashTool.flashToolUI.appendTxtSystemOutput("\n*** ESP Action failed, retrying ***");
+                return;
+            }
+            if (task.getDownloadedConfig() != null)
+            {
+                ESPSFlashTool.deviceConfig.useDownloadedConfig(task.getDownloadedConfig());
+                ESPSFlashTool.flashToolUI.populateConfigValues();
+            }
+            if (task.getAction() == ImageTaskActionToPerform.IDENTIFY)
+            {
+                ESPSFlashTool.flashToolUI.chipIdentified(task);
+            }
+            // Only reattach the monitor if the operator is still looking at this port
+            if (task.getSerialPort() == ESPSFlashTool.port)
+            {
+                ESPSFlashTool.flashToolUI.monitor();
+            }
+            if (task.isCancelled())
+            {
+                ESPSFlashTool.flashToolUI.appendTxtSystemOutput("\n-= ESP Action Cancelled =-");
+            }
+            else if (task.getExitStatus() == 0)
+            {
+                ESPSFlashTool.flashToolUI.appendTxtSystemOutput("\n-= ESP Action Complete =-");
+            }
+            else
+            {
+                ESPSFlashTool.flashToolUI.appendTxtSystemOutput("\n*** ESP Action FAILED ***");
+            }
+            ESPSFlashTool.flashToolUI.enableInterface();
+        }
+    } // UiListener
+
+    // Reports to the console, for running without a window
+    public static class ConsoleListener implements Listener
+    {
+
+        @Override
+        public void taskOutput(ImageTask task, String text)
+        {
+            // Task messages are already echoed to stdout, full tool output is in the task log
+        }
+
+        @Override
+        public void taskError(ImageTask task, String message, String title)
+        {
+            System.err.println(title + ": " + message);
+        }
+
+        @Override
+        public void taskDone(ImageTask task)
+        {
+        }
+    } // ConsoleListener
+
+    private static final Listener UI_LISTENER = new UiListener();
+    // -Despsflashtool.flash.check=false always erases and writes everything, without asking the device first
+    private static final boolean FLASH_CHECK = !"false".equals(System.getProperty("espsflashtool.flash.check"));
+    private static final Pattern VERIFYING = Pattern.compile("^Verifying .* @ 0x([0-9A-Fa-f]+) in flash against");
+
+    private final long id = FlashMetrics.nextJobId();
     private int state = 0;
     private int status = 0;
     private ImageTaskActionToPerform flashAction = ImageTaskActionToPerform.NOTHING;
-    private final String fsBin = "filesystem.bin";      // Filesystem Image
+    private final ESPSSerialPort port;  // Port this task talks to, captured at creation
+    private final Board board;          // Board this task builds for, captured at creation
+    private String fsImage;             // Filesystem Image
+    private volatile Process process = null;
+    private volatile boolean cancelled = false;
+    private boolean retry = false;      // A failure is followed by another attempt of the same job
+    private Writer log = null;          // Full tool output for this task
+    private String efuTarget = null;    // Where MAKEEFU writes, set when the job is submitted
+    private List<String> otaTargets = null; // Devices PUSHEFU updates, set when the job is submitted
+    private ConfigSnapshot config = null; // Device config the job was submitted with, fs/ as it is when not set
+    private volatile Map<String, Object> downloadedConfig = null; // Parsed by UNPACK, applied on the EDT when done
+    private Listener listener = UI_LISTENER;
+    private final ChipIdentity identity = new ChipIdentity(); // What esptool reported about the chip
+    private final Map<String, Long> phases = new LinkedHashMap<>(); // Phase timings for the inventory
+    private Map<Long, Boolean> verified = null; // Offsets verify_flash checked and if they matched, while it runs
+    private long verifying = -1;        // Offset verify_flash is checking
 
     public ImageTask(ImageTaskActionToPerform action)
+    {
+        this(action, ESPSFlashTool.port, ESPSFlashTool.board);
+    }
+
+    public ImageTask(ImageTaskActionToPerform action, ESPSSerialPort port, Board board)
     {
         System.out.println("ImageTask Created");
         flashAction = action;
+        this.port = port;
+        this.board = board;
+        fsImage = ESPSFlashTool.paths.getFwPath() + ESPSFlashTool.paths.getFsBin();
         EnsureSerialPortIsOff();
     }
 
     private void EnsureSerialPortIsOff()
     {
-        if (ESPSFlashTool.port != null)
+        if (port != null)
         {
-            SerialPort serial = ESPSFlashTool.port.getPort();
-            if (serial != null)
+            SerialTransport transport = port.getTransport();
+            if (transport != null)
             {
-                ESPSFlashTool.port.getPort().closePort();
+                transport.close();
             }
         }
 
     } // EnsureSerialPortIsOff
 
-    @Override
-    public void process(java.util.List<String> messages)
+    public long getId()
+    {
+        return id;
+    }
+
+    public ImageTaskActionToPerform getAction()
     {
-        for (String message : messages)
+        return flashAction;
+    }
+
+    public ESPSSerialPort getSerialPort()
+    {
+        return port;
+    }
+
+    public Board getBoard()
+    {
+        return board;
+    }
+
+    // Result of the last run, 0 on success
+    public int getExitStatus()
+    {
+        return status;
+    }
+
+    public String getFsImage()
+    {
+        return fsImage;
+    }
+
+    // Jobs running side by side on different ports each need their own filesystem image
+    public void setFsImage(String fsImage)
+    {
+        this.fsImage = fsImage;
+    }
+
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    public void setEfuTarget(String efuTarget)
+    {
+        this.efuTarget = efuTarget;
+    }
+
+    public void setOtaTargets(List<String> otaTargets)
+    {
+        this.otaTargets = otaTargets;
+    }
+
+    public void setConfig(ConfigSnapshot config)
+    {
+        this.config = config;
+    }
+
+    // What this task's esptool runs found out about the chip
+    public ChipIdentity getIdentity()
+    {
+        return identity;
+    }
+
+    // The downloaded device config once it has been parsed, null until then
+    public Map<String, Object> getDownloadedConfig()
+    {
+        return downloadedConfig;
+    }
+
+    // Start the task in the background
+    public void execute()
+    {
+        TaskExecutor.execute(this);
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    // Set by the scheduler when a failure of this attempt will be retried
+    public void setRetry(boolean retry)
+    {
+        this.retry = retry;
+    }
+
+    public boolean willRetry()
+    {
+        return retry;
+    }
+
+    // Cancel the task and kill any tool it is currently running
+    public void abort()
+    {
+        cancelled = true;
+        Process p = process;
+        if (p != null)
         {
-            ESPSFlashTool.flashToolUI.appendTxtSystemOutput(message + "\n");
-            System.out.println(message);
+            p.destroy();
         }
-    }
+    } // abort
 
+    // Runs the task on the calling thread, completion is reported on the EDT
     @Override
-    protected ImageTaskActionToPerform doInBackground()
+    public void run()
+    {
+        if (!cancelled)
+        {
+            openLog();
+            doInBackground();
+            if (port != null)
+            {
+                ChipIdentity.update(port, identity);
+            }
+            recordUnit();
+            closeLog();
+        }
+        TaskExecutor.runOnEdt(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                done();
+            }
+        });
+    } // run
+
+    private void openLog()
+    {
+        try
+        {
+            new File(ESPSFlashTool.paths.getLogPath()).mkdirs();
+            String portName = (port == null || port.getTransport() == null) ? "local" : port.getName();
+            String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date())
+                    + "_" + flashAction + "_" + portName.replaceAll("[^A-Za-z0-9_.-]", "_") + ".log";
+            log = new BufferedWriter(new FileWriter(ESPSFlashTool.paths.getLogPath() + name));
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to open task log: " + ex.getMessage());
+            log = null;
+        }
+    } // openLog
+
+    private void closeLog()
+    {
+        if (log != null)
+        {
+            try
+            {
+                log.close();
+            }
+            catch (IOException ex)
+            {
+                // nothing useful to do
+            }
+            log = null;
+        }
+    } // closeLog
+
+    private void writeLog(String message)
+    {
+        if (log != null)
+        {
+            try
+            {
+                log.write(message);
+                log.write(System.lineSeparator());
+            }
+            catch (IOException ex)
+            {
+                // logging must never fail the task
+            }
+        }
+    } // writeLog
+
+    private void publish(final String message)
+    {
+        System.out.println(message);
+        writeLog(message);
+        TaskExecutor.runOnEdt(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listener.taskOutput(ImageTask.this, message + "\n");
+            }
+        });
+    } // publish
+
+    private void showMessageDialog(final Object parent, final String message, final String title, final int type)
+    {
+        // A step that failed because the job was cancelled isn't an error worth a dialog
+        if (cancelled)
+        {
+            return;
+        }
+        TaskExecutor.runOnEdt(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listener.taskError(ImageTask.this, message, title);
+            }
+        });
+    } // showMessageDialog
+
+    private ImageTaskActionToPerform doInBackground()
     {
         System.out.println("doInBackground - Start");
         status = 0;
         ImageTaskActionToPerform Response = ImageTaskActionToPerform.NOTHING;
-        ESPSFlashTool.paths.setToolPaths();
+        ESPSFlashTool.paths.validateToolchain();
+
+        // A probe already told us what is on the port, don't spend an erase and write finding out the board is wrong
+        String mismatch = checkChip();
+        if (mismatch != null)
+        {
+            publish("-= Wrong board: " + mismatch + " =-");
+            showMessageDialog(null, mismatch, "Wrong Board", JOptionPane.ERROR_MESSAGE);
+            status = -1;
+            return Response;
+        }
 
         switch (flashAction)
         {
@@ -97,12 +433,22 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
             {
                 System.out.println("doInBackground - DOWNLOAD_FILESYSTEM");
                 status = DownloadDeviceFileSystem();
+                if (isCancelled())
+                {
+                    break;
+                }
             }
             case UNPACK_FILESYSTEM:
             {
                 System.out.println("doInBackground - UNPACK_FILESYSTEM");
                 status = UnpackDeviceFileSystem();
-                ESPSFlashTool.deviceConfig.processDownloadedDeviceConfigFiles();
+                downloadedConfig = ESPSFlashTool.deviceConfig.processDownloadedDeviceConfigFiles(downloadedFs());
+                if (downloadedConfig == null)
+                {
+                    showMessageDialog(null,
+                            "Unable to find ESPixelStick Downloaded Configuration file",
+                            "Failed deserialize", JOptionPane.ERROR_MESSAGE);
+                }
                 break;
             }
             case CREATE_FILESYSTEM:
@@ -114,19 +460,23 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
             case MAKEEFU:
             {
                 status = CreateFileSystemImage();
-                try
+                if (isCancelled())
                 {
-                    UpdateBuilder.build(
-                            ESPSFlashTool.paths.getFwPath() + ESPSFlashTool.board.getAppbin(),
-                            ESPSFlashTool.paths.getFwPath() + ESPSFlashTool.paths.getFsBin(),
-                            ESPSFlashTool.flashToolUI.getEfuTarget());
+                    break;
                 }
-                catch (IOException ex)
+                status |= BuildEfu();
+                break;
+            }
+
+            case PUSHEFU:
+            {
+                System.out.println("doInBackground - PUSHEFU");
+                status = CreateFileSystemImage();
+                if (isCancelled())
                 {
-                    showMessageDialog(null, "Failed to build firmware update\n"
-                            + ex.getMessage(), "Failed EFU Build", JOptionPane.ERROR_MESSAGE);
+                    break;
                 }
-
+                status |= PushEfu();
                 break;
             }
 
@@ -140,10 +490,36 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
             {
                 System.out.println("doInBackground - CREATE_AND_UPLOAD_ALL");
                 status = CreateFileSystemImage();
+                if (isCancelled())
+                {
+                    break;
+                }
+
+                // A unit that already has this filesystem keeps it, and whatever else is current, and isn't erased
+                Set<Long> current = (status == 0) ? VerifyDeviceFlash() : Collections.<Long>emptySet();
+                if (isCancelled())
+                {
+                    break;
+                }
+                if (current.contains(parseSize(board.filesystem.offset)))
+                {
+                    status |= UploadFwImages(current);
+                    break;
+                }
                 status |= EraseDeviceFlash();
+                if (isCancelled())
+                {
+                    break;
+                }
                 status |= UploadFwImages();
                 break;
             }
+            case IDENTIFY:
+            {
+                System.out.println("doInBackground - IDENTIFY");
+                status = IdentifyDevice();
+                break;
+            }
             case NOTHING:
             default:
             {
@@ -155,19 +531,9 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
         return Response;
     }
 
-    @Override
-    public void done()
+    private void done()
     {
-        ESPSFlashTool.flashToolUI.monitor();
-        if (status == 0)
-        {
-            ESPSFlashTool.flashToolUI.appendTxtSystemOutput("\n-= ESP Action Complete =-");
-        }
-        else
-        {
-            ESPSFlashTool.flashToolUI.appendTxtSystemOutput("\n*** ESP Action FAILED ***");
-        }
-        ESPSFlashTool.flashToolUI.enableInterface();
+        listener.taskDone(this);
     }
 
     private int exec(List<String> command)
@@ -182,6 +548,13 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
                 // nothing to do
                 break;
             }
+            if (cancelled)
+            {
+                // A cancelled job starts nothing more, only the tool already running is killed by abort()
+                publish("Cancelled, not running " + new File(command.get(0)).getName());
+                response = -1;
+                break;
+            }
 
             String outCommand = "";
             for (String opt : command)
@@ -190,19 +563,39 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
             }
             publish("Command: " + outCommand);
 
+            // esptool runs in a warm worker when one is available, everything else as a one-off process
+            EsptoolWorker worker = isEsptoolCommand(command) ? EsptoolWorker.acquire() : null;
             try
             {
+                if (worker != null)
+                {
+                    process = worker.getProcess();
+                    if (cancelled)
+                    {
+                        // abort() came in before the worker was published and found nothing to kill
+                        process = null;
+                        response = -1;
+                        break;
+                    }
+                    pump(worker.run(command.subList(2, command.size())));
+
+                    publish("Command: " + outCommand + " - Done");
+                    process = null;
+                    response = isCancelled() ? -1 : worker.getExitStatus();
+                    state = response;
+                    break;
+                }
+
                 ProcessBuilder pb = new ProcessBuilder(command);
                 pb.redirectErrorStream(true);
                 Process p = pb.start();
-                String s;
-                BufferedReader stdout = new BufferedReader(
-                        new InputStreamReader(p.getInputStream()));
-
-                while ((s = stdout.readLine()) != null && !isCancelled())
+                process = p;
+                if (cancelled)
                 {
-                    publish(s);
+                    // abort() came in while the process was starting and found nothing to kill
+                    p.destroy();
                 }
+                pump(p.getInputStream());
 
                 if (!isCancelled())
                 {
@@ -215,22 +608,246 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
                 p.getOutputStream().close();
                 p.getErrorStream().close();
                 p.destroy();
-                response = p.exitValue();
+                process = null;
+                response = isCancelled() ? -1 : p.exitValue();
             }
             catch (IOException | InterruptedException ex)
             {
                 ex.printStackTrace(System.err);
                 response = -1;
             }
+            finally
+            {
+                if (worker != null)
+                {
+                    EsptoolWorker.release(worker);
+                }
+            }
         } while (false);
 
         System.out.println("exec - End");
         return response;
     }
 
+    private boolean isEsptoolCommand(List<String> command)
+    {
+        return EsptoolWorker.ENABLED && command.size() > 2
+                && command.get(0).equals(ESPSFlashTool.paths.getPython())
+                && command.get(1).equals(ESPSFlashTool.paths.getEsptool());
+    }
+
+    // Tool output goes to the task log as-is and to the UI in per-frame chunks
+    private void pump(InputStream output) throws InterruptedException
+    {
+        OutputPump pump = new OutputPump(output, log, new OutputPump.Sink()
+        {
+            @Override
+            public void append(String chunk)
+            {
+                listener.taskOutput(ImageTask.this, chunk);
+            }
+        }, OutputPump.DEFAULT_FRAME_MS);
+        pump.setLineListener(new OutputPump.LineListener()
+        {
+            @Override
+            public void line(String line)
+            {
+                identity.parse(line.trim());
+                if (verified != null)
+                {
+                    parseVerify(line.trim());
+                }
+            }
+        });
+        pump.start();
+        pump.waitFor();
+    } // pump
+
+    // verify_flash prints "Verifying ... @ 0x<offset> in flash against <file>..." and then OK or FAILED for each image
+    private void parseVerify(String line)
+    {
+        Matcher matcher = VERIFYING.matcher(line);
+        if (matcher.find())
+        {
+            verifying = Long.parseLong(matcher.group(1), 16);
+        }
+        else if (line.startsWith("-- verify ") && verifying >= 0)
+        {
+            verified.put(verifying, line.startsWith("-- verify OK"));
+            verifying = -1;
+        }
+    } // parseVerify
+
+    // Record how long a phase took and how much data it moved
+    private void recordPhase(FlashMetrics.Phase phase, long startedAt, long startNanos, long bytes, int result)
+    {
+        String portName = (port == null || port.getTransport() == null) ? "local" : port.getName();
+        long wallMs = (System.nanoTime() - startNanos) / 1000000;
+        ESPSFlashTool.metrics.record(id, portName, board.name, phase, startedAt, wallMs, bytes, result);
+        writeLog(String.format("%s: %dms, %d bytes, %.1f KB/s, status %d", phase, wallMs, bytes,
+                (wallMs > 0) ? bytes * 1000.0 / wallMs / 1024 : 0.0, result));
+        Long before = phases.get(phase.name());
+        phases.put(phase.name(), (before == null) ? wallMs : before + wallMs);
+    } // recordPhase
+
+    // Jobs that change what is on a unit go into the inventory
+    private void recordUnit()
+    {
+        boolean uploads = flashAction == ImageTaskActionToPerform.UPLOAD_FIRMWARE
+                || flashAction == ImageTaskActionToPerform.CREATE_AND_UPLOAD_ALL;
+        if (port == null || !(uploads || flashAction == ImageTaskActionToPerform.ERASE_FLASH) || phases.isEmpty())
+        {
+            return;
+        }
+
+        UnitInventory.Unit unit = new UnitInventory.Unit();
+        unit.time = System.currentTimeMillis();
+        unit.job = id;
+        unit.action = flashAction.name();
+        unit.port = port.getName();
+        unit.mac = identity.mac;
+        unit.chip = identity.description;
+        unit.chipId = identity.chipId;
+        unit.board = board.name;
+        unit.phases.putAll(phases);
+        unit.result = status;
+        if (uploads)
+        {
+            unit.release = board.release;
+            unit.version = board.version;
+            try
+            {
+                for (Board.Binfile binfile : board.binfiles)
+                {
+                    unit.hashes.put(binfile.name, ImageCache.mapSha256(board.getPath(binfile.name)));
+                }
+                unit.hashes.put(new File(fsImage).getName(), ImageCache.loadSha256(fsImage));
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Inventory: unable to hash images: " + ex.getMessage());
+            }
+        }
+
+        ESPSFlashTool.inventory.record(unit);
+    } // recordUnit
+
+    private static long fileSize(String path)
+    {
+        return new File(path).length();
+    }
+
+    private static long parseSize(String value)
+    {
+        try
+        {
+            return Long.decode(value.trim());
+        }
+        catch (NumberFormatException | NullPointerException ex)
+        {
+            return 0;
+        }
+    } // parseSize
+
+    private Integer BuildEfu()
+    {
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        Integer Response = 0;
+        String target = efuTarget;
+        if (target == null)
+        {
+            showMessageDialog(null, "No file to build the firmware update into",
+                    "Failed EFU Build", JOptionPane.ERROR_MESSAGE);
+            return -1;
+        }
+
+        publish("-= Building EFU Image =-");
+        try
+        {
+            // The same cached images the uploads use, the EFU isn't read back from disk image by image
+            UpdateBuilder.build(
+                    board.map(board.getAppbin()),
+                    ImageCache.load(fsImage),
+                    target);
+            publish("-= Building EFU Image - Done =-");
+        }
+        catch (IOException ex)
+        {
+            showMessageDialog(null, "Failed to build firmware update\n"
+                    + ex.getMessage(), "Failed EFU Build", JOptionPane.ERROR_MESSAGE);
+            Response = -1;
+        }
+        recordPhase(FlashMetrics.Phase.EFU, startedAt, startNanos, fileSize(target), Response);
+        return Response;
+    } // BuildEfu
+
+    // Stream the EFU from memory straight to the devices' update endpoint
+    private Integer PushEfu()
+    {
+        Integer Response = 0;
+        List<String> targets = (otaTargets != null) ? otaTargets : Collections.<String>emptyList();
+
+        publish("-= Pushing EFU to " + targets.size() + " device(s) =-");
+        ByteBuffer sketch;
+        ByteBuffer spiffs;
+        try
+        {
+            sketch = board.map(board.getAppbin());
+            spiffs = ImageCache.load(fsImage);
+        }
+        catch (IOException ex)
+        {
+            showMessageDialog(null, "Failed to read firmware images\n"
+                    + ex.getMessage(), "Failed EFU Push", JOptionPane.ERROR_MESSAGE);
+            return -1;
+        }
+
+        EfuUploader uploader = new EfuUploader(sketch, spiffs, board.name + ".efu");
+        try
+        {
+            List<EfuUploader.Result> results = uploader.uploadAll(targets, new EfuUploader.Listener()
+            {
+                @Override
+                public void uploadDone(EfuUploader.Result result)
+                {
+                    publish(result.toString());
+                    ESPSFlashTool.metrics.record(id, result.target, board.name, FlashMetrics.Phase.OTA,
+                            System.currentTimeMillis() - result.wallMs, result.wallMs, result.bytes,
+                            result.isSuccess() ? 0 : result.httpStatus);
+                    // No MAC for a bare address, the record is kept but not indexed
+                    ESPSFlashTool.inventory.record(UnitInventory.ota(id, result.target, "", board, result));
+                }
+            });
+
+            int failed = 0;
+            for (EfuUploader.Result result : results)
+            {
+                if (!result.isSuccess())
+                {
+                    failed++;
+                }
+            }
+            if (failed > 0)
+            {
+                showMessageDialog(null, failed + " of " + results.size() + " device(s) failed to update",
+                        "Failed EFU Push", JOptionPane.ERROR_MESSAGE);
+                Response = -1;
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Response = -1;
+        }
+        publish("-= Pushing EFU - Done =-");
+        return Response;
+    } // PushEfu
+
     private Integer DownloadDeviceFileSystem()
     {
         System.out.println("DownloadDeviceFileSystem - Start");
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         Integer Response = 0;
         publish("-= Retreiving Filesystem Image =-");
 
@@ -241,6 +858,7 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
                     + "Verify your device is properly connected and in programming mode.",
                     "Failed cmdGetfilesystem", JOptionPane.ERROR_MESSAGE);
         }
+        recordPhase(FlashMetrics.Phase.DOWNLOAD, startedAt, startNanos, parseSize(board.filesystem.size), Response);
         publish("DownloadDeviceFileSystem - End");
         return Response;
     }
@@ -248,6 +866,8 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
     private Integer UnpackDeviceFileSystem()
     {
         System.out.println("UnpackDeviceFileSystem - Start");
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         Integer Response = 0;
         publish("-= Unpacking Filesystem Image =-");
 
@@ -258,29 +878,144 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
                     + "Verify your device is properly connected and in programming mode.",
                     "Failed cmdGetfilesystem", JOptionPane.ERROR_MESSAGE);
         }
+        recordPhase(FlashMetrics.Phase.UNPACK, startedAt, startNanos,
+                fileSize(downloadedFs() + ".bin"), Response);
         publish("UnpackDeviceFileSystem - End");
         return Response;
     }
 
     private Integer CreateFileSystemImage()
     {
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         Integer Response = 0;
 
         // Build Filesystem
         publish("-= Building Filesystem Image =-");
 
-        Response = exec(cmdMkfilesystem());
-        if (Response != 0)
+        synchronized (FilesystemImage.lock(fsImage))
         {
-            showMessageDialog(null, "Failed to make Filesytem Image",
-                    "Failed mkfilesystem", JOptionPane.ERROR_MESSAGE);
+            do
+            {
+                String source = ESPSFlashTool.paths.getFsPath();
+                if (config != null)
+                {
+                    try
+                    {
+                        source = config.stage(fsImage);
+                    }
+                    catch (IOException ex)
+                    {
+                        showMessageDialog(null, "Failed to copy the filesystem\n" + ex.getMessage(),
+                                "Failed mkfilesystem", JOptionPane.ERROR_MESSAGE);
+                        Response = -1;
+                        break;
+                    }
+                }
+                List<String> command = cmdMkfilesystem(source);
+                FilesystemImage fs = new FilesystemImage(source, fsImage, command,
+                        (int) parseSize(board.filesystem.block));
+
+                boolean tracked = true;
+                try
+                {
+                    if (fs.isUpToDate())
+                    {
+                        publish("Filesystem unchanged, reusing " + fsImage);
+                        break;
+                    }
+                }
+                catch (IOException ex)
+                {
+                    // Can't tell, so build it and start over with the next build
+                    System.err.println("Filesystem check failed: " + ex.getMessage());
+                    fs.discard();
+                    tracked = false;
+                }
+
+                Response = exec(command);
+                if (Response != 0)
+                {
+                    fs.discard();
+                    showMessageDialog(null, "Failed to make Filesytem Image",
+                            "Failed mkfilesystem", JOptionPane.ERROR_MESSAGE);
+                    break;
+                }
+
+                try
+                {
+                    if (tracked)
+                    {
+                        publish(fs.update().describe(parseSize(board.filesystem.offset)));
+                    }
+                }
+                catch (IOException ex)
+                {
+                    fs.discard();
+                    System.err.println("Unable to record the filesystem image: " + ex.getMessage());
+                }
+            } while (false);
         }
+        recordPhase(FlashMetrics.Phase.BUILD, startedAt, startNanos, fileSize(fsImage), Response);
         publish("-= Building Filesystem Image - Done =-");
         return Response;
     }
 
+    // Quick look at the chip: family, MAC and flash, without loading the stub or touching flash
+    private Integer IdentifyDevice()
+    {
+        Integer Response = exec(cmdEsptoolIdentify());
+        if (Response == 0 && identity.isKnown())
+        {
+            publish("Identified " + identity);
+        }
+        else
+        {
+            publish("Unable to identify the device on " + port);
+            Response = (Response == 0) ? -1 : Response;
+        }
+        return Response;
+    } // IdentifyDevice
+
+    /**
+     * Null when the port's identity fits the board, or nothing is known yet. The cached identity is only a hint, a
+     * module swapped on a jig keeps the port, so a mismatch is confirmed with a fresh probe before the job is refused.
+     */
+    private String checkChip()
+    {
+        switch (flashAction)
+        {
+            case ERASE_FLASH:
+            case DOWNLOAD_FILESYSTEM:
+            case UPLOAD_FIRMWARE:
+            case CREATE_AND_UPLOAD_ALL:
+            {
+                ChipIdentity known = ChipIdentity.get(port);
+                if (known == null || known.mismatch(board) == null)
+                {
+                    return null;
+                }
+                publish("Last seen on " + port + ": " + known + ", checking again");
+                if (IdentifyDevice() != 0)
+                {
+                    // Can't tell what is there now, the job finds out for itself
+                    ChipIdentity.forget(port);
+                    return null;
+                }
+                ChipIdentity.update(port, identity);
+                return identity.mismatch(board);
+            }
+            default:
+            {
+                return null;
+            }
+        }
+    } // checkChip
+
     private Integer EraseDeviceFlash()
     {
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         Integer Response = 0;
 
         publish("\n-= Erasing ESP Flash =-");
@@ -292,41 +1027,154 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
                     + "Verify your device is properly connected and in programming mode.",
                     "Failed mkfilesystem", JOptionPane.ERROR_MESSAGE);
         }
+        recordPhase(FlashMetrics.Phase.ERASE, startedAt, startNanos, 0, Response);
         publish("\n-= Erasing ESP Flash - Done =-");
 
         return Response;
     }
 
+    /**
+     * Ask the device for the MD5 of each region the upload would write and compare it with the local images, one
+     * esptool run. Returns the offsets that already hold their image, empty when the device couldn't be checked.
+     */
+    private Set<Long> VerifyDeviceFlash()
+    {
+        if (!FLASH_CHECK)
+        {
+            return Collections.<Long>emptySet();
+        }
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+
+        publish("\n-= Checking Device Flash =-");
+        verified = new LinkedHashMap<>();
+        verifying = -1;
+        // Differences make esptool fail, that is an answer here and not an error
+        Integer Response = exec(cmdEsptoolVerify());
+        boolean checked = !verified.isEmpty() && !isCancelled();
+        Set<Long> current = new HashSet<>();
+        for (Map.Entry<Long, Boolean> entry : verified.entrySet())
+        {
+            if (checked && entry.getValue())
+            {
+                current.add(entry.getKey());
+            }
+        }
+        verified = null;
+
+        long bytes = fileSize(fsImage);
+        for (Board.Binfile binfile : board.binfiles)
+        {
+            bytes += fileSize(board.getPath(binfile.name));
+        }
+        recordPhase(FlashMetrics.Phase.VERIFY, startedAt, startNanos, bytes, checked ? 0 : Response);
+        if (!checked)
+        {
+            publish("Unable to check the device flash, erasing and writing everything");
+        }
+        else if (current.contains(parseSize(board.filesystem.offset)))
+        {
+            publish("Device filesystem is up to date, " + current.size() + " of " + (board.binfiles.size() + 1)
+                    + " image(s) already on the device");
+        }
+        else
+        {
+            publish("Device filesystem differs, erasing and writing everything");
+        }
+        publish("\n-= Checking Device Flash - Done =-");
+        return current;
+    } // VerifyDeviceFlash
+
     private Integer UploadFwImages()
     {
+        return UploadFwImages(Collections.<Long>emptySet());
+    }
+
+    // Write the firmware and filesystem, leaving out the offsets in current, which already hold their image
+    private Integer UploadFwImages(Set<Long> current)
+    {
+        long startedAt = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         Integer Response = 0;
 
         publish("\n-= Uploading Firmware =-");
 
-        Response = exec(cmdEsptool());
+        long bytes = 0;
+        if (!current.contains(parseSize(board.filesystem.offset)))
+        {
+            bytes += fileSize(fsImage);
+        }
+        for (Board.Binfile binfile : board.binfiles)
+        {
+            if (!current.contains(parseSize(binfile.offset)))
+            {
+                bytes += fileSize(board.getPath(binfile.name));
+            }
+        }
+
+        List<String> command = cmdEsptool(current);
+        if (command.isEmpty())
+        {
+            publish("Nothing to write, the device already has this firmware and filesystem");
+        }
+        else
+        {
+            Response = exec(command);
+        }
         if (Response != 0)
         {
             showMessageDialog(null, "Failed to program the ESP.\n"
                     + "Verify your device is properly connected and in programming mode.",
                     "Failed esptool", JOptionPane.ERROR_MESSAGE);
         }
+        recordPhase(FlashMetrics.Phase.UPLOAD, startedAt, startNanos, bytes, Response);
         publish("\n-= Uploading Firmware - Done =-");
         return Response;
+    } // UploadFwImages
+
+    // Where this task's board and port keep the filesystem read back from the device, the image is this plus .bin
+    private String downloadedFs()
+    {
+        return ESPSFlashTool.deviceConfig.GetDownloadedFsPath(board, port);
     }
 
     private List<String> cmdUnpackfilesystem()
     {
-        String DirName = ESPSFlashTool.deviceConfig.GetDownloadedFsPath();
+        String DirName = downloadedFs();
         List< String> list = new ArrayList<>();
         list.add(ESPSFlashTool.paths.getMkfilesystem());
         list.add("-b");
-        list.add(ESPSFlashTool.board.filesystem.block);
+        list.add(board.filesystem.block);
         list.add("-p");
-        list.add(ESPSFlashTool.board.filesystem.page);
+        list.add(board.filesystem.page);
         list.add("-s");
-        list.add(ESPSFlashTool.board.filesystem.size);
+        list.add(board.filesystem.size);
         list.add("--unpack");
-        list.add("\"" + DirName + "\" \"" + DirName + ".bin\"");
+        list.add(DirName);
+        list.add(DirName + ".bin");
+        return list;
+    }
+
+    private List<String> cmdEsptoolIdentify()
+    {
+        List<String> list = new ArrayList<>();
+
+        list.add(ESPSFlashTool.paths.getPython());
+        list.add(ESPSFlashTool.paths.getEsptool());
+        list.add("--chip");
+        list.add("auto");
+        list.add("--baud");
+        list.add("115200");
+        list.add("--port");
+        list.add(port.getDevicePath());
+
+        // Same reset handling as the upload
+        list.addAll(Arrays.asList(board.esptool.options.split(" ")));
+
+        // The ROM loader can read the flash ID itself, uploading the stub would take longer than the probe
+        list.add("--no-stub");
+        list.add("flash_id");
+
         return list;
     }
 
@@ -337,18 +1185,14 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
         list.add(ESPSFlashTool.paths.getPython());
         list.add(ESPSFlashTool.paths.getEsptool());
         list.add("--chip");
-        list.add(ESPSFlashTool.board.chip);
+        list.add(board.chip);
         list.add("--baud");
-        list.add(ESPSFlashTool.board.esptool.baudrate);
+        list.add(board.esptool.baudrate);
         list.add("--port");
-        if (ESPSFlashTool.paths.IsWindows())
-        {
-            list.add(ESPSFlashTool.port.getPort().getSystemPortName());
-        }
-        else
-        {
-            list.add("/dev/" + ESPSFlashTool.port.getPort().getSystemPortName());
-        }
+        list.add(port.getDevicePath());
+
+        // Same reset handling as the upload
+        list.addAll(Arrays.asList(board.esptool.options.split(" ")));
 
         list.add("erase_flash");
         // list.add(board.filesystem.offset);
@@ -357,95 +1201,128 @@ class ImageTask extends SwingWorker<ImageTaskActionToPerform, String>
         return list;
     }
 
-    private List<String> cmdEsptool()
+    // verify_flash over everything the upload writes, with the upload's flash parameters so bootloader headers match
+    private List<String> cmdEsptoolVerify()
     {
         List<String> list = new ArrayList<>();
 
         list.add(ESPSFlashTool.paths.getPython());
         list.add(ESPSFlashTool.paths.getEsptool());
         list.add("--chip");
-        list.add(ESPSFlashTool.board.chip);
+        list.add(board.chip);
         list.add("--baud");
-        list.add(ESPSFlashTool.board.esptool.baudrate);
+        list.add(board.esptool.baudrate);
         list.add("--port");
-        if (ESPSFlashTool.paths.IsWindows())
+        list.add(port.getDevicePath());
+
+        // Same reset handling as the upload
+        list.addAll(Arrays.asList(board.esptool.options.split(" ")));
+
+        list.add("verify_flash");
+        List<String> flashcmd = Arrays.asList(board.esptool.flashcmd.split(" "));
+        for (int i = 0; i + 1 < flashcmd.size(); i++)
         {
-            list.add(ESPSFlashTool.port.getPort().getSystemPortName());
+            if (flashcmd.get(i).matches("--flash_(mode|freq|size)|-f[mfs]"))
+            {
+                list.add(flashcmd.get(i));
+                list.add(flashcmd.get(++i));
+            }
         }
-        else
+
+        for (Board.Binfile binfile : board.binfiles)
         {
-            list.add("/dev/" + ESPSFlashTool.port.getPort().getSystemPortName());
+            list.add(binfile.offset);
+            list.add(board.getPath(binfile.name));
         }
+        list.add(board.filesystem.offset);
+        list.add(fsImage);
+
+        return list;
+    }
+
+    // Empty when every offset is in current
+    private List<String> cmdEsptool(Set<Long> current)
+    {
+        List<String> list = new ArrayList<>();
+
+        list.add(ESPSFlashTool.paths.getPython());
+        list.add(ESPSFlashTool.paths.getEsptool());
+        list.add("--chip");
+        list.add(board.chip);
+        list.add("--baud");
+        list.add(board.esptool.baudrate);
+        list.add("--port");
+        list.add(port.getDevicePath());
 
         // Reset stuff is located in the esptool options
-        list.addAll(Arrays.asList(ESPSFlashTool.board.esptool.options.split(" ")));
+        list.addAll(Arrays.asList(board.esptool.options.split(" ")));
 
         // Flash command can carry options as well
-        list.addAll(Arrays.asList(ESPSFlashTool.board.esptool.flashcmd.split(" ")));
+        list.addAll(Arrays.asList(board.esptool.flashcmd.split(" ")));
 
         // Add all the bin files
-        for (Board.Binfile binfile : ESPSFlashTool.board.binfiles)
+        int images = 0;
+        for (Board.Binfile binfile : board.binfiles)
         {
-            list.add(binfile.offset);
-            list.add(ESPSFlashTool.paths.getFwPath() + binfile.name);
+            if (!current.contains(parseSize(binfile.offset)))
+            {
+                list.add(binfile.offset);
+                list.add(board.getPath(binfile.name));
+                images++;
+            }
         }
 
         // And finally the filesystem
-        list.add(ESPSFlashTool.board.filesystem.offset);
-        list.add(ESPSFlashTool.paths.getFwPath() + fsBin);
+        if (!current.contains(parseSize(board.filesystem.offset)))
+        {
+            list.add(board.filesystem.offset);
+            list.add(fsImage);
+            images++;
+        }
 
-        return list;
+        return (images == 0) ? new ArrayList<String>() : list;
     }
 
     private List<String> cmdGetfilesystem()
     {
         List<String> list = new ArrayList<>();
 
-        if (null != ESPSFlashTool.port.getPort())
+        if (null != port && null != port.getTransport())
         {
             list.add(ESPSFlashTool.paths.getPython());
             list.add(ESPSFlashTool.paths.getEsptool());
             list.add("--chip");
-            list.add(ESPSFlashTool.board.chip);
+            list.add(board.chip);
             list.add("--baud");
-            list.add(ESPSFlashTool.board.esptool.baudrate);
+            list.add(board.esptool.baudrate);
             list.add("--port");
-            if (ESPSFlashTool.paths.IsWindows())
-            {
-                list.add(ESPSFlashTool.port.getPort().getSystemPortName());
-            }
-            else
-            {
-                list.add("/dev/" + ESPSFlashTool.port.getPort().getSystemPortName());
-            }
+            list.add(port.getDevicePath());
 
-            list.add("--before");
-            list.add("default_reset");
-            list.add("--after");
-            list.add("hard_reset");
+            // Reset stuff is located in the esptool options
+            list.addAll(Arrays.asList(board.esptool.options.split(" ")));
             list.add("read_flash");
-            list.add(ESPSFlashTool.board.filesystem.offset);
-            list.add(ESPSFlashTool.board.filesystem.size);
-            list.add(ESPSFlashTool.deviceConfig.GetDownloadedFsPath() + ".bin");
+            list.add(board.filesystem.offset);
+            list.add(board.filesystem.size);
+            list.add(downloadedFs() + ".bin");
         }
 
         return list;
     }
 
-    private List<String> cmdMkfilesystem()
+    private List<String> cmdMkfilesystem(String source)
     {
         List<String> list = new ArrayList<>();
 
         list.add(ESPSFlashTool.paths.getMkfilesystem());
         list.add("-c");
-        list.add(ESPSFlashTool.paths.getFsPath());
+        list.add(source);
         list.add("-p");
-        list.add(ESPSFlashTool.board.filesystem.page);
+        list.add(board.filesystem.page);
         list.add("-b");
-        list.add(ESPSFlashTool.board.filesystem.block);
+        list.add(board.filesystem.block);
         list.add("-s");
-        list.add(ESPSFlashTool.board.filesystem.size);
-        list.add(ESPSFlashTool.paths.getFwPath() + fsBin);
+        list.add(board.filesystem.size);
+        list.add(fsImage);
 
         return list;
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+// A serial port on this machine, through jSerialComm
+class LocalSerialTransport implements SerialTransport
+{
+
+    private final SerialPort port;
+
+    LocalSerialTransport(SerialPort port)
+    {
+        this.port = port;
+    }
+
+    public SerialPort getPort()
+    {
+        return port;
+    }
+
+    @Override
+    public String getName()
+    {
+        return port.getSystemPortName();
+    }
+
+    @Override
+    public String getPath()
+    {
+        return port.getSystemPortPath();
+    }
+
+    // The bare port name on Windows (COMx), the full device path elsewhere
+    @Override
+    public String getDevicePath()
+    {
+        if (ESPSFlashTool.paths.IsWindows())
+        {
+            return port.getSystemPortName();
+        }
+        return port.getSystemPortPath();
+    }
+
+    // VID:PID:serial - identifies the physical device independent of the path it enumerated on
+    @Override
+    public String getIdentity()
+    {
+        String serial = port.getSerialNumber();
+        return String.format("%04X:%04X:%s", port.getVendorID() & 0xFFFF, port.getProductID() & 0xFFFF,
+                (serial == null) ? "" : serial);
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return port.getDescriptivePortName();
+    }
+
+    @Override
+    public boolean open(int baudrate)
+    {
+        port.setComPortParameters(baudrate, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
+        port.setComPortTimeouts(SerialPort.TIMEOUT_NONBLOCKING, 0, 0);
+        return port.isOpen() || port.openPort();
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return port.isOpen();
+    }
+
+    @Override
+    public int read(byte[] buffer, int length)
+    {
+        int available = port.bytesAvailable();
+        if (available <= 0)
+        {
+            return available;
+        }
+        return port.readBytes(buffer, Math.min(available, length));
+    }
+
+    @Override
+    public void close()
+    {
+        port.closePort();
+    }
+} // class LocalSerialTransport
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import javax.swing.Timer;
+
+/**
+ * Drains a tool process' output in bulk on its own thread. Everything read goes straight to the log sink, while the UI gets
+ * the accumulated text as one chunk per frame instead of one document update per line.
+ */
+class OutputPump implements Runnable
+{
+
+    public interface Sink
+    {
+
+        // Called on the EDT with everything read since the last frame
+        void append(String chunk);
+    }
+
+    public interface LineListener
+    {
+
+        // Called on the pump thread for every complete line of output, without the line ending
+        void line(String line);
+    }
+
+    public static final int DEFAULT_FRAME_MS = 50;
+
+    private final InputStream input;
+    private final Writer log;
+    private final Sink sink;
+    private final StringBuilder pending = new StringBuilder();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final StringBuilder line = new StringBuilder();
+    private final Timer frameTimer;
+    private LineListener lineListener = null;
+    private volatile long charsRead = 0;
+
+    public OutputPump(InputStream input, Writer log, Sink sink, int frameMs)
+    {
+        this.input = input;
+        this.log = log;
+        this.sink = sink;
+        frameTimer = new Timer(frameMs, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                flush();
+            }
+        });
+        frameTimer.setCoalesce(true);
+    }
+
+    // Optional, must be set before start()
+    public void setLineListener(LineListener lineListener)
+    {
+        this.lineListener = lineListener;
+    }
+
+    public void start()
+    {
+        frameTimer.start();
+        TaskExecutor.execute(this);
+    }
+
+    @Override
+    public void run()
+    {
+        char[] buffer = new char[8192];
+        try ( Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8))
+        {
+            int count;
+            while ((count = reader.read(buffer, 0, buffer.length)) != -1)
+            {
+                charsRead += count;
+                if (log != null)
+                {
+                    log.write(buffer, 0, count);
+                }
+                synchronized (pending)
+                {
+                    pending.append(buffer, 0, count);
+                }
+                if (lineListener != null)
+                {
+                    splitLines(buffer, count);
+                }
+            }
+            if (lineListener != null && line.length() > 0)
+            {
+                lineListener.line(line.toString());
+            }
+        }
+        catch (IOException ex)
+        {
+            // Stream closed under us, typically because the process was killed
+        }
+        finally
+        {
+            frameTimer.stop();
+            TaskExecutor.runOnEdt(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            });
+            finished.countDown();
+        }
+    } // run
+
+    // esptool ends progress lines with a bare carriage return, treat it as a line end too
+    private void splitLines(char[] buffer, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            char c = buffer[i];
+            if (c == '\n' || c == '\r')
+            {
+                if (line.length() > 0)
+                {
+                    lineListener.line(line.toString());
+                    line.setLength(0);
+                }
+            }
+            else
+            {
+                line.append(c);
+            }
+        }
+    } // splitLines
+
+    // Block until the stream hits EOF
+    public void waitFor() throws InterruptedException
+    {
+        finished.await();
+    }
+
+    public long getCharsRead()
+    {
+        return charsRead;
+    }
+
+    // Hand everything pending to the sink. Runs on the EDT.
+    private void flush()
+    {
+        String chunk;
+        synchronized (pending)
+        {
+            if (pending.length() == 0)
+            {
+                return;
+            }
+            // esptool redraws progress with carriage returns, the text area just shows them as new lines
+            chunk = pending.toString().replace("\r\n", "\n").replace('\r', '\n');
+            pending.setLength(0);
+        }
+        sink.append(chunk);
+    } // flush
+} // class OutputPump
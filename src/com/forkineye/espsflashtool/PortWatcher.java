@@ -0,0 +1,247 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortInvalidPortException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Background serial port discovery. Polls the port list and reports boards as they come and go.
+class PortWatcher
+{
+
+    public interface Listener
+    {
+
+        void portAttached(ESPSSerialPort port);
+
+        void portDetached(ESPSSerialPort port);
+    }
+
+    // Extra device paths to watch (comma separated), e.g. pseudo-terminals standing in for boards, or remote slots as
+    // rfc2217://host:port and socket://host:port serial servers, or captures to play back as replay:<file>[?speed=N].
+    // Remote slots and replays are always listed.
+    public static final String EXTRA_PORTS_PROPERTY = "espsflashtool.ports.extra";
+
+    private final long pollIntervalMs;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, ESPSSerialPort> knownPorts = new LinkedHashMap<>();
+    private String[] lastDevListing = null;
+    private ScheduledExecutorService scheduler = null;
+
+    public PortWatcher(long pollIntervalMs)
+    {
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    public synchronized void start()
+    {
+        if (scheduler != null)
+        {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "PortWatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    poll();
+                }
+                catch (Exception ex)
+                {
+                    // keep watching - a single bad enumeration should not kill discovery
+                    ex.printStackTrace(System.err);
+                }
+            }
+        }, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+    } // start
+
+    public synchronized void stop()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    } // stop
+
+    /**
+     * Diff the current port list against the last one and fire attach / detach events. Safe to call directly, e.g. to fill
+     * the port list synchronously at startup.
+     */
+    public void poll()
+    {
+        List<ESPSSerialPort> attached = new ArrayList<>();
+        List<ESPSSerialPort> detached = new ArrayList<>();
+
+        synchronized (this)
+        {
+            if (!devListingChanged())
+            {
+                return;
+            }
+
+            Map<String, ESPSSerialPort> currentPorts = new LinkedHashMap<>();
+            for (ESPSSerialPort port : enumerate())
+            {
+                currentPorts.put(port.getKey(), port);
+            }
+
+            for (Map.Entry<String, ESPSSerialPort> entry : knownPorts.entrySet())
+            {
+                if (!currentPorts.containsKey(entry.getKey()))
+                {
+                    detached.add(entry.getValue());
+                }
+            }
+            for (Map.Entry<String, ESPSSerialPort> entry : currentPorts.entrySet())
+            {
+                if (!knownPorts.containsKey(entry.getKey()))
+                {
+                    knownPorts.put(entry.getKey(), entry.getValue());
+                    attached.add(entry.getValue());
+                }
+            }
+            for (ESPSSerialPort port : detached)
+            {
+                knownPorts.remove(port.getKey());
+            }
+        }
+
+        // Fire outside the lock so listeners are free to call back into the watcher
+        for (ESPSSerialPort port : detached)
+        {
+            System.out.println("Port detached: " + port + " [" + port.getIdentity() + "]");
+            for (Listener listener : listeners)
+            {
+                listener.portDetached(port);
+            }
+        }
+        for (ESPSSerialPort port : attached)
+        {
+            System.out.println("Port attached: " + port + " [" + port.getIdentity() + "]");
+            for (Listener listener : listeners)
+            {
+                listener.portAttached(port);
+            }
+        }
+    } // poll
+
+    public synchronized List<ESPSSerialPort> getPorts()
+    {
+        return new ArrayList<>(knownPorts.values());
+    }
+
+    private List<ESPSSerialPort> enumerate()
+    {
+        List<ESPSSerialPort> ports = new ArrayList<>();
+        for (SerialPort serial : SerialPort.getCommPorts())
+        {
+            ports.add(new ESPSSerialPort(serial));
+        }
+
+        String extra = System.getProperty(EXTRA_PORTS_PROPERTY, "");
+        for (String path : extra.split(","))
+        {
+            path = path.trim();
+            if (path.contains("://") && !RemoteSerialTransport.isUrl(path))
+            {
+                System.err.println("Ignoring " + path + ", expected rfc2217://host:port or socket://host:port");
+                continue;
+            }
+            if (RemoteSerialTransport.isUrl(path) || SerialReplay.isUrl(path))
+            {
+                ports.add(new ESPSSerialPort(path));
+                continue;
+            }
+            if (path.isEmpty() || !new File(path).exists())
+            {
+                continue;
+            }
+            try
+            {
+                ports.add(new ESPSSerialPort(SerialPort.getCommPort(path)));
+            }
+            catch (SerialPortInvalidPortException ex)
+            {
+                System.err.println("Ignoring invalid port " + path + ": " + ex.getMessage());
+            }
+        }
+        return ports;
+    } // enumerate
+
+    /**
+     * Full enumeration walks sysfs / the registry and is comparatively expensive. On POSIX systems, a device node listing
+     * is enough to tell if anything could have changed since the last poll.
+     */
+    private boolean devListingChanged()
+    {
+        if (ESPSFlashTool.paths.IsWindows())
+        {
+            return true;
+        }
+
+        String[] listing = new File("/dev").list();
+        if (listing == null)
+        {
+            return true;
+        }
+        Arrays.sort(listing);
+
+        boolean changed = (lastDevListing == null) || !Arrays.equals(listing, lastDevListing);
+        lastDevListing = listing;
+
+        // Extra ports may be pseudo-terminals under /dev/pts, which the top level listing does not cover
+        if (!System.getProperty(EXTRA_PORTS_PROPERTY, "").isEmpty())
+        {
+            changed = true;
+        }
+        return changed;
+    } // devListingChanged
+} // class PortWatcher
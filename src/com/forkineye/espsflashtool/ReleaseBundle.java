@@ -0,0 +1,375 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A whole release in one file, opened in place. Layout, little endian:
+ * <pre>
+ *   header   "ESPSBNDL", u32 format version, u32 0, u64 index offset, u64 index length
+ *   entries  firmware.json, every bin file it names and the ELFs, stored as is, each starting on a 4KB boundary
+ *   index    UTF-8 JSON: release, version and every entry's name, offset, size and SHA-256
+ * </pre>
+ * Opening reads the header and the index, nothing else. The file is memory mapped and each entry is a read-only slice
+ * of the mapping, checked against its hash the first time it is used. esptool needs real files to flash, so an entry is
+ * copied out into the catalog's object store the first time a job flashes it, once per content.
+ */
+class ReleaseBundle
+{
+
+    public static final String EXTENSION = ".espsbundle";
+    private static final byte[] MAGIC = "ESPSBNDL".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ALIGN = 4096;
+    private static final String MANIFEST = "firmware.json";
+
+    private static class Entry
+    {
+
+        String name;
+        long offset;
+        long size;
+        String sha256;
+    }
+
+    private static class Index
+    {
+
+        String release = "";
+        String version = "";
+        List<Entry> entries = new ArrayList<>();
+    }
+
+    private final File file;
+    private final ByteBuffer mapped;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Set<String> verified = new HashSet<>();
+    private final FTConfig.FTConfigData config;
+
+    private ReleaseBundle(File file, ByteBuffer mapped, Index index) throws IOException
+    {
+        this.file = file;
+        this.mapped = mapped;
+        for (Entry entry : index.entries)
+        {
+            if (entry.name == null || entry.sha256 == null || entry.offset < HEADER_SIZE || entry.size < 0
+                    || entry.offset + entry.size > mapped.capacity())
+            {
+                throw new IOException(file.getName() + " has a bad index entry " + entry.name);
+            }
+            entries.put(entry.name, entry);
+        }
+        if (!entries.containsKey(MANIFEST))
+        {
+            throw new IOException(file.getName() + " has no " + MANIFEST);
+        }
+        try
+        {
+            String manifest = new String(bytes(map(MANIFEST)), StandardCharsets.UTF_8);
+            config = new FTConfig().parse(new StringReader(manifest));
+        }
+        catch (JsonParseException ex)
+        {
+            throw new IOException("bad " + MANIFEST + " in " + file.getName() + ": " + ex.getMessage());
+        }
+        if (config == null || config.boards == null || config.boards.isEmpty())
+        {
+            throw new IOException("no boards in " + file.getName());
+        }
+    } // ReleaseBundle
+
+    /**
+     * Map a bundle and read its index.
+     */
+    public static ReleaseBundle open(String path) throws IOException
+    {
+        File file = new File(path);
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file.getName() + " is not a release bundle");
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[MAGIC.length];
+            mapped.duplicate().get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                throw new IOException(file.getName() + " is not a release bundle");
+            }
+            int format = mapped.getInt(8);
+            long indexOffset = mapped.getLong(16);
+            long indexLength = mapped.getLong(24);
+            if (format != FORMAT)
+            {
+                throw new IOException(file.getName() + " is bundle format " + format + ", this tool reads " + FORMAT);
+            }
+            if (indexOffset < HEADER_SIZE || indexLength < 0 || indexOffset + indexLength > size)
+            {
+                throw new IOException(file.getName() + " is truncated");
+            }
+
+            Index index;
+            try
+            {
+                index = new Gson().fromJson(new String(bytes(slice(mapped, indexOffset, indexLength)),
+                        StandardCharsets.UTF_8), Index.class);
+            }
+            catch (JsonParseException ex)
+            {
+                throw new IOException(file.getName() + " has a bad index: " + ex.getMessage());
+            }
+            if (index == null || index.entries == null)
+            {
+                throw new IOException(file.getName() + " has no index");
+            }
+            return new ReleaseBundle(file, mapped, index);
+        }
+    } // open
+
+    /**
+     * Pack a firmware directory, firmware.json plus the bin files it names, into one bundle file.
+     */
+    public static void create(String fwDir, String target) throws IOException
+    {
+        File source = new File(fwDir);
+        FTConfig.FTConfigData data;
+        try ( Reader reader = Files.newBufferedReader(new File(source, MANIFEST).toPath(), StandardCharsets.UTF_8))
+        {
+            data = new FTConfig().parse(reader);
+        }
+        catch (JsonParseException ex)
+        {
+            throw new IOException("bad " + MANIFEST + " in " + fwDir + ": " + ex.getMessage());
+        }
+        if (data == null || data.boards == null || data.boards.isEmpty())
+        {
+            throw new IOException("no boards in " + MANIFEST + " in " + fwDir);
+        }
+
+        List<String> names = new ArrayList<>();
+        names.add(MANIFEST);
+        for (Board board : data.boards)
+        {
+            for (Board.Binfile binfile : board.binfiles)
+            {
+                if (!names.contains(binfile.name))
+                {
+                    names.add(binfile.name);
+                }
+            }
+            if (board.appbin != null && !board.appbin.isEmpty() && !names.contains(board.appbin))
+            {
+                names.add(board.appbin);
+            }
+            // The ELF rides along when firmware.json names it or it sits next to the app bin
+            String elf = board.getElfName();
+            if (!names.contains(elf) && (board.elf != null && !board.elf.isEmpty() || new File(source, elf).isFile()))
+            {
+                names.add(elf);
+            }
+        }
+
+        Index index = new Index();
+        index.release = (data.release == null) ? "" : data.release;
+        index.version = (data.version == null) ? "" : data.version;
+        File temp = new File(target + ".tmp");
+        try ( FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            long position = HEADER_SIZE;
+            for (String name : names)
+            {
+                File file = new File(source, name);
+                if (!file.isFile())
+                {
+                    throw new IOException(name + " is missing from " + fwDir);
+                }
+                position = align(position);
+                Entry entry = new Entry();
+                entry.name = name;
+                entry.offset = position;
+                entry.sha256 = copy(file, out, position);
+                entry.size = file.length();
+                index.entries.add(entry);
+                position += entry.size;
+            }
+
+            byte[] json = new Gson().toJson(index).getBytes(StandardCharsets.UTF_8);
+            position = align(position);
+            write(out, ByteBuffer.wrap(json), position);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(FORMAT).putInt(0).putLong(position).putLong(json.length);
+            header.flip();
+            write(out, header, 0);
+            out.force(true);
+        }
+        catch (IOException ex)
+        {
+            temp.delete();
+            throw ex;
+        }
+        Files.move(temp.toPath(), new File(target).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } // create
+
+    public String getPath()
+    {
+        return file.getPath();
+    }
+
+    // The release as the catalog lists it, id is the bundle's file name
+    public FirmwareCatalog.Release toRelease()
+    {
+        FirmwareCatalog.Release release = new FirmwareCatalog.Release();
+        String name = file.getName();
+        release.id = name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name;
+        release.release = (config.release == null) ? "" : config.release;
+        release.version = (config.version == null) ? "" : config.version;
+        release.baudrate = config.baudrate;
+        release.imported = file.lastModified();
+        release.source = file.getPath();
+        release.boards = config.boards;
+        for (Entry entry : entries.values())
+        {
+            if (!entry.name.equals(MANIFEST))
+            {
+                release.files.put(entry.name, entry.sha256);
+            }
+        }
+        release.bundle = this;
+        return release;
+    } // toRelease
+
+    public boolean contains(String name)
+    {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * A read-only view of an entry, straight out of the mapping. The first call checks it against its hash.
+     */
+    public ByteBuffer map(String name) throws IOException
+    {
+        Entry entry = entries.get(name);
+        if (entry == null)
+        {
+            throw new IOException(name + " is not in " + file.getName());
+        }
+        ByteBuffer view = entry(entry);
+        synchronized (verified)
+        {
+            if (!verified.contains(name))
+            {
+                MessageDigest digest = ImageCache.sha256();
+                digest.update(view.duplicate());
+                if (!ImageCache.hex(digest.digest()).equals(entry.sha256))
+                {
+                    throw new IOException(name + " in " + file.getName() + " is corrupt, its hash doesn't match");
+                }
+                verified.add(name);
+            }
+        }
+        return view;
+    } // map
+
+    /**
+     * A file esptool can flash for an entry, copied into the catalog's object store the first time it's needed.
+     */
+    public String extract(String name, FirmwareCatalog catalog) throws IOException
+    {
+        ByteBuffer view = map(name);
+        return catalog.store(view, entries.get(name).sha256);
+    }
+
+    private ByteBuffer entry(Entry entry)
+    {
+        return slice(mapped, entry.offset, entry.size);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, long length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static long align(long position)
+    {
+        return (position + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+    // Copy a file into the bundle at position, hashing it on the way
+    private static String copy(File file, FileChannel out, long position) throws IOException
+    {
+        MessageDigest digest = ImageCache.sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try ( FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            while (in.read(buffer) != -1)
+            {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                position += write(out, buffer, position);
+                buffer.clear();
+            }
+        }
+        return ImageCache.hex(digest.digest());
+    } // copy
+
+    private static int write(FileChannel out, ByteBuffer buffer, long position) throws IOException
+    {
+        int written = 0;
+        while (buffer.hasRemaining())
+        {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+} // class ReleaseBundle
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A serial line on another machine, served over TCP: rfc2217://host:port (RFC 2217, e.g. esp_rfc2217_server or
+ * ser2net) or socket://host:port (raw bytes). esptool opens the same URLs through pyserial, so a slot can sit on a small
+ * USB host anywhere on the line. A raw socket carries no reset lines, boards on one need "--before no_reset" or a
+ * server that resets them.
+ *
+ * The monitor side is a non-blocking channel read into a reused direct buffer. For RFC 2217 the line is set up with
+ * the monitor's baud rate and 8N1, and telnet commands are filtered out of the data.
+ */
+class RemoteSerialTransport implements SerialTransport
+{
+
+    private static final Pattern URL = Pattern.compile("^(rfc2217|socket)://([^:/?]+|\\[[^\\]]+\\]):(\\d+)(?:[/?].*)?$");
+    private static final int CONNECT_TIMEOUT_MS = Integer.getInteger("espsflashtool.remote.timeout", 1000);
+
+    // Telnet
+    private static final int IAC = 255;
+    private static final int DONT = 254;
+    private static final int DO = 253;
+    private static final int WONT = 252;
+    private static final int WILL = 251;
+    private static final int SB = 250;
+    private static final int SE = 240;
+    private static final int BINARY = 0;
+    private static final int SGA = 3;
+    private static final int COM_PORT_OPTION = 44;
+
+    // RFC 2217 client commands
+    private static final int SET_BAUDRATE = 1;
+    private static final int SET_DATASIZE = 2;
+    private static final int SET_PARITY = 3;
+    private static final int SET_STOPSIZE = 4;
+    private static final int SET_CONTROL = 5;
+
+    // Where the telnet filter is in the incoming bytes
+    private static final int DATA = 0;
+    private static final int COMMAND = 1;
+    private static final int OPTION = 2;
+    private static final int SUBNEGOTIATION = 3;
+    private static final int SUBNEGOTIATION_IAC = 4;
+
+    private final String url;
+    private final boolean rfc2217;
+    private final String host;
+    private final int port;
+
+    private volatile SocketChannel channel = null;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(16 * 1024);
+    private int state = DATA;
+    private int command = 0;
+    private final Set<Integer> refused = new HashSet<>();
+
+    RemoteSerialTransport(String url) throws IllegalArgumentException
+    {
+        Matcher matcher = URL.matcher(url.trim());
+        if (!matcher.matches())
+        {
+            throw new IllegalArgumentException("not a serial server URL: " + url
+                    + ", expected rfc2217://host:port or socket://host:port");
+        }
+        this.url = url.trim();
+        this.rfc2217 = matcher.group(1).equals("rfc2217");
+        this.host = matcher.group(2).replaceAll("^\\[|\\]$", "");
+        this.port = Integer.parseInt(matcher.group(3));
+    }
+
+    public static boolean isUrl(String value)
+    {
+        return value != null && URL.matcher(value.trim()).matches();
+    }
+
+    @Override
+    public String getName()
+    {
+        return host + ":" + port;
+    }
+
+    @Override
+    public String getPath()
+    {
+        return url;
+    }
+
+    @Override
+    public String getDevicePath()
+    {
+        return url;
+    }
+
+    @Override
+    public String getIdentity()
+    {
+        return "remote";
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return rfc2217 ? "RFC 2217 serial server" : "TCP serial server";
+    }
+
+    @Override
+    public synchronized boolean open(int baudrate)
+    {
+        if (isOpen())
+        {
+            return true;
+        }
+        SocketChannel opened = null;
+        try
+        {
+            opened = SocketChannel.open();
+            opened.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            opened.socket().setTcpNoDelay(true);
+            if (rfc2217)
+            {
+                write(opened, negotiation(baudrate));
+            }
+            opened.configureBlocking(false);
+            in.clear();
+            state = DATA;
+            refused.clear();
+            channel = opened;
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Unable to reach " + url + ": " + ex.getMessage());
+            closeQuietly(opened);
+            return false;
+        }
+    } // open
+
+    @Override
+    public boolean isOpen()
+    {
+        SocketChannel current = channel;
+        return current != null && current.isOpen();
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int length)
+    {
+        SocketChannel current = channel;
+        if (current == null || !current.isOpen())
+        {
+            return -1;
+        }
+        try
+        {
+            in.clear();
+            in.limit(Math.min(length, in.capacity()));
+            int count = current.read(in);
+            if (count < 0)
+            {
+                close();
+                return -1;
+            }
+            in.flip();
+            return rfc2217 ? filter(current, buffer) : copy(buffer);
+        }
+        catch (IOException ex)
+        {
+            close();
+            return -1;
+        }
+    } // read
+
+    @Override
+    public synchronized void close()
+    {
+        closeQuietly(channel);
+        channel = null;
+    }
+
+    private int copy(byte[] buffer)
+    {
+        int count = in.remaining();
+        in.get(buffer, 0, count);
+        return count;
+    }
+
+    // Pass data bytes through, answer option requests and drop everything else telnet sends
+    private int filter(SocketChannel current, byte[] buffer) throws IOException
+    {
+        int count = 0;
+        ByteArrayOutputStream replies = null;
+        while (in.hasRemaining())
+        {
+            int b = in.get() & 0xff;
+            switch (state)
+            {
+                case DATA:
+                {
+                    if (b == IAC)
+                    {
+                        state = COMMAND;
+                    }
+                    else
+                    {
+                        buffer[count++] = (byte) b;
+                    }
+                    break;
+                }
+                case COMMAND:
+                {
+                    if (b == IAC)
+                    {
+                        // an escaped 0xFF data byte
+                        buffer[count++] = (byte) b;
+                        state = DATA;
+                    }
+                    else if (b == SB)
+                    {
+                        state = SUBNEGOTIATION;
+                    }
+                    else if (b >= WILL && b <= DONT)
+                    {
+                        command = b;
+                        state = OPTION;
+                    }
+                    else
+                    {
+                        state = DATA;
+                    }
+                    break;
+                }
+                case OPTION:
+                {
+                    // We offered and asked for the options we want up front, anything else is refused once
+                    boolean wanted = b == BINARY || b == SGA || b == COM_PORT_OPTION;
+                    if (!wanted && (command == DO || command == WILL) && refused.add((command << 8) | b))
+                    {
+                        if (replies == null)
+                        {
+                            replies = new ByteArrayOutputStream();
+                        }
+                        replies.write(IAC);
+                        replies.write((command == DO) ? WONT : DONT);
+                        replies.write(b);
+                    }
+                    state = DATA;
+                    break;
+                }
+                case SUBNEGOTIATION:
+                {
+                    // Line and modem state notifications, not needed to show the output
+                    state = (b == IAC) ? SUBNEGOTIATION_IAC : SUBNEGOTIATION;
+                    break;
+                }
+                default:
+                {
+                    state = (b == SE) ? DATA : SUBNEGOTIATION;
+                    break;
+                }
+            }
+        }
+        if (replies != null)
+        {
+            current.configureBlocking(true);
+            write(current, replies.toByteArray());
+            current.configureBlocking(false);
+        }
+        return count;
+    } // filter
+
+    // Options and line settings sent on connect
+    private static byte[] negotiation(int baudrate)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] options =
+        {
+            WILL, BINARY, DO, BINARY, WILL, SGA, DO, SGA, WILL, COM_PORT_OPTION
+        };
+        for (int i = 0; i < options.length; i += 2)
+        {
+            out.write(IAC);
+            out.write(options[i]);
+            out.write(options[i + 1]);
+        }
+        subnegotiate(out, SET_BAUDRATE, new int[]
+        {
+            (baudrate >>> 24) & 0xff, (baudrate >>> 16) & 0xff, (baudrate >>> 8) & 0xff, baudrate & 0xff
+        });
+        subnegotiate(out, SET_DATASIZE, new int[]
+        {
+            8
+        });
+        subnegotiate(out, SET_PARITY, new int[]
+        {
+            1   // none
+        });
+        subnegotiate(out, SET_STOPSIZE, new int[]
+        {
+            1
+        });
+        subnegotiate(out, SET_CONTROL, new int[]
+        {
+            1   // no flow control
+        });
+        return out.toByteArray();
+    } // negotiation
+
+    private static void subnegotiate(ByteArrayOutputStream out, int command, int[] value)
+    {
+        out.write(IAC);
+        out.write(SB);
+        out.write(COM_PORT_OPTION);
+        out.write(command);
+        for (int b : value)
+        {
+            out.write(b);
+            if (b == IAC)
+            {
+                out.write(IAC);
+            }
+        }
+        out.write(IAC);
+        out.write(SE);
+    } // subnegotiate
+
+    private static void write(SocketChannel channel, byte[] data) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel)
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+                // nothing to do, it is going away
+            }
+        }
+    } // closeQuietly
+} // class RemoteSerialTransport
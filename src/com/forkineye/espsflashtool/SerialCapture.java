@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a serial stream byte for byte, with the monotonic time of every read, so it can be played back later by
+ * SerialReplay. The file is a header followed by one record per read, all big-endian:
+ * <pre>
+ *   "ESPSCAP1", port name (modified UTF-8, as DataOutput.writeUTF), start time (epoch ms, long), baud rate (int)
+ *   nanoseconds since the start (long), length (int), the bytes read
+ * </pre>
+ * record() only copies into a buffer and never blocks the reading thread; a background thread writes the buffer out.
+ * A read the buffer has no room for is dropped whole and counted, the file stays well formed.
+ */
+class SerialCapture
+{
+
+    static final byte[] MAGIC = "ESPSCAP1".getBytes(StandardCharsets.US_ASCII);
+    static final int RECORD_HEADER = 12;
+    static final String EXTENSION = ".espscap";
+
+    // -Despsflashtool.capture.buffer, bytes held for the writer thread
+    private static final int BUFFER_SIZE = Math.max(64 * 1024,
+            Integer.getInteger("espsflashtool.capture.buffer", 1024 * 1024));
+    private static final int WRITE_MS = 50;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long startNanos;
+    private final SerialMonitor.Ring ring = new SerialMonitor.Ring(BUFFER_SIZE);
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile long records = 0;
+    private volatile long bytes = 0;
+    private volatile long dropped = 0;
+
+    SerialCapture(File file, String port, int baudrate) throws IOException
+    {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        startNanos = System.nanoTime();
+        try
+        {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(head);
+            out.write(MAGIC);
+            out.writeUTF(port);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(baudrate);
+            write(ByteBuffer.wrap(head.toByteArray()));
+        }
+        catch (IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+
+        writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "serial-capture-" + port);
+        writer.setDaemon(true);
+        writer.start();
+    } // SerialCapture
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * One read's bytes, with the System.nanoTime() it completed at. Called by the one thread reading the port. Returns
+     * false when the read was dropped.
+     */
+    public boolean record(long nanoTime, byte[] data, int offset, int length)
+    {
+        if (closed)
+        {
+            return false;
+        }
+        if (ring.free() < RECORD_HEADER + length)
+        {
+            dropped++;
+            return false;
+        }
+        header.clear();
+        header.putLong(nanoTime - startNanos).putInt(length);
+        ring.write(header.array(), 0, RECORD_HEADER);
+        ring.write(data, offset, length);
+        records++;
+        bytes += length;
+        return true;
+    } // record
+
+    // Write out what is buffered and close the file
+    public void close()
+    {
+        closed = true;
+        try
+        {
+            writer.join(5000);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Captured " + records + " reads, " + bytes + " bytes to " + file.getName()
+                + ((dropped > 0) ? ", " + dropped + " reads dropped" : ""));
+    } // close
+
+    // Writer thread: moves the buffer to the file until closed, then once more for what came in meanwhile
+    private void drain()
+    {
+        byte[] chunk = new byte[64 * 1024];
+        try
+        {
+            while (true)
+            {
+                boolean last = closed;
+                int count;
+                while ((count = ring.read(chunk)) > 0)
+                {
+                    write(ByteBuffer.wrap(chunk, 0, count));
+                }
+                if (last)
+                {
+                    break;
+                }
+                Thread.sleep(WRITE_MS);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to write " + file + ": " + ex.getMessage());
+            closed = true;
+        }
+        catch (InterruptedException ex)
+        {
+            closed = true;
+        }
+        finally
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Unable to close " + file + ": " + ex.getMessage());
+            }
+        }
+    } // drain
+
+    private void write(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+} // class SerialCapture
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Spots device state changes in raw serial output: boots, WiFi connects, IP addresses, watchdog resets and crashes.
+ * All the keywords are matched in a single pass over the bytes with an Aho-Corasick automaton, ignoring ASCII case, so
+ * the cost per byte is the same however many keywords there are. The automaton carries its state from one chunk to the
+ * next, keywords split across reads are still found. A line that matched is reported with its type once it is complete.
+ *
+ * One matcher per serial stream, they are not thread safe. The automaton itself is built once and shared.
+ */
+class SerialEventMatcher
+{
+
+    public enum Type
+    {
+        BOOT,
+        WIFI_CONNECTED,
+        IP_ASSIGNED,
+        WATCHDOG_RESET,
+        EXCEPTION
+    }
+
+    public static class Event
+    {
+
+        final Type type;
+        final String port;
+        final long time;        // epoch ms the line was complete
+        final String line;
+        final String detail;    // the IP address for IP_ASSIGNED, else empty
+
+        Event(Type type, String port, long time, String line, String detail)
+        {
+            this.type = type;
+            this.port = port;
+            this.time = time;
+            this.line = line;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%tT %s %s%s: %s", time, port, type, detail.isEmpty() ? "" : " " + detail, line);
+        }
+    } // Event
+
+    // Called on the thread feeding the matcher
+    public interface Listener
+    {
+
+        void serialEvent(Event event);
+    }
+
+    // Keywords, lower case, as ESP8266 / ESP32 ROMs, the Arduino cores, ESP-IDF and ESPixelStick print them
+    private static final Object[][] KEYWORDS =
+    {
+        {
+            Type.BOOT, "rst:0x", "rst cause:", "boot mode:", "ets jan  8 2013", "espixelstick v"
+        },
+        {
+            Type.WIFI_CONNECTED, "wifi connected", "wifi: connected", "wifi:connected", "connected to ap", "sta connected"
+        },
+        {
+            Type.IP_ASSIGNED, "got ip", "sta ip:", "ip address:", "with ip:", "dhcp ip"
+        },
+        {
+            Type.WATCHDOG_RESET, "wdt_sys_reset", "wdt_rtc_reset", "wdt_cpu_reset", "int_wdt", "task watchdog",
+            "soft wdt reset", "wdt reset", "rst cause:4"
+        },
+        {
+            Type.EXCEPTION, "guru meditation error", "backtrace:", "exception (", ">>>stack>>>", "abort() was called",
+            "stack smashing", "panic'ed"
+        }
+    };
+    private static final Pattern IPV4 = Pattern.compile("\\b((?:\\d{1,3}\\.){3}\\d{1,3})\\b");
+    private static final int MAX_LINE = 512;   // longer lines are reported cut short
+    private static final Type[] TYPES = Type.values();
+    private static final Automaton AUTOMATON = new Automaton();
+
+    // Goto / failure automaton over bytes, flattened into a full transition table
+    private static class Automaton
+    {
+
+        final int[] next;       // state * 256 + byte -> state
+        final int[] output;     // state -> bit mask of the types matched on reaching it
+
+        Automaton()
+        {
+            List<int[]> gotos = new ArrayList<>();
+            List<Integer> outputs = new ArrayList<>();
+            gotos.add(newState());
+            outputs.add(0);
+            for (Object[] group : KEYWORDS)
+            {
+                int bit = 1 << ((Type) group[0]).ordinal();
+                for (int i = 1; i < group.length; i++)
+                {
+                    int state = 0;
+                    for (byte b : ((String) group[i]).getBytes(StandardCharsets.US_ASCII))
+                    {
+                        int c = b & 0xff;
+                        if (gotos.get(state)[c] <= 0)
+                        {
+                            gotos.get(state)[c] = gotos.size();
+                            gotos.add(newState());
+                            outputs.add(0);
+                        }
+                        state = gotos.get(state)[c];
+                    }
+                    outputs.set(state, outputs.get(state) | bit);
+                }
+            }
+
+            // Breadth first, each state falls back to the longest suffix that is also a prefix of some keyword
+            int states = gotos.size();
+            int[][] table = gotos.toArray(new int[states][]);
+            output = new int[states];
+            int[] fail = new int[states];
+            for (int s = 0; s < states; s++)
+            {
+                output[s] = outputs.get(s);
+            }
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < 256; c++)
+            {
+                if (table[0][c] > 0)
+                {
+                    fail[table[0][c]] = 0;
+                    queue.add(table[0][c]);
+                }
+                else
+                {
+                    table[0][c] = 0;
+                }
+            }
+            while (!queue.isEmpty())
+            {
+                int s = queue.poll();
+                output[s] |= output[fail[s]];
+                for (int c = 0; c < 256; c++)
+                {
+                    int t = table[s][c];
+                    if (t > 0)
+                    {
+                        fail[t] = table[fail[s]][c];
+                        queue.add(t);
+                    }
+                    else
+                    {
+                        table[s][c] = table[fail[s]][c];
+                    }
+                }
+            }
+
+            // One flat table, a single array lookup per byte
+            next = new int[states * 256];
+            for (int s = 0; s < states; s++)
+            {
+                System.arraycopy(table[s], 0, next, s * 256, 256);
+            }
+        } // Automaton
+
+        private static int[] newState()
+        {
+            int[] state = new int[256];
+            Arrays.fill(state, -1);
+            return state;
+        }
+    } // Automaton
+
+    private final String port;
+    private final Listener listener;
+    private final byte[] line = new byte[MAX_LINE];
+    private int lineLength = 0;
+    private int state = 0;
+    private int matched = 0;    // types seen on the current line
+
+    public SerialEventMatcher(String port, Listener listener)
+    {
+        this.port = port;
+        this.listener = listener;
+    }
+
+    /**
+     * Feed the next chunk of raw serial data. Events for lines it completes are reported before this returns.
+     */
+    public void feed(byte[] data, int offset, int length)
+    {
+        final int[] next = AUTOMATON.next;
+        final int[] output = AUTOMATON.output;
+        int s = state;
+        for (int i = offset; i < offset + length; i++)
+        {
+            int c = data[i] & 0xff;
+            if (c == '\n' || c == '\r')
+            {
+                endLine();
+                s = 0;
+                continue;
+            }
+            if (lineLength < MAX_LINE)
+            {
+                line[lineLength++] = data[i];
+            }
+            // ASCII upper case folds onto the lower case keywords
+            if (c >= 'A' && c <= 'Z')
+            {
+                c += 'a' - 'A';
+            }
+            s = next[(s << 8) | c];
+            matched |= output[s];
+        }
+        state = s;
+    } // feed
+
+    // Report what the line matched, the automaton starts over on the next one
+    private void endLine()
+    {
+        if (matched != 0)
+        {
+            String text = new String(line, 0, lineLength, StandardCharsets.US_ASCII).trim();
+            long now = System.currentTimeMillis();
+            for (Type type : TYPES)
+            {
+                if ((matched & (1 << type.ordinal())) == 0)
+                {
+                    continue;
+                }
+                String detail = "";
+                if (type == Type.IP_ASSIGNED)
+                {
+                    Matcher ip = IPV4.matcher(text);
+                    if (!ip.find())
+                    {
+                        // e.g. "got ip" on a line of its own, the address comes later
+                        continue;
+                    }
+                    detail = ip.group(1);
+                }
+                listener.serialEvent(new Event(type, port, now, text, detail));
+            }
+        }
+        matched = 0;
+        lineLength = 0;
+    } // endLine
+} // class SerialEventMatcher
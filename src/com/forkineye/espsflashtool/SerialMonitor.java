@@ -0,0 +1,416 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serial monitors for any number of ports, read by a small fixed set of threads instead of a jSerialComm callback thread
+ * per port. Each reader polls its ports in turn with one reusable read buffer, runs the port's event matcher and crash
+ * decoder over what came in and leaves the bytes in the port's ring buffer. Whoever shows the output drains the ring
+ * at its own pace; when it falls behind, the ring fills and further bytes are dropped and counted, the reader never
+ * blocks. Events are matched before the ring, so none are lost to a slow display.
+ *
+ * A port that gets closed under the monitor, by esptool jobs, is reopened once the scheduler has nothing running on
+ * it.
+ *
+ * With a capture directory set, each port's raw reads are also recorded, with their timing, as they come off the port
+ * (see SerialCapture).
+ */
+class SerialMonitor
+{
+
+    // -Despsflashtool.monitor.threads, .buffer (ring bytes per port) and .poll (idle sleep ms)
+    private static final int THREADS = Math.max(1, Integer.getInteger("espsflashtool.monitor.threads", 1));
+    private static final int RING_SIZE = Math.max(4096, Integer.getInteger("espsflashtool.monitor.buffer", 256 * 1024));
+    private static final int POLL_MS = Math.max(1, Integer.getInteger("espsflashtool.monitor.poll", 5));
+    private static final int READ_SIZE = 64 * 1024;
+    private static final long REOPEN_MS = 1000;
+    private static final long MAX_REOPEN_MS = 30000;
+    // -Despsflashtool.monitor.capture=<dir> records every monitored port for replay
+    private static final String CAPTURE_DIR = System.getProperty("espsflashtool.monitor.capture");
+
+    /**
+     * Bytes between one writer and one reader. Writes that don't fit are dropped, never waited on.
+     */
+    static class Ring
+    {
+
+        private final byte[] buffer;
+        private volatile long written = 0;  // total bytes ever written
+        private volatile long read = 0;     // total bytes ever read
+        private volatile long dropped = 0;
+
+        Ring(int size)
+        {
+            buffer = new byte[size];
+        }
+
+        // Writer side, returns how many bytes were kept
+        int write(byte[] data, int offset, int length)
+        {
+            long free = buffer.length - (written - read);
+            int count = (int) Math.min(length, free);
+            int at = (int) (written % buffer.length);
+            int first = Math.min(count, buffer.length - at);
+            System.arraycopy(data, offset, buffer, at, first);
+            System.arraycopy(data, offset + first, buffer, 0, count - first);
+            dropped += length - count;
+            written += count;
+            return count;
+        } // write
+
+        // Reader side, returns the bytes copied into data, 0 when the ring is empty
+        synchronized int read(byte[] data)
+        {
+            int count = (int) Math.min(data.length, written - read);
+            int at = (int) (read % buffer.length);
+            int first = Math.min(count, buffer.length - at);
+            System.arraycopy(buffer, at, data, 0, first);
+            System.arraycopy(buffer, 0, data, first, count - first);
+            read += count;
+            return count;
+        } // read
+
+        // Writer side, how many bytes the next write keeps at least
+        long free()
+        {
+            return buffer.length - (written - read);
+        }
+
+        long getDropped()
+        {
+            return dropped;
+        }
+    } // Ring
+
+    // Counters for one port, as a snapshot
+    public static class Stats
+    {
+
+        String port;
+        boolean open;
+        long bytes;             // read from the port since it was added
+        long dropped;           // bytes the ring had no room for
+        long reads;
+        double bytesPerSec;     // over the last second or so
+    }
+
+    /**
+     * One monitored port. Everything but read() and getStats() runs on its reader thread.
+     */
+    class Channel
+    {
+
+        private final ESPSSerialPort port;
+        private final String name;
+        private final Ring ring = new Ring(RING_SIZE);
+        private final SerialEventMatcher matcher;
+        private final CrashDecoder decoder = new CrashDecoder();
+        private SerialCapture capture = null;
+        private volatile boolean open = false;
+        private volatile boolean removed = false;
+        private volatile long bytes = 0;
+        private volatile long reads = 0;
+        private volatile double bytesPerSec = 0;
+        private long windowStart = System.currentTimeMillis();
+        private long windowBytes = 0;
+        private long lastOpenAttempt = 0;
+        private long reopenMs = REOPEN_MS;
+
+        Channel(ESPSSerialPort port)
+        {
+            this.port = port;
+            this.name = port.getName();
+            matcher = new SerialEventMatcher(name, new SerialEventMatcher.Listener()
+            {
+                @Override
+                public void serialEvent(SerialEventMatcher.Event event)
+                {
+                    ESPSFlashTool.metrics.countSerialEvent(event.port, event.type);
+                    SerialEventMatcher.Listener target = listener;
+                    if (target != null)
+                    {
+                        target.serialEvent(event);
+                    }
+                }
+            });
+        }
+
+        public ESPSSerialPort getPort()
+        {
+            return port;
+        }
+
+        // Serial output that has come in since the last call, 0 when there is none
+        public int read(byte[] data)
+        {
+            return ring.read(data);
+        }
+
+        public Stats getStats()
+        {
+            Stats stats = new Stats();
+            stats.port = name;
+            stats.open = open;
+            stats.bytes = bytes;
+            stats.dropped = ring.getDropped();
+            stats.reads = reads;
+            stats.bytesPerSec = bytesPerSec;
+            return stats;
+        }
+
+        // Open the port, unless a job has it. Failures back off, a server that is down isn't hammered.
+        private boolean open()
+        {
+            lastOpenAttempt = System.currentTimeMillis();
+            final SerialTransport transport = port.getTransport();
+            boolean opened = ESPSFlashTool.scheduler.runIfIdle(port, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    open = transport.open(Integer.parseInt(ESPSFlashTool.ftconfig.getBaudrate()));
+                }
+            }) && open;
+            reopenMs = opened ? REOPEN_MS : Math.min(reopenMs * 2, MAX_REOPEN_MS);
+            return opened;
+        } // open
+
+        // Read what the port has, returns false when there was nothing
+        private boolean poll(byte[] buffer)
+        {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= 1000)
+            {
+                bytesPerSec = (bytes - windowBytes) * 1000.0 / (now - windowStart);
+                windowStart = now;
+                windowBytes = bytes;
+            }
+
+            SerialTransport transport = port.getTransport();
+            if (removed)
+            {
+                return false;
+            }
+            if (!open || !transport.isOpen())
+            {
+                open = false;
+                if (now - lastOpenAttempt < reopenMs || !open())
+                {
+                    return false;
+                }
+                System.out.println("Serial monitor: " + name + " open");
+            }
+
+            int count = transport.read(buffer, buffer.length);
+            if (count <= 0)
+            {
+                // -1 once the port was closed or the device went away
+                open = count == 0;
+                return false;
+            }
+            if (capture != null)
+            {
+                capture.record(System.nanoTime(), buffer, 0, count);
+            }
+            bytes += count;
+            reads++;
+
+            matcher.feed(buffer, 0, count);
+            byte[] annotated = decoder.annotate(buffer, count, ESPSFlashTool.board);
+            ring.write(annotated, 0, (annotated == buffer) ? count : annotated.length);
+            return true;
+        } // poll
+
+        private void close()
+        {
+            removed = true;
+            open = false;
+            port.getTransport().close();
+            if (capture != null)
+            {
+                capture.close();
+            }
+            Stats stats = getStats();
+            System.out.println("Serial monitor: " + name + " closed after " + stats.bytes + " bytes, "
+                    + stats.dropped + " dropped");
+        }
+    } // Channel
+
+    // A capture file for a port, named after it and the time, null when not capturing or it can't be created
+    private static SerialCapture startCapture(ESPSSerialPort port)
+    {
+        if (CAPTURE_DIR == null || port.getTransport() instanceof SerialReplay)
+        {
+            return null;
+        }
+        File dir = new File(CAPTURE_DIR);
+        dir.mkdirs();
+        String name = port.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + SerialCapture.EXTENSION;
+        File file = new File(dir, name);
+        try
+        {
+            SerialCapture capture = new SerialCapture(file, port.getName(),
+                    Integer.parseInt(ESPSFlashTool.ftconfig.getBaudrate()));
+            System.out.println("Serial monitor: capturing " + port.getName() + " to " + file);
+            return capture;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to capture to " + file + ": " + ex.getMessage());
+            return null;
+        }
+    } // startCapture
+
+    // One polling thread and the channels it serves
+    private class Reader implements Runnable
+    {
+
+        final List<Channel> channels = new CopyOnWriteArrayList<>();
+        private final byte[] buffer = new byte[READ_SIZE];
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                boolean busy = false;
+                for (Channel channel : channels)
+                {
+                    try
+                    {
+                        busy |= channel.poll(buffer);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        System.err.println("Serial monitor: " + channel.name + ": " + ex);
+                    }
+                }
+                if (!busy)
+                {
+                    try
+                    {
+                        Thread.sleep(POLL_MS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        return;
+                    }
+                }
+            }
+        } // run
+    } // Reader
+
+    private final Map<String, Channel> channels = new LinkedHashMap<>();   // port key -> channel
+    private final Reader[] readers = new Reader[THREADS];
+    private volatile SerialEventMatcher.Listener listener = null;
+
+    public void setListener(SerialEventMatcher.Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Start monitoring a port, opening it. Returns the channel to read its output from, null when it couldn't be
+     * opened.
+     */
+    public synchronized Channel add(ESPSSerialPort port)
+    {
+        if (port == null || port.getTransport() == null)
+        {
+            return null;
+        }
+        Channel channel = channels.get(port.getKey());
+        if (channel != null)
+        {
+            return channel;
+        }
+        channel = new Channel(port);
+        if (!channel.open())
+        {
+            return null;
+        }
+        channel.capture = startCapture(port);
+        channels.put(port.getKey(), channel);
+
+        // The reader with the fewest ports gets it, threads start on first use
+        Reader reader = null;
+        for (int i = 0; i < readers.length; i++)
+        {
+            if (readers[i] == null)
+            {
+                readers[i] = new Reader();
+                Thread thread = new Thread(readers[i], "serial-monitor-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            if (reader == null || readers[i].channels.size() < reader.channels.size())
+            {
+                reader = readers[i];
+            }
+        }
+        reader.channels.add(channel);
+        System.out.println("Serial monitor: " + channel.name + " added, " + channels.size() + " port(s)");
+        return channel;
+    } // add
+
+    // Stop monitoring a port and close it
+    public synchronized void remove(ESPSSerialPort port)
+    {
+        if (port == null || port.getTransport() == null)
+        {
+            return;
+        }
+        Channel channel = channels.remove(port.getKey());
+        if (channel == null)
+        {
+            return;
+        }
+        for (Reader reader : readers)
+        {
+            if (reader != null)
+            {
+                reader.channels.remove(channel);
+            }
+        }
+        channel.close();
+    } // remove
+
+    public synchronized Channel get(ESPSSerialPort port)
+    {
+        return (port == null || port.getTransport() == null) ? null : channels.get(port.getKey());
+    }
+
+    public synchronized List<Stats> getStats()
+    {
+        List<Stats> stats = new ArrayList<>();
+        for (Channel channel : channels.values())
+        {
+            stats.add(channel.getStats());
+        }
+        return stats;
+    }
+} // class SerialMonitor
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plays back a SerialCapture with the read sizes and timing it was recorded with, at the original speed, faster, or as
+ * fast as it can (speed 0).
+ *
+ * replay() hands the reads to a Sink, for parsers and benchmarks. As a SerialTransport, replay:&lt;file&gt;[?speed=N]
+ * stands in for a port in espsflashtool.ports.extra: the serial monitor, its event matcher and crash decoder see the
+ * captured device boot again. Playback restarts whenever the port is opened and the line goes quiet at the end of the
+ * capture. There is nothing behind it to flash.
+ */
+class SerialReplay implements SerialTransport
+{
+
+    private static final Pattern URL = Pattern.compile("^replay:(.+?)(?:\\?speed=(\\d+(?:\\.\\d*)?))?$");
+
+    // Gets the reads of a capture, in order
+    public interface Sink
+    {
+
+        // nanos is the time since the capture started, data is reused for the next read
+        void data(long nanos, byte[] data, int length);
+    }
+
+    private final String url;
+    private final File file;
+    private final double speed;
+
+    // The capture, loaded on first use
+    private ByteBuffer records = null;
+    private String port;
+    private long startedAt;
+    private int baudrate;
+    private long count;
+    private long bytes;
+    private long duration;
+    private int largest;
+
+    // Playback as a transport
+    private volatile boolean open = false;
+    private long openedAt;
+    private int pending;     // bytes of the current read not returned yet
+
+    // A capture file as a port, replay:<file>[?speed=N]
+    SerialReplay(String url) throws IllegalArgumentException
+    {
+        Matcher matcher = URL.matcher(url.trim());
+        if (!matcher.matches())
+        {
+            throw new IllegalArgumentException("not a capture replay: " + url + ", expected replay:<file>[?speed=N]");
+        }
+        this.url = url.trim();
+        this.file = new File(matcher.group(1));
+        this.speed = (matcher.group(2) == null) ? 1.0 : Double.parseDouble(matcher.group(2));
+    }
+
+    SerialReplay(File file, double speed)
+    {
+        this.url = "replay:" + file.getPath() + "?speed=" + speed;
+        this.file = file;
+        this.speed = speed;
+    }
+
+    // A capture already in memory
+    SerialReplay(ByteBuffer capture, double speed) throws IOException
+    {
+        this.url = "replay:memory";
+        this.file = null;
+        this.speed = speed;
+        load(capture);
+    }
+
+    public static boolean isUrl(String value)
+    {
+        return value != null && URL.matcher(value.trim()).matches();
+    }
+
+    // Read the header and check the records, a record cut short at the end (the tool was killed) is left out
+    private void load(ByteBuffer capture) throws IOException
+    {
+        ByteBuffer buffer = capture.duplicate();
+        byte[] head = new byte[Math.min(buffer.remaining(), SerialCapture.MAGIC.length + 2 + 65535 + 12)];
+        buffer.get(head);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(head));
+        byte[] magic = new byte[SerialCapture.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, SerialCapture.MAGIC))
+        {
+            throw new IOException("not a serial capture");
+        }
+        port = in.readUTF();
+        startedAt = in.readLong();
+        baudrate = in.readInt();
+        int start = capture.position() + head.length - in.available();
+
+        buffer.position(start);
+        buffer.limit(capture.limit());
+        count = 0;
+        bytes = 0;
+        duration = 0;
+        largest = 0;
+        while (buffer.remaining() >= SerialCapture.RECORD_HEADER)
+        {
+            long at = buffer.getLong();
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+            {
+                buffer.position(buffer.position() - SerialCapture.RECORD_HEADER);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            count++;
+            bytes += length;
+            duration = at;
+            largest = Math.max(largest, length);
+        }
+        buffer.limit(buffer.position());
+        buffer.position(start);
+        records = buffer.slice();
+    } // load
+
+    private synchronized void ensureLoaded() throws IOException
+    {
+        if (records != null)
+        {
+            return;
+        }
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            // The mapping stays valid after the channel is closed
+            load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    } // ensureLoaded
+
+    /**
+     * Feed every read to the sink, waiting between them as the capture did (scaled by speed). Returns the time taken
+     * in ns.
+     */
+    public long replay(Sink sink) throws IOException, InterruptedException
+    {
+        ensureLoaded();
+        ByteBuffer buffer = records.duplicate();
+        byte[] data = new byte[Math.max(1, largest)];
+        long begin = System.nanoTime();
+        while (buffer.hasRemaining())
+        {
+            long at = buffer.getLong();
+            int length = buffer.getInt();
+            buffer.get(data, 0, length);
+            if (speed > 0)
+            {
+                long wait = (long) (at / speed) - (System.nanoTime() - begin);
+                if (wait > 0)
+                {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+            sink.data(at, data, length);
+        }
+        return System.nanoTime() - begin;
+    } // replay
+
+    // The captured port's name
+    public String getCapturedPort() throws IOException
+    {
+        ensureLoaded();
+        return port;
+    }
+
+    // Epoch ms the capture started
+    public long getCapturedAt() throws IOException
+    {
+        ensureLoaded();
+        return startedAt;
+    }
+
+    public int getBaudrate() throws IOException
+    {
+        ensureLoaded();
+        return baudrate;
+    }
+
+    // Number of reads in the capture
+    public long getCount() throws IOException
+    {
+        ensureLoaded();
+        return count;
+    }
+
+    public long getBytes() throws IOException
+    {
+        ensureLoaded();
+        return bytes;
+    }
+
+    // Time from the start of the capture to its last read, ns
+    public long getDuration() throws IOException
+    {
+        ensureLoaded();
+        return duration;
+    }
+
+    @Override
+    public String getName()
+    {
+        if (file == null)
+        {
+            return "replay";
+        }
+        String name = file.getName();
+        return name.endsWith(SerialCapture.EXTENSION)
+                ? name.substring(0, name.length() - SerialCapture.EXTENSION.length()) : name;
+    }
+
+    @Override
+    public String getPath()
+    {
+        return url;
+    }
+
+    @Override
+    public String getDevicePath()
+    {
+        return url;
+    }
+
+    @Override
+    public String getIdentity()
+    {
+        return "replay";
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Capture replay" + ((speed == 1.0) ? "" : (speed > 0) ? " at " + speed + "x" : " at full speed");
+    }
+
+    // Start from the beginning of the capture, whatever the baud rate
+    @Override
+    public synchronized boolean open(int baudrate)
+    {
+        try
+        {
+            ensureLoaded();
+        }
+        catch (IOException ex)
+        {
+            System.out.println("Unable to replay " + file + ": " + ex.getMessage());
+            return false;
+        }
+        records.rewind();
+        pending = 0;
+        openedAt = System.nanoTime();
+        open = true;
+        return true;
+    } // open
+
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    // The captured bytes whose time has come, 0 once the capture is over
+    @Override
+    public synchronized int read(byte[] buffer, int length)
+    {
+        if (!open)
+        {
+            return -1;
+        }
+        long now = System.nanoTime() - openedAt;
+        int read = 0;
+        while (read < length)
+        {
+            if (pending == 0)
+            {
+                if (records.remaining() < SerialCapture.RECORD_HEADER)
+                {
+                    break;
+                }
+                records.mark();
+                long at = records.getLong();
+                if (speed > 0 && at / speed > now)
+                {
+                    records.reset();
+                    break;
+                }
+                pending = records.getInt();
+            }
+            int chunk = Math.min(pending, length - read);
+            records.get(buffer, read, chunk);
+            pending -= chunk;
+            read += chunk;
+        }
+        return read;
+    } // read
+
+    @Override
+    public synchronized void close()
+    {
+        open = false;
+    }
+} // class SerialReplay
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+/**
+ * How a flashing slot's serial line is reached: a local port, or a serial server on the network. esptool is handed
+ * getDevicePath() and does its own I/O; the tool itself only reads, for the serial monitor.
+ */
+interface SerialTransport
+{
+
+    // Short name for logs, metrics and file names, e.g. ttyUSB0, COM3 or host:port
+    String getName();
+
+    // Unique for the slot, e.g. /dev/ttyUSB0 or rfc2217://host:port
+    String getPath();
+
+    // What esptool's --port gets
+    String getDevicePath();
+
+    // The device behind the slot, VID:PID:serial for USB
+    String getIdentity();
+
+    String getDescription();
+
+    boolean open(int baudrate);
+
+    boolean isOpen();
+
+    /**
+     * Read what has arrived, without waiting. Returns the number of bytes read, 0 when there were none, -1 once the
+     * line is closed or gone.
+     */
+    int read(byte[] buffer, int length);
+
+    void close();
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.awt.EventQueue;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Executor for device jobs plus helpers to hand results back to the EDT.
+final class TaskExecutor
+{
+
+    private static final ExecutorService executor = create();
+
+    private TaskExecutor()
+    {
+    }
+
+    public static ExecutorService get()
+    {
+        return executor;
+    }
+
+    public static void execute(Runnable task)
+    {
+        executor.execute(task);
+    }
+
+    // Run on the EDT - directly if already there, queued otherwise
+    public static void runOnEdt(Runnable task)
+    {
+        if (EventQueue.isDispatchThread())
+        {
+            task.run();
+        }
+        else
+        {
+            EventQueue.invokeLater(task);
+        }
+    } // runOnEdt
+
+    /**
+     * Jobs spend nearly all of their life blocked on a tool process, so they get a thread each rather than sharing a small
+     * fixed pool. Virtual threads are used when the runtime has them, looked up reflectively so the tool still builds and
+     * runs on Java 8.
+     */
+    private static ExecutorService create()
+    {
+        try
+        {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService virtual = (ExecutorService) factory.invoke(null);
+            System.out.println("TaskExecutor: using virtual threads");
+            return virtual;
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            // not available on this runtime
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "TaskExecutor-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    } // create
+} // class TaskExecutor
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolved python / esptool / mklittlefs locations. Executable bits are checked and set with NIO once, and again only when
+ * a tool file's size or modification time changes, so a job costs a few stat calls rather than two chmod processes.
+ */
+class Toolchain
+{
+
+    private static final Pattern ESPTOOL_VERSION = Pattern.compile("^__version__\\s*=\\s*[\"']([^\"']+)[\"']");
+    private static final Pattern TOOL_VERSION = Pattern.compile("version:?\\s*(\\S+)");
+
+    private final String python;
+    private final String esptool;
+    private final String mkfilesystem;
+
+    private String pythonPath = null;   // python as found on the PATH, or the bundled one
+    private long esptoolStamp = 0;
+    private long mkfilesystemStamp = 0;
+    private volatile String esptoolVersion = "unknown";
+    private volatile String mkfilesystemVersion = "unknown";
+    private volatile String pythonVersion = "unknown";
+
+    public Toolchain(String python, String esptool, String mkfilesystem)
+    {
+        this.python = python;
+        this.esptool = esptool;
+        this.mkfilesystem = mkfilesystem;
+    }
+
+    /**
+     * Make sure the tools are runnable. Cheap when nothing changed since the last call.
+     */
+    public synchronized void validate()
+    {
+        if (pythonPath == null)
+        {
+            pythonPath = resolvePython();
+        }
+
+        boolean changed = false;
+        long stamp = stamp(esptool);
+        if (stamp != esptoolStamp)
+        {
+            if (esptoolStamp != 0)
+            {
+                // Warm workers still have the old esptool loaded
+                EsptoolWorker.retireAll();
+            }
+            makeExecutable(esptool);
+            esptoolVersion = readEsptoolVersion();
+            esptoolStamp = stamp;
+            changed = true;
+        }
+
+        stamp = stamp(mkfilesystem);
+        if (stamp != mkfilesystemStamp)
+        {
+            makeExecutable(mkfilesystem);
+            mkfilesystemStamp = stamp;
+            changed = true;
+        }
+
+        if (changed)
+        {
+            // Asking the binaries for their versions forks, keep that off the caller's thread
+            TaskExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mkfilesystemVersion = probeVersion(mkfilesystem, "--version");
+                    pythonVersion = probeVersion(getPython(), "--version");
+                    System.out.println("   Toolchain: python " + pythonVersion + " (" + getPython() + "), esptool "
+                            + esptoolVersion + ", mklittlefs " + mkfilesystemVersion);
+                }
+            });
+        }
+    } // validate
+
+    public synchronized String getPython()
+    {
+        return (pythonPath == null) ? python : pythonPath;
+    }
+
+    public String getEsptool()
+    {
+        return esptool;
+    }
+
+    public String getMkfilesystem()
+    {
+        return mkfilesystem;
+    }
+
+    public String getEsptoolVersion()
+    {
+        return esptoolVersion;
+    }
+
+    public String getMkfilesystemVersion()
+    {
+        return mkfilesystemVersion;
+    }
+
+    public String getPythonVersion()
+    {
+        return pythonVersion;
+    }
+
+    // Size and modification time folded together, 0 when the file is missing
+    private static long stamp(String path)
+    {
+        File file = new File(path);
+        if (!file.isFile())
+        {
+            return 0;
+        }
+        return file.lastModified() * 31 + file.length();
+    }
+
+    // Add the execute bits chmod 550 used to give, leaving the rest of the mode alone
+    private static void makeExecutable(String path)
+    {
+        Path file = new File(path).toPath();
+        try
+        {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+            if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)
+                    && permissions.contains(PosixFilePermission.GROUP_EXECUTE))
+            {
+                return;
+            }
+            permissions.add(PosixFilePermission.OWNER_READ);
+            permissions.add(PosixFilePermission.OWNER_EXECUTE);
+            permissions.add(PosixFilePermission.GROUP_READ);
+            permissions.add(PosixFilePermission.GROUP_EXECUTE);
+            Files.setPosixFilePermissions(file, permissions);
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Not a POSIX file system (Windows), nothing to do
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Unable to make " + path + " executable: " + ex.getMessage());
+        }
+    } // makeExecutable
+
+    // Absolute path of a PATH python, python3 if there is no plain python. Bundled interpreters are used as is.
+    private String resolvePython()
+    {
+        if (python.contains("/") || python.contains(File.separator))
+        {
+            return python;
+        }
+        String path = System.getenv("PATH");
+        if (path == null)
+        {
+            return python;
+        }
+        for (String name : new String[]
+        {
+            python, python + "3"
+        })
+        {
+            for (String dir : path.split(File.pathSeparator))
+            {
+                File candidate = new File(dir, name);
+                if (candidate.isFile() && candidate.canExecute())
+                {
+                    return candidate.getAbsolutePath();
+                }
+            }
+        }
+        return python;
+    } // resolvePython
+
+    private String readEsptoolVersion()
+    {
+        File source = new File(new File(esptool).getParentFile(), "esptool/esptool.py");
+        try ( BufferedReader reader = new BufferedReader(new FileReader(source)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                Matcher matcher = ESPTOOL_VERSION.matcher(line);
+                if (matcher.find())
+                {
+                    return matcher.group(1);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            // fall through
+        }
+        return "unknown";
+    } // readEsptoolVersion
+
+    // First line the tool prints for a version query
+    private static String probeVersion(String tool, String option)
+    {
+        try
+        {
+            Process process = new ProcessBuilder(tool, option).redirectErrorStream(true).start();
+            try ( BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+            {
+                String version = "unknown";
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    if (!line.trim().isEmpty())
+                    {
+                        // "mklittlefs  version: 0.2.3" -> "0.2.3", "Python 3.11.2" stays as is
+                        Matcher matcher = TOOL_VERSION.matcher(line);
+                        version = matcher.find() ? matcher.group(1) : line.trim();
+                        break;
+                    }
+                }
+                process.waitFor();
+                return version;
+            }
+        }
+        catch (IOException | InterruptedException ex)
+        {
+            return "unknown";
+        }
+    } // probeVersion
+} // class Toolchain
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2022 Shelby Merrick
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.forkineye.espsflashtool;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Append-only record of every unit the tool flashed, erased or updated over the air: one JSON line per job in
+ * inventory/units.jsonl. Records are never rewritten, so a crash can at worst cut the last line short, which is skipped
+ * when the file is read back.
+ *
+ * Serial jobs know the MAC from esptool. An over the air update only knows it when the fleet file gives it, updates
+ * pushed to a bare address are kept in the file but can't be looked up, and the unit keeps its last serial record.
+ *
+ * Only the byte offsets of the records are kept in memory, indexed by MAC, plus the release each unit currently runs.
+ * "What is on unit X" and "which units need upgrading" are answered from the indexes, reading just the records asked for.
+ */
+class UnitInventory
+{
+
+    private static final String FILE = "units.jsonl";
+
+    public static class Unit
+    {
+
+        long time;                      // epoch ms the job finished
+        long job;
+        String action = "";
+        String port = "";               // serial port, or the host of an over the air update
+        String mac = "";                // lower case, empty when esptool or the fleet file didn't give it
+        String chip = "";               // as esptool reports it, e.g. "ESP32-D0WD-V3 (revision v3.0)"
+        String chipId = "";             // ESP8266 chip ID, when reported
+        String board = "";
+        String release = "";            // firmware.json release, empty after an erase
+        String version = "";
+        Map<String, String> hashes = new LinkedHashMap<>();  // image file name -> SHA-256
+        Map<String, Long> phases = new LinkedHashMap<>();    // phase -> ms
+        int result;
+
+        public boolean isSuccess()
+        {
+            return result == 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%tF %<tT %s %s on %s: %s %s%s", time, mac.isEmpty() ? "(unknown MAC)" : mac, action,
+                    port, board, release.isEmpty() ? "(no firmware)" : release + " " + version,
+                    isSuccess() ? "" : " FAILED (" + result + ")");
+        }
+    } // Unit
+
+    // Just the fields the indexes need, cheaper to parse when the file is scanned
+    private static class Key
+    {
+
+        String mac;
+        String release;
+        int result;
+    }
+
+    private final Gson gson = new Gson();
+    private final Map<String, List<Long>> byMac = new HashMap<>();      // every record of a unit, oldest first
+    private final Map<String, String> releaseOf = new HashMap<>();      // unit -> release of its last record
+    private final Map<String, Set<String>> byRelease = new HashMap<>(); // release -> units whose last write succeeded
+    private File file = null;
+    private long length = 0;
+    private boolean partial = false;    // the file ends in a cut short record
+    private int records = 0;
+
+    /**
+     * Read the inventory in dir and build the indexes. Cheap to call more than once, only the first call reads.
+     */
+    public synchronized void open(String dir)
+    {
+        if (file != null)
+        {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        file = new File(dir, FILE);
+        length = 0;
+        if (!file.isFile())
+        {
+            return;
+        }
+
+        try ( InputStream in = new FileInputStream(file))
+        {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+            byte[] buffer = new byte[64 * 1024];
+            long offset = 0;
+            int count;
+            while ((count = in.read(buffer)) != -1)
+            {
+                int start = 0;
+                for (int i = 0; i < count; i++)
+                {
+                    if (buffer[i] == '\n')
+                    {
+                        line.write(buffer, start, i - start);
+                        index(offset, line);
+                        line.reset();
+                        offset = length + i + 1;
+                        start = i + 1;
+                    }
+                }
+                line.write(buffer, start, count - start);
+                length += count;
+            }
+            // A last line without its newline was cut short, it's ignored and the next append starts a fresh line
+            if (line.size() > 0)
+            {
+                System.err.println("Inventory: ignoring incomplete last record in " + file);
+                partial = true;
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Inventory: unable to read " + file + ": " + ex.getMessage());
+        }
+        System.out.println("Inventory: " + records + " record(s), " + byMac.size() + " unit(s) indexed in "
+                + (System.nanoTime() - startNanos) / 1000000 + "ms");
+    } // open
+
+    // An over the air update of the board's sketch, mac as the caller knows it, empty when it doesn't
+    public static Unit ota(long job, String host, String mac, Board board, EfuUploader.Result result)
+    {
+        Unit unit = new Unit();
+        unit.time = System.currentTimeMillis();
+        unit.job = job;
+        unit.action = "OTA";
+        unit.port = host;
+        unit.mac = normalizeMac(mac);
+        unit.board = board.name;
+        unit.release = board.release;
+        unit.version = board.version;
+        unit.phases.put(FlashMetrics.Phase.OTA.name(), result.wallMs);
+        unit.result = result.isSuccess() ? 0 : result.httpStatus;
+        try
+        {
+            unit.hashes.put(board.getAppbin(), ImageCache.mapSha256(board.getPath(board.getAppbin())));
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Inventory: unable to hash images: " + ex.getMessage());
+        }
+        return unit;
+    } // ota
+
+    // Append to the inventory in the tool's inventory directory, a job doesn't fail over its record
+    public void record(Unit unit)
+    {
+        try
+        {
+            open(ESPSFlashTool.paths.getInventoryPath());
+            append(unit);
+            System.out.println("Inventory: " + unit);
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Inventory: unable to record job " + unit.job + ": " + ex.getMessage());
+        }
+    } // record
+
+    public synchronized void append(Unit unit) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalStateException("inventory not open");
+        }
+        file.getParentFile().mkdirs();
+        long fileLength = file.length();
+        byte[] record = (gson.toJson(unit) + "\n").getBytes(StandardCharsets.UTF_8);
+        try ( OutputStream out = new FileOutputStream(file, true))
+        {
+            // Finish off a line a crash cut short so the new record starts clean
+            if (partial)
+            {
+                out.write('\n');
+                fileLength++;
+                partial = false;
+            }
+            out.write(record);
+        }
+        length = fileLength + record.length;
+
+        Key key = new Key();
+        key.mac = unit.mac;
+        key.release = unit.release;
+        key.result = unit.result;
+        index(fileLength, key);
+    } // append
+
+    // The last job that wrote to this unit, null for a unit never seen
+    public synchronized Unit get(String mac) throws IOException
+    {
+        List<Long> offsets = byMac.get(normalizeMac(mac));
+        return (offsets == null) ? null : read(offsets.get(offsets.size() - 1));
+    }
+
+    // Every job on this unit, oldest first
+    public synchronized List<Unit> history(String mac) throws IOException
+    {
+        List<Unit> units = new ArrayList<>();
+        List<Long> offsets = byMac.get(normalizeMac(mac));
+        if (offsets != null)
+        {
+            for (long offset : offsets)
+            {
+                units.add(read(offset));
+            }
+        }
+        return units;
+    } // history
+
+    // Units running the release, their last write having succeeded
+    public synchronized Set<String> unitsOn(String release)
+    {
+        Set<String> units = byRelease.get(release);
+        return (units == null) ? new TreeSet<String>() : new TreeSet<>(units);
+    }
+
+    // Units not on the release: older releases, erased units and units whose last write failed
+    public synchronized Set<String> needingUpgrade(String release)
+    {
+        Set<String> units = new TreeSet<>(releaseOf.keySet());
+        Set<String> current = byRelease.get(release);
+        if (current != null)
+        {
+            units.removeAll(current);
+        }
+        return units;
+    } // needingUpgrade
+
+    // Count of units per release they run, failed and erased units under ""
+    public synchronized Map<String, Integer> releaseCounts()
+    {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String mac : releaseOf.keySet())
+        {
+            String release = releaseOf.get(mac);
+            Set<String> ok = byRelease.get(release);
+            String key = (ok != null && ok.contains(mac)) ? release : "";
+            Integer count = counts.get(key);
+            counts.put(key, (count == null) ? 1 : count + 1);
+        }
+        return counts;
+    } // releaseCounts
+
+    public static String normalizeMac(String mac)
+    {
+        return (mac == null) ? "" : mac.trim().toLowerCase().replace('-', ':');
+    }
+
+    private void index(long offset, ByteArrayOutputStream line)
+    {
+        if (line.size() == 0)
+        {
+            return;
+        }
+        try
+        {
+            Key key = gson.fromJson(new String(line.toByteArray(), StandardCharsets.UTF_8), Key.class);
+            if (key != null)
+            {
+                index(offset, key);
+            }
+        }
+        catch (JsonParseException ex)
+        {
+            System.err.println("Inventory: skipping bad record at byte " + offset + ": " + ex.getMessage());
+        }
+    } // index
+
+    private void index(long offset, Key key)
+    {
+        records++;
+        String mac = normalizeMac(key.mac);
+        if (mac.isEmpty())
+        {
+            // Kept in the file, but nothing to look it up by
+            return;
+        }
+
+        List<Long> offsets = byMac.get(mac);
+        if (offsets == null)
+        {
+            offsets = new ArrayList<>(2);
+            byMac.put(mac, offsets);
+        }
+        offsets.add(offset);
+
+        String previous = releaseOf.get(mac);
+        if (previous != null)
+        {
+            Set<String> units = byRelease.get(previous);
+            if (units != null)
+            {
+                units.remove(mac);
+            }
+        }
+        String release = (key.release == null) ? "" : key.release;
+        releaseOf.put(mac, release);
+        if (key.result == 0 && !release.isEmpty())
+        {
+            Set<String> units = byRelease.get(release);
+            if (units == null)
+            {
+                units = new TreeSet<>();
+                byRelease.put(release, units);
+            }
+            units.add(mac);
+        }
+    } // index
+
+    private Unit read(long offset) throws IOException
+    {
+        try ( RandomAccessFile in = new RandomAccessFile(file, "r"))
+        {
+            in.seek(offset);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+            byte[] buffer = new byte[1024];
+            int count;
+            outer:
+            while ((count = in.read(buffer)) != -1)
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    if (buffer[i] == '\n')
+                    {
+                        line.write(buffer, 0, i);
+                        break outer;
+                    }
+                }
+                line.write(buffer, 0, count);
+            }
+            return gson.fromJson(new String(line.toByteArray(), StandardCharsets.UTF_8), Unit.class);
+        }
+    } // read
+} // class UnitInventory
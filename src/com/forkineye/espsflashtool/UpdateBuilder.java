@@ -15,12 +15,13 @@
  */
 package com.forkineye.espsflashtool;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  *
@@ -35,6 +36,8 @@ public class UpdateBuilder
         'E', 'F', 'U', 0x00
     };
     private static final int VERSION = 1;
+    private static final int COPY_CHUNK = 64 * 1024;
+    private static final long MAX_RECORD = 0xFFFFFFFFL;     // record sizes are unsigned 32 bit
 
     private enum RecordType
     {
@@ -62,44 +65,106 @@ public class UpdateBuilder
         System.out.println("spiffs:" + spiffs);
         System.out.println("target:" + target);
 
-        DataInputStream dsSketch = new DataInputStream(new FileInputStream(sketch));
-        DataInputStream dsSpiffs = new DataInputStream(new FileInputStream(spiffs));
-        DataOutputStream dsTarget = new DataOutputStream(new FileOutputStream(target));
-
-        /*
-        Sketch + SPIFFS combined OTA format
-            32bit signature
-            16bit version
-
-            {n # of records}
-            16bit record type
-            32bit size
-            {x bytes of data}
-         */
-        ESPSFlashTool.flashToolUI.appendTxtSystemOutput("Write EFU header\n");
+        build(ImageCache.map(sketch), ImageCache.load(spiffs), target);
+    }
+
+    // Build from images as handed out by ImageCache, the file is written straight from the mapped or cached buffers
+    public static void build(ByteBuffer sketch, ByteBuffer spiffs, String target) throws IOException
+    {
+        try ( OutputStream out = new FileOutputStream(target))
+        {
+            write(sketch, spiffs, out);
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            // Don't leave a truncated EFU behind for someone to upload
+            new File(target).delete();
+            throw (ex instanceof IOException) ? (IOException) ex : new IOException(ex.getMessage());
+        }
+    }
+
+    // Size of the EFU image for a sketch and filesystem image of the given sizes, a negative szSpiffs for no filesystem
+    public static long size(long szSketch, long szSpiffs)
+    {
+        checkRecordSize("sketch", szSketch);
+        if (szSpiffs >= 0)
+        {
+            checkRecordSize("filesystem", szSpiffs);
+        }
+        return SIGNATURE.length + 2 + (2 + 4 + szSketch) + ((szSpiffs < 0) ? 0 : (2 + 4 + szSpiffs));
+    }
+
+    // Write the EFU image for in-memory sketch and filesystem images to out. A null spiffs leaves the device's
+    // filesystem alone. The buffers' positions are not moved. Does not close out.
+    public static void write(ByteBuffer sketch, ByteBuffer spiffs, OutputStream out) throws IOException
+    {
+        DataOutputStream dsTarget = new DataOutputStream(out);
+        size(sketch.remaining(), (spiffs == null) ? -1 : spiffs.remaining());
+        writeHeader(dsTarget);
+
+        writeRecordHeader(dsTarget, RecordType.SKETCH_IMAGE, sketch.remaining());
+        copy(sketch, out);
+
+        if (spiffs != null)
+        {
+            writeRecordHeader(dsTarget, RecordType.SPIFFS_IMAGE, spiffs.remaining());
+            copy(spiffs, out);
+        }
+        out.flush();
+    }
+
+    /*
+    Sketch + SPIFFS combined OTA format
+        32bit signature
+        16bit version
+
+        {n # of records}
+        16bit record type
+        32bit size (unsigned)
+        {x bytes of data}
+     */
+    private static void writeHeader(DataOutputStream dsTarget) throws IOException
+    {
         dsTarget.write(SIGNATURE, 0, SIGNATURE.length);
         dsTarget.writeShort(VERSION);
+    }
+
+    private static void writeRecordHeader(DataOutputStream dsTarget, RecordType type, long size) throws IOException
+    {
+        dsTarget.writeShort(type.getValue());
+        dsTarget.writeInt((int) size);  // low 32 bits, checkRecordSize() keeps size within them
+        dsTarget.flush();
+    }
+
+    private static void checkRecordSize(String image, long size)
+    {
+        if (size < 0 || size > MAX_RECORD)
+        {
+            throw new IllegalArgumentException("The " + image + " image is " + size
+                    + " bytes, an EFU record holds at most " + MAX_RECORD);
+        }
+    }
 
-        ESPSFlashTool.flashToolUI.appendTxtSystemOutput("Write Sketch Image\n");
-        int szSketch = (int) new File(sketch).length();
-        dsTarget.writeShort(RecordType.SKETCH_IMAGE.getValue());
-        dsTarget.writeInt(szSketch);
-        for (int i = 0; i < szSketch; i++)
+    // Files take the image straight from the page cache, other streams a chunk at a time
+    private static void copy(ByteBuffer image, OutputStream out) throws IOException
+    {
+        ByteBuffer data = image.duplicate();
+        if (out instanceof FileOutputStream)
         {
-            dsTarget.write(dsSketch.read());
+            FileChannel channel = ((FileOutputStream) out).getChannel();
+            while (data.hasRemaining())
+            {
+                channel.write(data);
+            }
+            return;
         }
 
-        ESPSFlashTool.flashToolUI.appendTxtSystemOutput("Write SPIFFS/LittelFs Image\n");
-        int szSpiffs = (int) new File(spiffs).length();
-        dsTarget.writeShort(RecordType.SPIFFS_IMAGE.getValue());
-        dsTarget.writeInt(szSpiffs);
-        for (int i = 0; i < szSpiffs; i++)
+        byte[] chunk = new byte[Math.min(COPY_CHUNK, Math.max(1, data.remaining()))];
+        while (data.hasRemaining())
         {
-            dsTarget.write(dsSpiffs.read());
+            int count = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, count);
+            out.write(chunk, 0, count);
         }
-        ESPSFlashTool.flashToolUI.appendTxtSystemOutput("Build EFU Image Done\n");
-        dsSketch.close();
-        dsSpiffs.close();
-        dsTarget.close();
     }
 }